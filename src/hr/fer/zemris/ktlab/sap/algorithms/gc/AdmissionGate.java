@@ -0,0 +1,135 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+/**
+ * Admits alignment jobs only while their estimated memory fits into a fixed
+ * capacity, so that a batch of jobs waits for the heap instead of running out
+ * of it. A job reserves its estimate (see <code>MemoryEstimator</code>) before
+ * it starts and releases it when it ends; a job whose estimate doesn't fit
+ * waits in a queue until enough is released. A job needing more than the
+ * whole capacity, or arriving while the queue is full, is rejected.
+ * <p>
+ * One gate may be shared by all the aligners running in a virtual machine.
+ *
+ * @see MultiTargetAligner#setAdmissionGate(AdmissionGate)
+ */
+public class AdmissionGate {
+
+	/** The bytes all admitted jobs may reserve together. */
+	private final long capacity;
+
+	/** The largest number of jobs waiting to be admitted. */
+	private final int queueSize;
+
+	/** The bytes reserved by the admitted jobs. */
+	private long reserved;
+
+	/** The number of jobs waiting to be admitted. */
+	private int waiting;
+
+	/**
+	 * The public constructor for the AdmissionGate class.
+	 * @param capacity
+	 * 		The bytes all admitted jobs may reserve together.
+	 * @param queueSize
+	 * 		The largest number of jobs waiting to be admitted; further jobs are rejected.
+	 */
+	public AdmissionGate(long capacity, int queueSize) {
+		super();
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive, was " + capacity);
+		}
+		if (queueSize < 0) {
+			throw new IllegalArgumentException("Queue size must not be negative, was " + queueSize);
+		}
+		this.capacity = capacity;
+		this.queueSize = queueSize;
+	}
+
+	/** Returns a gate admitting jobs into a half of the largest heap of the virtual machine, with an unbounded queue. */
+	public static AdmissionGate forRuntime() {
+		return new AdmissionGate(Runtime.getRuntime().maxMemory() / 2, Integer.MAX_VALUE);
+	}
+
+	/** Returns <code>true</code> if a job needing the given bytes can ever be admitted. */
+	public boolean admits(long bytes) {
+		return bytes <= capacity;
+	}
+
+	/**
+	 * Reserves the bytes of a job, waiting until they fit.
+	 * @throws IllegalArgumentException
+	 * 		If the job needs more than the capacity of the gate.
+	 * @throws IllegalStateException
+	 * 		If the job would have to wait while the queue is full.
+	 * @throws InterruptedException
+	 * 		If the thread is interrupted while waiting; nothing is reserved then.
+	 */
+	public synchronized void acquire(long bytes) throws InterruptedException {
+		check(bytes);
+		if (reserved + bytes <= capacity) {
+			reserved += bytes;
+			return;
+		}
+		if (waiting >= queueSize) {
+			throw new IllegalStateException("Rejected a job of " + bytes + " bytes, "
+					+ waiting + " jobs are waiting already");
+		}
+		waiting++;
+		try {
+			while (reserved + bytes > capacity) {
+				wait();
+			}
+			reserved += bytes;
+		} finally {
+			waiting--;
+		}
+	}
+
+	/**
+	 * Reserves the bytes of a job if they fit now.
+	 * @return
+	 * 		<code>true</code> if the bytes were reserved.
+	 * @throws IllegalArgumentException
+	 * 		If the job needs more than the capacity of the gate.
+	 */
+	public synchronized boolean tryAcquire(long bytes) {
+		check(bytes);
+		if (reserved + bytes > capacity) return false;
+		reserved += bytes;
+		return true;
+	}
+
+	/** Releases the bytes reserved by a job which has ended. */
+	public synchronized void release(long bytes) {
+		if (bytes < 0 || bytes > reserved) {
+			throw new IllegalArgumentException("Cannot release " + bytes + " bytes, " + reserved + " are reserved");
+		}
+		reserved -= bytes;
+		notifyAll();
+	}
+
+	/** Returns the bytes all admitted jobs may reserve together. */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/** Returns the bytes reserved by the admitted jobs. */
+	public synchronized long getReserved() {
+		return reserved;
+	}
+
+	/** Returns the number of jobs waiting to be admitted. */
+	public synchronized int getWaiting() {
+		return waiting;
+	}
+
+	/** Checks that a job of the given bytes can ever be admitted. */
+	private void check(long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("Number of bytes must not be negative, was " + bytes);
+		}
+		if (!admits(bytes)) {
+			throw new IllegalArgumentException("Rejected a job of " + bytes + " bytes, the capacity is " + capacity);
+		}
+	}
+}
@@ -1,12 +1,28 @@
 package hr.fer.zemris.ktlab.sap.algorithms.gc;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import hr.fer.zemris.ktlab.sap.util.DataModel;
 import hr.fer.zemris.ktlab.sap.algorithms.gc.Alignment;
-import hr.fer.zemris.ktlab.sap.algorithms.gc.ProbabilityComputation;
 
 public class Aligner {
+
+	/** The assumed number of cells of the dynamic programming array filled per millisecond, before it is measured. */
+	private static final long CELLS_PER_MILLISECOND = 2000;
+
+	/** The smallest number of pairs of paragraphs per thread worth aligning in parallel. */
+	private static final int MIN_PAIRS_PER_THREAD = 4;
+
+	/** The largest number of times a range is aligned in a widened corridor in the <code>BANDED</code> mode. */
+	private static final int BANDED_PASSES = 3;
 	
 	/** The <code>DataModel</code> object being aligned. */
 	private DataModel dm;
@@ -43,12 +59,12 @@ public class Aligner {
 	 */
 	private int currentElement2;
 	
-	/** A reference to the keys of the <code>Elements</code> in the source
+	/** A copy of the keys of the <code>Elements</code> in the source
 	 * 	language.
 	 */
 	private List<Integer> keys1;
 	
-	/** A reference to the keys of the <code>Elements</code> in the destination
+	/** A copy of the keys of the <code>Elements</code> in the destination
 	 * 	language.
 	 */
 	private List<Integer> keys2;
@@ -63,6 +79,33 @@ public class Aligner {
 	 *  alignment has already been done. */ 
 	private int sentenceAlignmentDone;
 	
+	/** Runs the dynamic programming over the lengths of the elements in a pair of paragraphs. */
+	private LengthAligner lengthAligner;
+	
+	/** Finds the anchors in a pair of paragraphs. Is <code>null</code> if anchor detection is turned off. */
+	private AnchorIndex anchorIndex;
+	
+	/** Aligns long paragraphs in several resolutions in the <code>COARSE_TO_FINE</code> mode. */
+	private CoarseToFineAligner coarseToFineAligner;
+
+	/** Searches the cheapest path of each paragraph pair in the <code>BEST_FIRST</code> mode. */
+	private BestFirstAligner bestFirstAligner;
+
+	/** Aligns each paragraph pair with the moves kept in a temporary file in the <code>OUT_OF_CORE</code> mode. */
+	private OutOfCoreAligner outOfCoreAligner;
+	
+	/** Estimates the band searched in the <code>BANDED</code> mode. */
+	private LengthCorrelator lengthCorrelator;
+	
+	/** The way the dynamic programming array of each paragraph pair is searched. */
+	private AlignmentMode mode;
+
+	/** The buffers of the lengths of the paragraphs if no workspace is set, created when first needed. */
+	private AlignerWorkspace ownWorkspace;
+
+	/** Set to stop an alignment with a deadline before the next pair of paragraphs. */
+	private volatile boolean cancelled;
+	
 	/**
 	 * The public constructor for the Aligner class. 
 	 * @param dm
@@ -71,8 +114,8 @@ public class Aligner {
 	public Aligner(DataModel dm) {
 		super();
 		this.dm = dm;
-		this.keys1 = dm.getKeys1();
-		this.keys2 = dm.getKeys2();
+		this.keys1 = new ArrayList<Integer>(dm.getKeys1());
+		this.keys2 = new ArrayList<Integer>(dm.getKeys2());
 		this.numberOfElements1 = this.keys1.size();
 		this.numberOfElements2 = this.keys2.size();
 		this.currentElement1 = 0;
@@ -82,6 +125,38 @@ public class Aligner {
 		this.paragraphsDeleted = new LinkedList<Integer>();
 		this.paragraphsInserted = new LinkedList<Integer>();
 		this.sentenceAlignmentDone = 0;
+		this.lengthAligner = new LengthAligner();
+		this.anchorIndex = null;
+		this.coarseToFineAligner = new CoarseToFineAligner(lengthAligner, CoarseToFineAligner.DEFAULT_BLOCK_SIZE, CoarseToFineAligner.DEFAULT_RADIUS);
+		this.bestFirstAligner = new BestFirstAligner(lengthAligner);
+		this.outOfCoreAligner = new OutOfCoreAligner(lengthAligner, null);
+		this.lengthCorrelator = new LengthCorrelator(LengthCorrelator.DEFAULT_WINDOW_SIZE);
+		this.mode = AlignmentMode.FULL;
+	}
+
+	/**
+	 * Creates an aligner of pairs of paragraphs for a thread aligning them in parallel with the
+	 * <code>parent</code>. It has the cost model of the parent and the workspace of the current
+	 * thread, and doesn't detect anchors.
+	 */
+	private Aligner(Aligner parent) {
+		super();
+		this.dm = parent.dm;
+		this.keys1 = parent.keys1;
+		this.keys2 = parent.keys2;
+		this.numberOfElements1 = parent.numberOfElements1;
+		this.numberOfElements2 = parent.numberOfElements2;
+		this.paragraphsDeleted = parent.paragraphsDeleted;
+		this.paragraphsInserted = parent.paragraphsInserted;
+		this.lengthAligner = new LengthAligner();
+		this.lengthAligner.setCostModel(parent.getCostModel());
+		this.lengthAligner.setWorkspace(AlignerWorkspace.forCurrentThread());
+		this.anchorIndex = null;
+		this.coarseToFineAligner = new CoarseToFineAligner(lengthAligner, CoarseToFineAligner.DEFAULT_BLOCK_SIZE, CoarseToFineAligner.DEFAULT_RADIUS);
+		this.bestFirstAligner = new BestFirstAligner(lengthAligner);
+		this.outOfCoreAligner = new OutOfCoreAligner(lengthAligner, null);
+		this.lengthCorrelator = new LengthCorrelator(LengthCorrelator.DEFAULT_WINDOW_SIZE);
+		this.mode = parent.mode;
 	}
 
 	/** Returns a reference to the <code>DataModel</code> being sentence aligned by this <code>Aligner</code>. */
@@ -112,9 +187,14 @@ public class Aligner {
 	 * Writes the alignment into the <code>DataModel</code> object being aligned using its 
 	 * built-in methods for adding connections. 
 	 * @param align
-	 * 		The sentence alignment to be transcribed into the <code>DataModel</code> object.
+	 * 		The sentence alignment to be transcribed into the <code>DataModel</code> object. Its
+	 * 		fields hold positions in the paragraphs, not keys.
+	 * @param paragraphKeys1
+	 * 		Keys of the elements of the paragraph in the source language.
+	 * @param paragraphKeys2
+	 * 		Keys of the elements of the paragraph in the destination language.
 	 */
-	private void setDataModelConnection( Alignment align ) {
+	private void setDataModelConnection( Alignment align, int[] paragraphKeys1, int[] paragraphKeys2 ) {
 		// Prostor za optimizaciju? Prvo ispitivati najvjerovatnije sravnjenje (11)?
 		if ( (align.x2 == -1) && (align.y2 == -1) ) {
 			if (align.y1 == -1) {
@@ -124,42 +204,243 @@ public class Aligner {
 				return; /* Insertion (01) makes no connection in the DataModel */
 			}
 			else { /* Substitution (11) */
-				dm.addConnection(align.x1, align.y1);
+				dm.addConnection(paragraphKeys1[align.x1], paragraphKeys2[align.y1]);
 			}
 		} else {
 			if (align.x2 == -1) { /* Expansion (12) */
-				dm.addConnection(align.x1, align.y1);
-				dm.addConnection(align.x1, align.y2);
+				dm.addConnection(paragraphKeys1[align.x1], paragraphKeys2[align.y1]);
+				dm.addConnection(paragraphKeys1[align.x1], paragraphKeys2[align.y2]);
 			} else if (align.y2 == -1) { /* Contraction (21) */
-				dm.addConnection(align.x1, align.y1);
-				dm.addConnection(align.x2, align.y1);
+				dm.addConnection(paragraphKeys1[align.x1], paragraphKeys2[align.y1]);
+				dm.addConnection(paragraphKeys1[align.x2], paragraphKeys2[align.y1]);
 			} else { /* Merger (22) */
-				dm.addConnection(align.x1, align.y1);
-				dm.addConnection(align.x1, align.y2);
-				dm.addConnection(align.x2, align.y1);
-				dm.addConnection(align.x2, align.y2);
+				dm.addConnection(paragraphKeys1[align.x1], paragraphKeys2[align.y1]);
+				dm.addConnection(paragraphKeys1[align.x1], paragraphKeys2[align.y2]);
+				dm.addConnection(paragraphKeys1[align.x2], paragraphKeys2[align.y1]);
+				dm.addConnection(paragraphKeys1[align.x2], paragraphKeys2[align.y2]);
 			}
 		}
 	}
 
-	
 	/** 
-	 * Initializes a two-dimensional array of references to point to newly created <code>Alignment</code> objects. 
-	 * @param array
-	 * 		The array to be initialized.
-	 * @param rows
-	 * 		The first index of a two-dimensional array.
-	 * @param columns
-	 * 		The second index of a two-dimensional array.
-	 */
-	private void initializeAlignmentArray(Alignment array[][], int rows, int columns) {
-		for (int i=0; i<rows; ++i) {
-			for (int j=0; j<columns; ++j) {
-				array[i][j] = new Alignment();
-			}
+	 * Writes the alignments of a pair of paragraphs into the <code>DataModel</code> object, from the
+	 * last one back to the first one. 
+	 */
+	private void setDataModelConnections(List<Alignment> path, int[] paragraphKeys1, int[] paragraphKeys2) {
+		ListIterator<Alignment> roadBackHome = path.listIterator(path.size());
+		while ( roadBackHome.hasPrevious() ) {
+			setDataModelConnection(roadBackHome.previous(), paragraphKeys1, paragraphKeys2);
 		}
 	}
+
+	/**
+	 * Copies the keys of a paragraph's elements into an array.
+	 * @param keys
+	 * 		The keys of all elements in one language.
+	 * @param start
+	 * 		Position of the first element of the paragraph.
+	 * @param size
+	 * 		Number of elements in the paragraph.
+	 */
+	private int[] paragraphKeys(List<Integer> keys, int start, int size) {
+		int[] paragraphKeys = new int[size];
+		int i = 0;
+		for (Integer key : keys.subList(start, start+size)) {
+			paragraphKeys[i++] = key;
+		}
+		return paragraphKeys;
+	}
+
+	/**
+	 * Returns the lengths of the elements with the given keys, in a buffer of the workspace.
+	 * @param buffer
+	 * 		The number of the buffer of the workspace; the buffer may be longer than the paragraph.
+	 */
+	private int[] paragraphLengths(int[] paragraphKeys, int buffer) {
+		int[] lengths = workspace().buffer(buffer, paragraphKeys.length);
+		for (int i=0; i<paragraphKeys.length; ++i) {
+			lengths[i] = dm.getElement(paragraphKeys[i]).length();
+		}
+		return lengths;
+	}
+
+	/** Returns the lengths of the elements with the given keys in a new array. */
+	private int[] paragraphLengths(int[] paragraphKeys) {
+		int[] lengths = new int[paragraphKeys.length];
+		for (int i=0; i<paragraphKeys.length; ++i) {
+			lengths[i] = dm.getElement(paragraphKeys[i]).length();
+		}
+		return lengths;
+	}
+
+	/**
+	 * Turns on the detection of anchors (elements identical in both languages, such as numbers,
+	 * codes and URLs). Anchors are aligned 1-1 without the dynamic programming, which is then run
+	 * separately on the elements between each pair of neighbouring anchors.
+	 * @param anchorDetection
+	 * 		<code>true</code> to split paragraphs at anchors, <code>false</code> to align each
+	 * 		paragraph as a whole (the default).
+	 */
+	public void setAnchorDetection(boolean anchorDetection) {
+		this.anchorIndex = anchorDetection ? new AnchorIndex(dm) : null;
+	}
+
+	/**
+	 * Sets the way the dynamic programming array of each paragraph pair is searched, both in the
+	 * sentence and in the paragraph alignment. The <code>BANDED</code> and <code>COARSE_TO_FINE</code>
+	 * modes fill only a part of the array; their result may differ from the full alignment where the
+	 * cheapest path leaves that part. The <code>BEST_FIRST</code> and <code>OUT_OF_CORE</code> modes
+	 * find the same alignment as the full one.
+	 * @param mode
+	 * 		The alignment mode, <code>FULL</code> by default.
+	 */
+	public void setMode(AlignmentMode mode) {
+		this.mode = mode;
+	}
 	
+	/** Returns the way the dynamic programming array of each paragraph pair is searched. */
+	public AlignmentMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Sets the distance measure used in the sentence and in the paragraph alignment, for example
+	 * a <code>GaleChurchCostModel</code> with the parameters of the language pair, or its compiled
+	 * (tabulated) version.
+	 * @param costModel
+	 * 		The distance measure, <code>GaleChurchCostModel.DEFAULT</code> by default.
+	 */
+	public void setCostModel(CostModel costModel) {
+		lengthAligner.setCostModel(costModel);
+	}
+
+	/** Returns the distance measure used in the sentence and in the paragraph alignment. */
+	public CostModel getCostModel() {
+		return lengthAligner.getCostModel();
+	}
+
+	/**
+	 * Sets whether the distances are looked up in a precomputed table instead of evaluating the
+	 * normal distribution for every cell. See {@link LengthAligner#setTabulatedCosts(boolean)}.
+	 */
+	public void setTabulatedCosts(boolean tabulatedCosts) {
+		lengthAligner.setTabulatedCosts(tabulatedCosts);
+	}
+
+	/** Returns <code>true</code> if the distances are looked up in a precomputed table. */
+	public boolean isTabulatedCosts() {
+		return lengthAligner.isTabulatedCosts();
+	}
+
+	/**
+	 * Sets the buffers reused by the alignment of all paragraph pairs, so that no arrays but the
+	 * results are allocated once the buffers are large enough. The workspace may be shared by
+	 * many aligners used one after another by the same thread, e.g. the one returned by
+	 * <code>AlignerWorkspace.forCurrentThread()</code>.
+	 * @param workspace
+	 * 		The workspace, or <code>null</code> to allocate new arrays for each paragraph pair (the default).
+	 */
+	public void setWorkspace(AlignerWorkspace workspace) {
+		lengthAligner.setWorkspace(workspace);
+	}
+
+	/** Returns the buffers reused by the alignment, or <code>null</code> if there are none. */
+	public AlignerWorkspace getWorkspace() {
+		return lengthAligner.getWorkspace();
+	}
+
+	/** Returns the workspace set, or the one of this aligner if none is set. */
+	AlignerWorkspace workspace() {
+		AlignerWorkspace workspace = lengthAligner.getWorkspace();
+		if (workspace != null) return workspace;
+		if (ownWorkspace == null) ownWorkspace = new AlignerWorkspace();
+		return ownWorkspace;
+	}
+
+	/** 
+	 * Aligns a range of segments in the selected mode. Used for both sentences and paragraphs. 
+	 * The arguments and the result are the same as in {@link LengthAligner#align(int[], int, int, int[], int, int)}.
+	 */
+	List<Alignment> alignRange(int[] lengths1, int from1, int to1, int[] lengths2, int from2, int to2) {
+		return alignRange(mode, lengths1, from1, to1, lengths2, from2, to2);
+	}
+
+	/** Aligns a range of segments in the given mode. */
+	private List<Alignment> alignRange(AlignmentMode mode, int[] lengths1, int from1, int to1, int[] lengths2, int from2, int to2) {
+		switch (mode) {
+			case BANDED : 
+				return alignBanded(lengths1, from1, to1, lengths2, from2, to2);
+			case COARSE_TO_FINE : 
+				return coarseToFineAligner.align(lengths1, from1, to1, lengths2, from2, to2);
+			case BEST_FIRST : 
+				return bestFirstAligner.align(lengths1, from1, to1, lengths2, from2, to2);
+			case OUT_OF_CORE : 
+				return outOfCoreAligner.align(lengths1, from1, to1, lengths2, from2, to2);
+			default : 
+				return lengthAligner.align(lengths1, from1, to1, lengths2, from2, to2);
+		}
+	}
+
+	/**
+	 * Aligns a range of segments inside the corridor estimated by the <code>LengthCorrelator</code>.
+	 * Where the path found runs along the edge of the corridor, a cheaper one may lie outside, so
+	 * the corridor is widened and the range aligned again, at most <code>BANDED_PASSES</code> times.
+	 * If the path still runs along the edge, or the corridor doesn't connect the first and the last
+	 * cell of the array, the range is aligned coarse-to-fine.
+	 */
+	private List<Alignment> alignBanded(int[] lengths1, int from1, int to1, int[] lengths2, int from2, int to2) {
+		Corridor band = lengthCorrelator.corridor(lengths1, from1, to1, lengths2, from2, to2, LengthCorrelator.DEFAULT_RADIUS);
+		for (int pass=0; pass<BANDED_PASSES; ++pass) {
+			List<Alignment> path = lengthAligner.align(lengths1, from1, to1, lengths2, from2, to2, band);
+			if (path == null) break;
+			if (!band.isTouchedBy(path)) return path;
+			band.widen(LengthCorrelator.DEFAULT_RADIUS);
+		}
+		return coarseToFineAligner.align(lengths1, from1, to1, lengths2, from2, to2);
+	}
+
+	/**
+	 * Aligns a pair of paragraphs and returns the alignments (beads) from the first to the last one.
+	 * If anchor detection is turned on, the paragraphs are split into independent sub-problems at
+	 * the anchors.
+	 */
+	private List<Alignment> alignParagraph(int[] paragraphKeys1, int[] paragraphKeys2, AlignmentMode mode) {
+		int[] lengths1 = paragraphLengths(paragraphKeys1, AlignerWorkspace.LENGTHS1);
+		int[] lengths2 = paragraphLengths(paragraphKeys2, AlignerWorkspace.LENGTHS2);
+		int[][] anchors = (anchorIndex != null) ? anchorIndex.findAnchors(paragraphKeys1, paragraphKeys2) : null;
+		return alignParagraph(lengths1, paragraphKeys1.length, lengths2, paragraphKeys2.length, anchors, mode);
+	}
+
+	/**
+	 * Aligns a pair of paragraphs given by the lengths of their elements, without reading the
+	 * <code>DataModel</code>.
+	 * @param anchors
+	 * 		The positions of the anchors in both paragraphs, or <code>null</code> to align the
+	 * 		paragraphs as a whole.
+	 */
+	private List<Alignment> alignParagraph(int[] lengths1, int size1, int[] lengths2, int size2, int[][] anchors,
+			AlignmentMode mode) {
+		if (anchors == null) {
+			return alignRange(mode, lengths1, 0, size1, lengths2, 0, size2);
+		}
+
+		List<Alignment> path = new LinkedList<Alignment>();
+		int from1 = 0;
+		int from2 = 0;
+		for (int k=0; k<anchors[0].length; ++k) {
+			path.addAll(alignRange(mode, lengths1, from1, anchors[0][k], lengths2, from2, anchors[1][k]));
+			Alignment anchor = new Alignment();
+			anchor.type = 11;
+			anchor.x1 = anchors[0][k];
+			anchor.y1 = anchors[1][k];
+			path.add(anchor);
+			from1 = anchors[0][k] + 1;
+			from2 = anchors[1][k] + 1;
+		}
+		path.addAll(alignRange(mode, lengths1, from1, size1, lengths2, from2, size2));
+		return path;
+	}
+
 	/**
 	 * Aligns the elements (sentences) inside all corresponding paragraphs. Assumes an equal number of paragraphs
 	 * in each language. Additional paragraphs are ignored. 
@@ -168,152 +449,298 @@ public class Aligner {
 		// The beginning of the execution time measurement
 		long startTime = System.currentTimeMillis();
 		
+		alignSentences(0, null, null);
+		
+		// The end of the execution measurement time
+		long endTime = System.currentTimeMillis();
+
+		return (endTime - startTime);
+	}
+
+	/**
+	 * Aligns the elements (sentences) inside all corresponding paragraphs like {@link #alignSentences()},
+	 * but returns by the given time. The mode of each pair of paragraphs is chosen by the time left:
+	 * the full alignment if it is expected to fit into the pair's share of the time left, otherwise
+	 * the <code>BANDED</code> mode and, if even that doesn't fit, the <code>COARSE_TO_FINE</code>
+	 * mode. The mode set by {@link #setMode(AlignmentMode)} is not used. The time is estimated from
+	 * the number of cells of the dynamic programming array and the speed measured on the pairs
+	 * aligned so far.
+	 * <p>
+	 * If the deadline passes, the pair being aligned is abandoned and the pairs left are not
+	 * aligned; the connections of the pairs aligned before stay in the <code>DataModel</code>. The
+	 * same happens on a call of {@link #cancel()} or an interruption of the thread, which are
+	 * checked before each pair of paragraphs.
+	 * @param deadline
+	 * 		The time to return by, as by <code>System.currentTimeMillis()</code>.
+	 * @param listener
+	 * 		Receives the progress after each pair of paragraphs, or <code>null</code>.
+	 * @return
+	 * 		The modes the pairs of paragraphs were aligned in and whether all of them were aligned.
+	 */
+	public AlignmentReport alignSentences(long deadline, AlignmentProgressListener listener) {
+		if (deadline <= 0) {
+			throw new IllegalArgumentException("Deadline must be positive, was " + deadline);
+		}
+		long startTime = System.currentTimeMillis();
+		AlignmentReport report = new AlignmentReport();
+		boolean complete;
+		lengthAligner.setDeadline(deadline);
+		lengthCorrelator.setDeadline(deadline);
+		try {
+			complete = alignSentences(deadline, listener, report);
+		} finally {
+			lengthAligner.setDeadline(0);
+			lengthCorrelator.setDeadline(0);
+		}
+		// Paragraphs can't be aligned any more once connections of sentences may have been written.
+		this.sentenceAlignmentDone = 1;
+		report.finish(complete, cancelled, System.currentTimeMillis() - startTime);
+		return report;
+	}
+
+	/**
+	 * Aligns the elements (sentences) inside all corresponding paragraphs like {@link #alignSentences()},
+	 * but chooses the mode of each pair of paragraphs by its size and the budget (see
+	 * <code>AlignmentBudget</code>) instead of using the mode set by {@link #setMode(AlignmentMode)}.
+	 * If there are enough pairs, they are aligned in the threads of the budget at the same time; the
+	 * elements are read and the connections written into the <code>DataModel</code> by the calling
+	 * thread only, in order.
+	 * @param budget
+	 * 		The memory, cells and threads the alignment may use.
+	 * @return
+	 * 		The modes chosen for the pairs of paragraphs and the number of threads used.
+	 * @throws IllegalStateException
+	 * 		If the thread is interrupted or the alignment of a pair fails in another thread.
+	 */
+	public AlignmentReport alignSentences(AlignmentBudget budget) {
+		long startTime = System.currentTimeMillis();
+		AlignmentReport report = new AlignmentReport();
+
+		List<int[][]> pairs = remainingParagraphs();
+
+		// Too few pairs per thread aren't worth the threads.
+		int threads = Math.max(Math.min(budget.getThreads(), pairs.size() / MIN_PAIRS_PER_THREAD), 1);
+		if (threads == 1) {
+			for (int[][] pair : pairs) {
+				AlignmentMode pairMode = budget.select(pair[0].length, pair[1].length, 1);
+				setDataModelConnections(alignParagraph(pair[0], pair[1], pairMode), pair[0], pair[1]);
+				report.addMode(pairMode, pair[0].length, pair[1].length);
+			}
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			// One aligner per thread of the pool, reused for all pairs the thread aligns.
+			final ThreadLocal<Aligner> aligners = new ThreadLocal<Aligner>() {
+				protected Aligner initialValue() {
+					return new Aligner(Aligner.this);
+				}
+			};
+			try {
+				List<Future<List<Alignment>>> paths = new ArrayList<Future<List<Alignment>>>();
+				for (int[][] pair : pairs) {
+					final AlignmentMode pairMode = budget.select(pair[0].length, pair[1].length, threads);
+					final int[] lengths1 = paragraphLengths(pair[0]);
+					final int[] lengths2 = paragraphLengths(pair[1]);
+					final int[][] anchors = (anchorIndex != null) ? anchorIndex.findAnchors(pair[0], pair[1]) : null;
+					paths.add(executor.submit(new Callable<List<Alignment>>() {
+						public List<Alignment> call() {
+							return aligners.get().alignParagraph(lengths1, lengths1.length,
+									lengths2, lengths2.length, anchors, pairMode);
+						}
+					}));
+					report.addMode(pairMode, pair[0].length, pair[1].length);
+				}
+				for (int k=0; k<pairs.size(); ++k) {
+					setDataModelConnections(paths.get(k).get(), pairs.get(k)[0], pairs.get(k)[1]);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while aligning the paragraphs", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Failed to align a pair of paragraphs", e.getCause());
+			} finally {
+				executor.shutdown();
+			}
+		}
+
+		this.sentenceAlignmentDone = 1;
+		report.setThreads(threads);
+		report.finish(true, false, System.currentTimeMillis() - startTime);
+		return report;
+	}
+
+	/**
+	 * Aligns the elements (sentences) inside all corresponding paragraphs like {@link #alignSentences()},
+	 * but publishes the alignments (beads) of each pair of paragraphs as soon as the pair is aligned,
+	 * as far as the subscriber requests them (see <code>BeadPublisher</code>). Nothing is aligned
+	 * until the subscriber requests the first beads.
+	 * @param executor
+	 * 		Runs the alignment of each pair of paragraphs.
+	 * @return
+	 * 		The publisher of the beads, accepting one subscriber.
+	 */
+	public BeadPublisher publishSentences(Executor executor) {
+		return new BeadPublisher(this, executor, BeadPublisher.DEFAULT_PREFETCH);
+	}
+
+	/**
+	 * Aligns the next pair of paragraphs in the selected mode and writes its connections into the
+	 * <code>DataModel</code>. Called by <code>BeadPublisher</code>, by one thread at a time.
+	 * @return
+	 * 		The beads of the pair, from the first to the last one, or <code>null</code> if all pairs
+	 * 		have been aligned.
+	 */
+	List<BeadPublisher.Bead> alignNextParagraphs() {
+		if (sentenceAlignmentDone != 0) return null;
+
+		int[][] paragraphKeys = nextParagraphs();
+		int[] paragraphKeys1 = paragraphKeys[0];
+		int[] paragraphKeys2 = paragraphKeys[1];
+		List<Alignment> path = alignParagraph(paragraphKeys1, paragraphKeys2, mode);
+		setDataModelConnections(path, paragraphKeys1, paragraphKeys2);
+		if ( (currentElement1 >= numberOfElements1)||(currentElement2 >= numberOfElements2) ) {
+			this.sentenceAlignmentDone = 1;
+		}
+
+		List<BeadPublisher.Bead> beads = new ArrayList<BeadPublisher.Bead>(path.size());
+		for (Alignment align : path) {
+			beads.add(new BeadPublisher.Bead(currentParagraph1, beadKeys(align.x1, align.x2, paragraphKeys1),
+					beadKeys(align.y1, align.y2, paragraphKeys2)));
+		}
+		return beads;
+	}
+
+	/** Returns the keys of the elements at the positions of a bead which aren't -1. */
+	private static int[] beadKeys(int first, int second, int[] paragraphKeys) {
+		if (first == -1) return new int[0];
+		if (second == -1) return new int[] { paragraphKeys[first] };
+		return new int[] { paragraphKeys[first], paragraphKeys[second] };
+	}
+
+	/**
+	 * Stops an alignment with a deadline running in another thread before its next pair of
+	 * paragraphs. Has no effect on the alignment without a deadline.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Finds the next pair of paragraphs, skipping the paragraphs deleted from the source language and
+	 * the ones inserted in the destination language, and moves the current elements past it.
+	 * @return
+	 * 		The keys of the elements of the paragraph in the source language and of the one in the
+	 * 		destination language.
+	 */
+	private int[][] nextParagraphs() {
+		int paragraphStart1 = 0;
+		int paragraphStart2 = 0;
+		int paragraphSize1 = 0;
+		int paragraphSize2 = 0;
+		
+		// Search for a paragraph that wasn't deleted in the destination language.
+		do {
+			currentParagraph1 = dm.getParagraphForElement(keys1.get(currentElement1));
+			paragraphStart1 = currentElement1;
+			paragraphSize1 = 0;
+			// Counts the number of elements in the current paragraph (source language).
+			while ((currentElement1 < numberOfElements1)&&(dm.getParagraphForElement(keys1.get(currentElement1))==currentParagraph1)) {
+				paragraphSize1++;
+				currentElement1++;
+			}
+		} while ( paragraphsDeleted.contains(currentParagraph1) );
 		
-		int currentParagraphStart1 = 0;
-		int currentParagraphStart2 = 0;
-		int currentParagraphSize1 = 0;
-		int currentParagraphSize2 = 0;
+		// Search for a paragraph that wasn't inserted in the destination language.
+		do {
+			currentParagraph2 = dm.getParagraphForElement(keys2.get(currentElement2));
+			paragraphStart2 = currentElement2;
+			paragraphSize2 = 0;
+			// Counts the number of elements in the current paragraph (destination language).
+			while ((currentElement2 < numberOfElements2)&&(dm.getParagraphForElement(keys2.get(currentElement2))==currentParagraph2)) {
+				paragraphSize2++;
+				currentElement2++;
+			}	
+		} while ( paragraphsInserted.contains(currentParagraph2) );
+		
+		return new int[][] { paragraphKeys(keys1, paragraphStart1, paragraphSize1),
+				paragraphKeys(keys2, paragraphStart2, paragraphSize2) };
+	}
+
+	/**
+	 * Finds all pairs of paragraphs left like {@link #nextParagraphs()} and moves the current
+	 * elements past them.
+	 * @return
+	 * 		The keys of the elements of each pair, in order.
+	 */
+	List<int[][]> remainingParagraphs() {
+		List<int[][]> pairs = new ArrayList<int[][]>();
+		do {
+			pairs.add(nextParagraphs());
+		} while ( (currentElement1 < numberOfElements1)&&(currentElement2 < numberOfElements2) );
+		return pairs;
+	}
+
+	/**
+	 * Aligns the elements inside all corresponding paragraphs.
+	 * @param report
+	 * 		Receives the modes of an alignment with a deadline, or <code>null</code> to align without a
+	 * 		deadline in the selected mode.
+	 * @return
+	 * 		<code>true</code> if all pairs of paragraphs were aligned.
+	 */
+	private boolean alignSentences(long deadline, AlignmentProgressListener listener, AlignmentReport report) {
+		// The cells of the arrays filled so far and the time it took, for estimating the speed.
+		long cellsDone = 0;
+		long timeSpent = 0;
 		
 		// This loop aligns the whole DataModel object. It assumes an equal number of paragraphs in both languages.
 		// All additional paragraphs (paragraphs without pairs in the other language) are ignored.
 		do {
 			
-			// Search for a paragraph that wasn't deleted in the destination language.
-			do {
-				currentParagraph1 = dm.getParagraphForElement(keys1.get(currentElement1));
-				currentParagraphStart1 = currentElement1;
-				currentParagraphSize1 = 0;
-				// Counts the number of elements in the current paragraph (source language).
-				while ((currentElement1 < numberOfElements1)&&(dm.getParagraphForElement(keys1.get(currentElement1))==currentParagraph1)) {
-					currentParagraphSize1++;
-					currentElement1++;
+			int[][] paragraphKeys = nextParagraphs();
+			int[] paragraphKeys1 = paragraphKeys[0];
+			int[] paragraphKeys2 = paragraphKeys[1];
+			List<Alignment> path;
+			AlignmentMode paragraphMode = mode;
+			if (report == null) {
+				path = alignParagraph(paragraphKeys1, paragraphKeys2, mode);
+			} else {
+				long now = System.currentTimeMillis();
+				if (cancelled || Thread.currentThread().isInterrupted() || now >= deadline) return false;
+
+				// The pair's share of the time left, by its part of the elements left.
+				int pairElements = paragraphKeys1.length + paragraphKeys2.length;
+				int elementsLeft = (numberOfElements1 - currentElement1) + (numberOfElements2 - currentElement2) + pairElements;
+				long share = (deadline - now) * pairElements / Math.max(elementsLeft, 1);
+				long speed = (timeSpent > 10) ? Math.max(cellsDone / timeSpent, 1) : CELLS_PER_MILLISECOND;
+				paragraphMode = AlignmentMode.COARSE_TO_FINE;
+				if (AlignmentBudget.cells(AlignmentMode.FULL, paragraphKeys1.length, paragraphKeys2.length) <= share * speed) {
+					paragraphMode = AlignmentMode.FULL;
+				} else if (AlignmentBudget.cells(AlignmentMode.BANDED, paragraphKeys1.length, paragraphKeys2.length) <= share * speed) {
+					paragraphMode = AlignmentMode.BANDED;
 				}
-			} while ( paragraphsDeleted.contains(currentParagraph1) );
-			
-			// Search for a paragraph that wasn't inserted in the destination language.
-			do {
-				currentParagraph2 = dm.getParagraphForElement(keys2.get(currentElement2));
-				currentParagraphStart2 = currentElement2;
-				currentParagraphSize2 = 0;
-				// Counts the number of elements in the current paragraph (destination language).
-				while ((currentElement2 < numberOfElements2)&&(dm.getParagraphForElement(keys2.get(currentElement2))==currentParagraph2)) {
-					currentParagraphSize2++;
-					currentElement2++;
-				}	
-			} while ( paragraphsInserted.contains(currentParagraph2) );
-			
-			Alignment[][] distance = new Alignment[currentParagraphSize1+1][currentParagraphSize2+1];
-			initializeAlignmentArray(distance, currentParagraphSize1+1, currentParagraphSize2+1);
-						
-			for (int i=0; i<=currentParagraphSize1; ++i) {
-				for (int j=0; j<=currentParagraphSize2; ++j) {
-					
-					// Finding costs (distances) for all currently possible alignments
-					int D1 = (i>0 && j>0)    // 1-1 alignment (substitution)
-							 ? 
-							 ( distance[i-1][j-1].cost + ProbabilityComputation.d(dm.getElement(keys1.get(currentParagraphStart1+i-1)).length(),
-									 											  dm.getElement(keys2.get(currentParagraphStart2+j-1)).length(), 
-									 											  11) )
-							 : Integer.MAX_VALUE;
-							 
-					int D2 = (i>0)  			// 1-0 alignment (deletion) 
-							 ? 
-							 ( distance[i-1][j].cost + ProbabilityComputation.d(dm.getElement(keys1.get(currentParagraphStart1+i-1)).length(),
-									 											0, 
-									 											10) )
-							 : Integer.MAX_VALUE;
-							 
-					int D3 = (j>0)  			// 0-1 alignment (insertion) 
-							 ? 
-							 ( distance[i][j-1].cost + ProbabilityComputation.d(0,
-									 											dm.getElement(keys2.get(currentParagraphStart2+j-1)).length(), 
-									 											01) )
-							 : Integer.MAX_VALUE;
-							 
-					int D4 = (i>1 && j>0)  			// 2-1 alignment (contraction) 
-							 ? 
-							 ( distance[i-2][j-1].cost + ProbabilityComputation.d( dm.getElement(keys1.get(currentParagraphStart1+i-2)).length()
-									 											  +dm.getElement(keys1.get(currentParagraphStart1+i-1)).length(),
-									  											   dm.getElement(keys2.get(currentParagraphStart2+j-1)).length(), 
-									  											  21) )
-							 : Integer.MAX_VALUE;
-							 
-					int D5 = (i>0 && j>1)  			// 1-2 alignment (expansion) 
-							 ? 
-							 ( distance[i-1][j-2].cost + ProbabilityComputation.d( dm.getElement(keys1.get(currentParagraphStart1+i-1)).length(),
-									 											   dm.getElement(keys2.get(currentParagraphStart2+j-2)).length()	
-									 											  +dm.getElement(keys2.get(currentParagraphStart2+j-1)).length(), 
-									  											  12) )
-							 : Integer.MAX_VALUE;
-							 
-					int D6 = (i>1 && j>1)  			// 2-2 alignment (merger) 
-							 ? 
-							 ( distance[i-2][j-2].cost + ProbabilityComputation.d( dm.getElement(keys1.get(currentParagraphStart1+i-2)).length()
-									 											  +dm.getElement(keys1.get(currentParagraphStart1+i-1)).length(),
-									 											   dm.getElement(keys2.get(currentParagraphStart2+j-2)).length()	
-									 											  +dm.getElement(keys2.get(currentParagraphStart2+j-1)).length(), 
-									  											  22) )
-							 : Integer.MAX_VALUE;
-							 
-					// Finding the smallest cost (distance). 
-					int Dmin = D1;
-					if (D2<Dmin) Dmin = D2;
-					if (D3<Dmin) Dmin = D3;
-					if (D4<Dmin) Dmin = D4;
-					if (D5<Dmin) Dmin = D5;
-					if (D6<Dmin) Dmin = D6;
-					
-					// Setting up the best alignment.
-					distance[i][j].cost = Dmin;
-					if (Dmin == Integer.MAX_VALUE) {
-						distance[i][j].cost = 0; // Necessary only for the [0][0] element of the array?
-					} else if (Dmin == D1) {  // Substitution
-						distance[i][j].cheapestPredecessor = distance[i-1][j-1];
-						distance[i][j].x1 = keys1.get(currentParagraphStart1+i-1);
-						distance[i][j].y1 = keys2.get(currentParagraphStart2+j-1);
-					} else if (Dmin == D2) {  // Deletion
-						distance[i][j].cheapestPredecessor = distance[i-1][j];
-					  	distance[i][j].x1 = keys1.get(currentParagraphStart1+i-1);
-					} else if (Dmin == D3) {  // Insertion
-						distance[i][j].cheapestPredecessor = distance[i][j-1];
-					  	distance[i][j].y1 = keys2.get(currentParagraphStart2+j-1);
-					} else if (Dmin == D4) {  // Contraction
-						distance[i][j].cheapestPredecessor = distance[i-2][j-1];
-						distance[i][j].x1 = keys1.get(currentParagraphStart1+i-2);
-						distance[i][j].x2 = keys1.get(currentParagraphStart1+i-1);
-						distance[i][j].y1 = keys2.get(currentParagraphStart2+j-1);
-					} else if (Dmin == D5) {  // Expansion
-						distance[i][j].cheapestPredecessor = distance[i-1][j-2];
-						distance[i][j].x1 = keys1.get(currentParagraphStart1+i-1);
-						distance[i][j].y1 = keys2.get(currentParagraphStart2+j-2);
-						distance[i][j].y2 = keys2.get(currentParagraphStart2+j-1);
-					} else /* Dmin == D6 */ {  // Merger
-						distance[i][j].cheapestPredecessor = distance[i-2][j-2];
-						distance[i][j].x1 = keys1.get(currentParagraphStart1+i-2);
-						distance[i][j].x2 = keys1.get(currentParagraphStart1+i-1);
-						distance[i][j].y1 = keys2.get(currentParagraphStart2+j-2);
-						distance[i][j].y2 = keys2.get(currentParagraphStart2+j-1);
-					}
+
+				try {
+					path = alignParagraph(paragraphKeys1, paragraphKeys2, paragraphMode);
+				} catch (DeadlineExceededException e) {
+					return false;
 				}
+				cellsDone += AlignmentBudget.cells(paragraphMode, paragraphKeys1.length, paragraphKeys2.length);
+				timeSpent += System.currentTimeMillis() - now;
+				report.addMode(paragraphMode, paragraphKeys1.length, paragraphKeys2.length);
 			}
-			// Transcribing the alignments from the dynamic programming framework to the DataModel object. 
-			Alignment roadBackHome = distance[currentParagraphSize1][currentParagraphSize2];
-			while ( roadBackHome.cheapestPredecessor != null ) {
-				setDataModelConnection(roadBackHome);
-				roadBackHome = roadBackHome.cheapestPredecessor;
+			
+			setDataModelConnections(path, paragraphKeys1, paragraphKeys2);
+			if (listener != null) {
+				listener.progress(currentElement1, numberOfElements1, paragraphMode);
 			}
 			
 		} while ( (currentElement1 < numberOfElements1)&&(currentElement2 < numberOfElements2) );
 		
 		// Set the sentence alignment completion flag.
 		this.sentenceAlignmentDone = 1;
-		
-		// The end of the execution measurement time
-		long endTime = System.currentTimeMillis();
-
-		return (endTime - startTime);
+		return true;
 	}
-	
+
 	/**
 	 * Aligns paragraphs. Paragraphs are aligned by concatenating paragraphs in 1-2, 2-1 and 2-2 alignments.
 	 * Deleted (1-0) and inserted (0-1) paragraphs are remembered and skipped in the following sentence
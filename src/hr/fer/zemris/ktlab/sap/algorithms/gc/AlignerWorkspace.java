@@ -0,0 +1,155 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+/**
+ * The buffers used by the dynamic programming, kept between alignments so
+ * that aligning many paragraphs one after another doesn't allocate new
+ * arrays for every paragraph. The buffers grow: each one is as large as the
+ * largest paragraph aligned with it so far. Once they hold more than the
+ * retained number of values, they are released after the alignment (see
+ * {@link #trim()}), so that one very large paragraph doesn't keep its arrays
+ * for the life of the thread.
+ * <p>
+ * A workspace must be used by one thread only, and by one alignment at a
+ * time. {@link #forCurrentThread()} returns a separate workspace for every
+ * thread. The contents of a buffer are undefined when it is borrowed.
+ */
+public class AlignerWorkspace {
+
+	/** Numbers of the buffers of integers. */
+	static final int LENGTHS1 = 0;
+	static final int LENGTHS2 = 1;
+	static final int CORRIDOR_START = 2;
+	static final int CORRIDOR_END = 3;
+	static final int SINGLE2 = 4;
+	static final int PAIR2 = 5;
+	static final int INSERTION = 6;
+	static final int SUBSTITUTION = 7;
+	static final int CONTRACTION = 8;
+	static final int EXPANSION = 9;
+	static final int MERGER = 10;
+	private static final int BUFFERS = 11;
+
+	/** The default number of values (cells of the arrays and lengths) kept between alignments. */
+	public static final long DEFAULT_RETAINED_SIZE = 1L << 22;
+
+	/** The workspaces of the threads. */
+	private static final ThreadLocal<AlignerWorkspace> CURRENT = new ThreadLocal<AlignerWorkspace>() {
+		protected AlignerWorkspace initialValue() {
+			return new AlignerWorkspace();
+		}
+	};
+
+	/** The buffers of integers, by their numbers. */
+	private int[][] buffers;
+
+	/** The rows of costs of the dynamic programming array. */
+	private int[][] costRows;
+
+	/** The rows of moves of the dynamic programming array. */
+	private byte[][] moveRows;
+
+	/** The number of values kept between alignments; more are released by {@link #trim()}. */
+	private long retainedSize;
+
+	/** The number of values in all buffers and rows. */
+	private long size;
+
+	/**
+	 * The public constructor for the AlignerWorkspace class. Keeps up to
+	 * <code>DEFAULT_RETAINED_SIZE</code> values between alignments.
+	 */
+	public AlignerWorkspace() {
+		this(DEFAULT_RETAINED_SIZE);
+	}
+
+	/**
+	 * The public constructor for the AlignerWorkspace class.
+	 * @param retainedSize
+	 * 		The number of values (cells of the arrays and lengths) kept between alignments.
+	 */
+	public AlignerWorkspace(long retainedSize) {
+		super();
+		if (retainedSize < 0) {
+			throw new IllegalArgumentException("Retained size must not be negative, was " + retainedSize);
+		}
+		this.retainedSize = retainedSize;
+		clear();
+	}
+
+	/** Returns the workspace of the current thread. */
+	public static AlignerWorkspace forCurrentThread() {
+		return CURRENT.get();
+	}
+
+	/** Releases all buffers; they are allocated again as they are needed. */
+	public void clear() {
+		this.buffers = new int[BUFFERS][];
+		this.costRows = new int[0][];
+		this.moveRows = new byte[0][];
+		this.size = 0;
+	}
+
+	/**
+	 * Releases all buffers if they hold more than the retained number of values. Called after each
+	 * alignment; arrays borrowed before stay valid for their borrowers.
+	 */
+	void trim() {
+		if (size > retainedSize) clear();
+	}
+
+	/** Returns the buffer with the given number, at least <code>size</code> long. */
+	int[] buffer(int number, int size) {
+		int[] buffer = buffers[number];
+		if (buffer == null || buffer.length < size) {
+			buffer = new int[grown(buffer == null ? 0 : buffer.length, size)];
+			this.size += buffer.length - ((buffers[number] == null) ? 0 : buffers[number].length);
+			buffers[number] = buffer;
+		}
+		return buffer;
+	}
+
+	/** Returns the rows of costs; at least <code>rows</code> of them, each borrowed by {@link #costRow(int, int)}. */
+	int[][] costRows(int rows) {
+		if (costRows.length < rows) {
+			int[][] grownRows = new int[grown(costRows.length, rows)][];
+			System.arraycopy(costRows, 0, grownRows, 0, costRows.length);
+			costRows = grownRows;
+		}
+		return costRows;
+	}
+
+	/** Returns the row of costs <code>i</code>, at least <code>size</code> long. */
+	int[] costRow(int i, int size) {
+		if (costRows[i] == null || costRows[i].length < size) {
+			int length = (costRows[i] == null) ? 0 : costRows[i].length;
+			costRows[i] = new int[grown(length, size)];
+			this.size += costRows[i].length - length;
+		}
+		return costRows[i];
+	}
+
+	/** Returns the rows of moves; at least <code>rows</code> of them, each borrowed by {@link #moveRow(int, int)}. */
+	byte[][] moveRows(int rows) {
+		if (moveRows.length < rows) {
+			byte[][] grownRows = new byte[grown(moveRows.length, rows)][];
+			System.arraycopy(moveRows, 0, grownRows, 0, moveRows.length);
+			moveRows = grownRows;
+		}
+		return moveRows;
+	}
+
+	/** Returns the row of moves <code>i</code>, at least <code>size</code> long. */
+	byte[] moveRow(int i, int size) {
+		if (moveRows[i] == null || moveRows[i].length < size) {
+			int length = (moveRows[i] == null) ? 0 : moveRows[i].length;
+			moveRows[i] = new byte[grown(length, size)];
+			this.size += moveRows[i].length - length;
+		}
+		return moveRows[i];
+	}
+
+	/** Returns the new length of a buffer which has to hold <code>size</code> values. */
+	private static int grown(int length, int size) {
+		return Math.max(size, length + (length >> 1));
+	}
+}
@@ -0,0 +1,159 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+/**
+ * The resources an alignment may use, from which the <code>Aligner</code>
+ * chooses the mode of each pair of paragraphs on its own: the heap for the
+ * dynamic programming of one pair, the number of cells of the array one pair
+ * may evaluate, and the number of threads pairs of paragraphs are aligned in
+ * at the same time.
+ * <p>
+ * The mode of a pair is the first one fitting both the memory and the cells:
+ * <code>FULL</code>, then <code>OUT_OF_CORE</code>, which evaluates the whole
+ * array but keeps only a few rows of it on the heap, then <code>BANDED</code>.
+ * If none fits, <code>COARSE_TO_FINE</code> is used, which needs the least of
+ * both. Pairs aligned at the same time share the memory.
+ *
+ * @see Aligner#alignSentences(AlignmentBudget)
+ */
+public class AlignmentBudget {
+
+	/**
+	 * The default number of cells of the array a pair of paragraphs may evaluate: a whole array
+	 * of about 10000 by 10000 elements. Larger pairs are aligned in the <code>BANDED</code> or
+	 * <code>COARSE_TO_FINE</code> mode rather than in time (and, in the <code>OUT_OF_CORE</code>
+	 * mode, disk space) growing with the product of their sizes.
+	 */
+	public static final long DEFAULT_CELLS = 100000000L;
+
+	/** The bytes of a cell of the array kept on the heap: a cost and a move. */
+	private static final long BYTES_PER_CELL = 5;
+
+	/** The bytes of a row of the array kept on the heap, besides its cells: the headers of both arrays. */
+	private static final long BYTES_PER_ROW = 32;
+
+	/** The bytes of the buffers per column of the array: the lengths, the corridor and the costs of the moves of a row. */
+	private static final long BYTES_PER_COLUMN = 44;
+
+	/** The bytes of a bead of the resulting path, with its list entry. */
+	private static final long BYTES_PER_BEAD = 64;
+
+	/** The bytes of a cell evaluated by the best-first search: its key, cost and place in the queue. */
+	private static final long BYTES_PER_SEARCHED_CELL = 24;
+
+	/** The bytes of the heap a pair of paragraphs may use. */
+	private long memory;
+
+	/** The number of cells of the array a pair of paragraphs may evaluate. */
+	private long cells;
+
+	/** The number of threads pairs of paragraphs may be aligned in at the same time. */
+	private int threads;
+
+	/**
+	 * The public constructor for the AlignmentBudget class.
+	 * @param memory
+	 * 		The bytes of the heap the dynamic programming may use, shared by the pairs of paragraphs
+	 * 		aligned at the same time.
+	 * @param cells
+	 * 		The number of cells of the dynamic programming array a pair of paragraphs may evaluate.
+	 * @param threads
+	 * 		The number of threads pairs of paragraphs may be aligned in at the same time.
+	 */
+	public AlignmentBudget(long memory, long cells, int threads) {
+		super();
+		if (memory <= 0) {
+			throw new IllegalArgumentException("Memory must be positive, was " + memory);
+		}
+		if (cells <= 0) {
+			throw new IllegalArgumentException("Number of cells must be positive, was " + cells);
+		}
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive, was " + threads);
+		}
+		this.memory = memory;
+		this.cells = cells;
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns a budget of a half of the largest heap of the virtual machine, all its processors and
+	 * <code>DEFAULT_CELLS</code> cells.
+	 */
+	public static AlignmentBudget forRuntime() {
+		Runtime runtime = Runtime.getRuntime();
+		return new AlignmentBudget(runtime.maxMemory() / 2, DEFAULT_CELLS, runtime.availableProcessors());
+	}
+
+	/** Returns the bytes of the heap the dynamic programming may use. */
+	public long getMemory() {
+		return memory;
+	}
+
+	/** Returns the number of cells of the dynamic programming array a pair of paragraphs may evaluate. */
+	public long getCells() {
+		return cells;
+	}
+
+	/** Returns the number of threads pairs of paragraphs may be aligned in at the same time. */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Chooses the mode of a pair of paragraphs.
+	 * @param size1
+	 * 		The number of elements of the paragraph in the source language.
+	 * @param size2
+	 * 		The number of elements of the paragraph in the destination language.
+	 * @param concurrentPairs
+	 * 		The number of pairs aligned at the same time, which share the memory.
+	 */
+	AlignmentMode select(int size1, int size2, int concurrentPairs) {
+		long pairMemory = memory / concurrentPairs;
+		AlignmentMode[] modes = { AlignmentMode.FULL, AlignmentMode.OUT_OF_CORE, AlignmentMode.BANDED };
+		for (AlignmentMode mode : modes) {
+			if (cells(mode, size1, size2) <= cells && memory(mode, size1, size2) <= pairMemory) {
+				return mode;
+			}
+		}
+		return AlignmentMode.COARSE_TO_FINE;
+	}
+
+	/**
+	 * Returns the estimated number of bytes of the heap needed to align a pair of paragraphs in the
+	 * mode, not counting the texts themselves. The <code>OUT_OF_CORE</code> mode needs as many bytes
+	 * as the array has cells on the disk besides.
+	 * @param size1
+	 * 		The number of elements of the paragraph in the source language.
+	 * @param size2
+	 * 		The number of elements of the paragraph in the destination language.
+	 */
+	public static long memory(AlignmentMode mode, int size1, int size2) {
+		long path = (long)(size1 + size2) * BYTES_PER_BEAD;
+		long buffers = (size1 + size2 + 2L) * BYTES_PER_COLUMN;
+		switch (mode) {
+			case OUT_OF_CORE :
+				return path + buffers;
+			case BEST_FIRST :
+				return path + buffers + cells(mode, size1, size2) * BYTES_PER_SEARCHED_CELL;
+			default :
+				return path + buffers + (size1 + 1L) * BYTES_PER_ROW + cells(mode, size1, size2) * BYTES_PER_CELL;
+		}
+	}
+
+	/** Returns the estimated number of cells of the dynamic programming array evaluated in the mode. */
+	static long cells(AlignmentMode mode, int size1, int size2) {
+		switch (mode) {
+			case BANDED :
+				return (size1 + 1L) * Math.min(size2 + 1, 2 * LengthCorrelator.DEFAULT_RADIUS + 1)
+						+ (long)(size1 + size2) * LengthCorrelator.DEFAULT_WINDOW_SIZE;
+			case COARSE_TO_FINE :
+				// The full resolution and the coarser ones, each about a block size shorter.
+				return 2 * (size1 + 1L) * Math.min(size2 + 1,
+						CoarseToFineAligner.DEFAULT_BLOCK_SIZE + 2 * CoarseToFineAligner.DEFAULT_RADIUS);
+			default :
+				// The best-first search evaluates the whole array at worst.
+				return (size1 + 1L) * (size2 + 1);
+		}
+	}
+}
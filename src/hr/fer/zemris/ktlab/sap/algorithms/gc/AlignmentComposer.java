@@ -0,0 +1,196 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import hr.fer.zemris.ktlab.sap.algorithms.gc.Alignment;
+import hr.fer.zemris.ktlab.sap.util.DataModel;
+
+/**
+ * Composes two existing alignments through a shared pivot language: from
+ * the alignment of the languages A and B and the alignment of the languages
+ * B and C, the alignment of A and C is built without running the dynamic
+ * programming. An element of A is connected with an element of C if both are
+ * connected with the same element of B. The pivot is matched by position,
+ * since each <code>DataModel</code> has its own keys, so both alignments must
+ * hold the same elements of B in the same order.
+ * <p>
+ * The composition takes time linear in the number of elements and
+ * connections. Optionally, the composed alignment is refined by the dynamic
+ * programming restricted to a narrow band around the composed path, which
+ * repairs the connections lost where the pivot was split or merged
+ * differently in the two alignments.
+ */
+public class AlignmentComposer {
+
+	/** The default number of cells the band around the composed path extends on each side. */
+	public static final int DEFAULT_RADIUS = 8;
+
+	/** Runs the dynamic programming of the refinement. */
+	private LengthAligner lengthAligner;
+
+	/**
+	 * The public constructor for the AlignmentComposer class.
+	 */
+	public AlignmentComposer() {
+		super();
+		this.lengthAligner = new LengthAligner();
+	}
+
+	/**
+	 * Sets the distance measure used by the refinement.
+	 * @param costModel
+	 * 		The distance measure, <code>GaleChurchCostModel.DEFAULT</code> by default.
+	 */
+	public void setCostModel(CostModel costModel) {
+		lengthAligner.setCostModel(costModel);
+	}
+
+	/**
+	 * Composes the alignments of A-B and B-C and writes the connections into the alignment of A-C.
+	 * @param ab
+	 * 		The alignment of A (source language) and B (destination language).
+	 * @param bc
+	 * 		The alignment of B (source language) and C (destination language).
+	 * @param ac
+	 * 		The <code>DataModel</code> with the elements of A (source language) and C (destination
+	 * 		language), in the same order as in the other two.
+	 * @throws IllegalArgumentException
+	 * 		If the numbers of elements of the same language differ.
+	 */
+	public void compose(DataModel ab, DataModel bc, DataModel ac) {
+		int[][] connections = composedConnections(ab, bc, ac);
+		int[] keys1 = keys(ac.getKeys1());
+		int[] keys2 = keys(ac.getKeys2());
+		for (int i=0; i<connections.length; ++i) {
+			for (int j : connections[i]) {
+				ac.addConnection(keys1[i], keys2[j]);
+			}
+		}
+	}
+
+	/**
+	 * Composes the alignments of A-B and B-C like {@link #compose(DataModel, DataModel, DataModel)},
+	 * and aligns A and C by the dynamic programming inside a band around the composed path. If the
+	 * band doesn't connect the beginning and the end of the texts, the composed connections are
+	 * written instead.
+	 * @param radius
+	 * 		The number of cells the band extends on each side of the composed path.
+	 */
+	public void composeAndRefine(DataModel ab, DataModel bc, DataModel ac, int radius) {
+		if (radius < 0) {
+			throw new IllegalArgumentException("Radius must not be negative, was " + radius);
+		}
+		int[][] connections = composedConnections(ab, bc, ac);
+		int[] keys1 = keys(ac.getKeys1());
+		int[] keys2 = keys(ac.getKeys2());
+		int size1 = keys1.length;
+		int size2 = keys2.length;
+
+		// The guide line through the composed connections; the path never goes back.
+		Corridor corridor = new Corridor(size1, size2);
+		int row = 0;
+		int column = 0;
+		for (int i=0; i<size1; ++i) {
+			if (connections[i].length == 0) continue;
+			int first = Math.max(connections[i][0], column);
+			int last = Math.max(connections[i][connections[i].length-1], first);
+			corridor.includeLine(row, column, i, first);
+			corridor.include(i, first, last + 1);
+			corridor.include(i + 1, first, last + 1);
+			row = i + 1;
+			column = last + 1;
+		}
+		corridor.includeLine(row, column, size1, size2);
+		corridor.widen(radius);
+
+		List<Alignment> path = lengthAligner.align(lengths(ac, keys1), 0, size1, lengths(ac, keys2), 0, size2, corridor);
+		if (path == null) {
+			for (int i=0; i<size1; ++i) {
+				for (int j : connections[i]) ac.addConnection(keys1[i], keys2[j]);
+			}
+			return;
+		}
+		for (Alignment bead : path) {
+			if (bead.x1 == -1 || bead.y1 == -1) continue; // deletions and insertions make no connections
+			ac.addConnection(keys1[bead.x1], keys2[bead.y1]);
+			if (bead.y2 != -1) ac.addConnection(keys1[bead.x1], keys2[bead.y2]);
+			if (bead.x2 != -1) {
+				ac.addConnection(keys1[bead.x2], keys2[bead.y1]);
+				if (bead.y2 != -1) ac.addConnection(keys1[bead.x2], keys2[bead.y2]);
+			}
+		}
+	}
+
+	/**
+	 * Returns, for every element of A, the positions of the elements of C connected with it through
+	 * the pivot, in increasing order.
+	 */
+	private static int[][] composedConnections(DataModel ab, DataModel bc, DataModel ac) {
+		List<Integer> keysA = ab.getKeys1();
+		List<Integer> keysB = ab.getKeys2();
+		List<Integer> pivotKeys = bc.getKeys1();
+		List<Integer> keysC = bc.getKeys2();
+		if (keysB.size() != pivotKeys.size()) {
+			throw new IllegalArgumentException("The pivot has " + keysB.size() + " elements in the first alignment and "
+					+ pivotKeys.size() + " in the second");
+		}
+		if (ac.getKeys1().size() != keysA.size() || ac.getKeys2().size() != keysC.size()) {
+			throw new IllegalArgumentException("The composed alignment must hold the elements of both aligned texts");
+		}
+
+		Map<Integer, Integer> positionsB = positions(keysB);
+		Map<Integer, Integer> positionsC = positions(keysC);
+		int[] pivot = keys(pivotKeys);
+
+		int[][] connections = new int[keysA.size()][];
+		List<Integer> connected = new ArrayList<Integer>();
+		int i = 0;
+		for (Integer keyA : keysA) {
+			connected.clear();
+			for (Integer keyB : ab.getConnections(keyA)) {
+				int p = positionsB.get(keyB);
+				for (Integer keyC : bc.getConnections(pivot[p])) {
+					Integer j = positionsC.get(keyC);
+					if (!connected.contains(j)) connected.add(j);
+				}
+			}
+			int[] row = new int[connected.size()];
+			for (int k=0; k<row.length; ++k) row[k] = connected.get(k);
+			Arrays.sort(row);
+			connections[i++] = row;
+		}
+		return connections;
+	}
+
+	/** Returns the position of every key in the list. */
+	private static Map<Integer, Integer> positions(List<Integer> keys) {
+		Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+		int i = 0;
+		for (Integer key : keys) {
+			positions.put(key, i++);
+		}
+		return positions;
+	}
+
+	/** Copies the keys into an array. */
+	private static int[] keys(List<Integer> keys) {
+		int[] array = new int[keys.size()];
+		int i = 0;
+		for (Integer key : keys) {
+			array[i++] = key;
+		}
+		return array;
+	}
+
+	/** Returns the lengths of the elements with the given keys. */
+	private static int[] lengths(DataModel dm, int[] keys) {
+		int[] lengths = new int[keys.length];
+		for (int i=0; i<keys.length; ++i) {
+			lengths[i] = dm.getElement(keys[i]).length();
+		}
+		return lengths;
+	}
+}
@@ -0,0 +1,38 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+/**
+ * The ways in which the <code>Aligner</code> can search the dynamic
+ * programming array of a pair of paragraphs.
+ */
+public enum AlignmentMode {
+
+	/** The whole array is filled. Always finds the cheapest alignment. */
+	FULL,
+
+	/**
+	 * Only a band around the path estimated by the <code>LengthCorrelator</code> is filled.
+	 * Robust to texts shifted against each other, e.g. by front matter in one language.
+	 * If the cheapest path in the band runs along its edge, the band is widened and searched
+	 * again; if that does not help, the pair is aligned as in <code>COARSE_TO_FINE</code>.
+	 */
+	BANDED,
+
+	/**
+	 * Blocks of elements are aligned first and the full resolution is only searched around the
+	 * coarse path (see <code>CoarseToFineAligner</code>). Meant for very long paragraphs.
+	 */
+	COARSE_TO_FINE,
+
+	/**
+	 * The cheapest path is searched best-first (see <code>BestFirstAligner</code>), evaluating only
+	 * the cells which could lie on it. Finds the same alignment as <code>FULL</code>.
+	 */
+	BEST_FIRST,
+
+	/**
+	 * The whole array is searched, but only three rows of costs are kept in memory and the moves are
+	 * written into a temporary file (see <code>OutOfCoreAligner</code>). For paragraphs whose array
+	 * doesn't fit into the heap. Finds the same alignment as <code>FULL</code>.
+	 */
+	OUT_OF_CORE
+}
@@ -0,0 +1,21 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+/**
+ * Receives the progress of an alignment with a deadline, after each aligned
+ * pair of paragraphs.
+ *
+ * @see Aligner#alignSentences(long, AlignmentProgressListener)
+ */
+public interface AlignmentProgressListener {
+
+	/**
+	 * Called after a pair of paragraphs is aligned.
+	 * @param elementsDone
+	 * 		The number of elements (sentences) of the source language passed so far.
+	 * @param elements
+	 * 		The number of all elements of the source language.
+	 * @param mode
+	 * 		The mode the pair of paragraphs was aligned in.
+	 */
+	public void progress(int elementsDone, int elements, AlignmentMode mode);
+}
@@ -0,0 +1,110 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of an alignment with a deadline or a budget: the mode each pair
+ * of paragraphs was aligned in, and whether all of them were aligned before
+ * the deadline or the cancellation.
+ *
+ * @see Aligner#alignSentences(long, AlignmentProgressListener)
+ * @see Aligner#alignSentences(AlignmentBudget)
+ */
+public class AlignmentReport {
+
+	/** The modes the pairs of paragraphs were aligned in, in order. */
+	private List<AlignmentMode> modes;
+
+	/** The numbers of elements of the aligned paragraphs in the source language, in order. */
+	private List<Integer> sizes1;
+
+	/** The numbers of elements of the aligned paragraphs in the destination language, in order. */
+	private List<Integer> sizes2;
+
+	/** The number of threads pairs of paragraphs were aligned in at the same time. */
+	private int threads;
+
+	/** Whether all pairs of paragraphs were aligned. */
+	private boolean complete;
+
+	/** Whether the alignment was stopped by a cancellation. */
+	private boolean cancelled;
+
+	/** The time needed for the alignment in milliseconds. */
+	private long time;
+
+	AlignmentReport() {
+		super();
+		this.modes = new ArrayList<AlignmentMode>();
+		this.sizes1 = new ArrayList<Integer>();
+		this.sizes2 = new ArrayList<Integer>();
+		this.threads = 1;
+	}
+
+	/** Records the mode a pair of paragraphs was aligned in and the numbers of its elements. */
+	void addMode(AlignmentMode mode, int size1, int size2) {
+		modes.add(mode);
+		sizes1.add(size1);
+		sizes2.add(size2);
+	}
+
+	/** Records the number of threads pairs of paragraphs were aligned in. */
+	void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/** Records how the alignment ended. */
+	void finish(boolean complete, boolean cancelled, long time) {
+		this.complete = complete;
+		this.cancelled = cancelled;
+		this.time = time;
+	}
+
+	/**
+	 * Returns the modes the aligned pairs of paragraphs were aligned in, in order. Pairs not aligned
+	 * before the deadline or the cancellation have no mode and no connections.
+	 */
+	public List<AlignmentMode> getModes() {
+		return Collections.unmodifiableList(modes);
+	}
+
+	/** Returns the numbers of elements of the aligned paragraphs in the source language, in the order of {@link #getModes()}. */
+	public List<Integer> getSizes1() {
+		return Collections.unmodifiableList(sizes1);
+	}
+
+	/** Returns the numbers of elements of the aligned paragraphs in the destination language, in the order of {@link #getModes()}. */
+	public List<Integer> getSizes2() {
+		return Collections.unmodifiableList(sizes2);
+	}
+
+	/** Returns the number of threads pairs of paragraphs were aligned in at the same time. */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Returns <code>true</code> if a pair of paragraphs was aligned in a mode which searches only a
+	 * part of the dynamic programming array (<code>BANDED</code> or <code>COARSE_TO_FINE</code>).
+	 */
+	public boolean isDegraded() {
+		return modes.contains(AlignmentMode.BANDED) || modes.contains(AlignmentMode.COARSE_TO_FINE);
+	}
+
+	/** Returns <code>true</code> if all pairs of paragraphs were aligned. */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/** Returns <code>true</code> if the alignment was stopped by a cancellation. */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/** Returns the time needed for the alignment in milliseconds. */
+	public long getTime() {
+		return time;
+	}
+}
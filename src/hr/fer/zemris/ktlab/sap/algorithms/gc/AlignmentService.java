@@ -0,0 +1,455 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Aligns texts sent over HTTP, using the <code>HttpServer</code> of the JDK.
+ * The service answers three paths:
+ * <ul>
+ * <li><code>POST /align</code> aligns the text in the body, in the format of
+ * the files of <code>CorpusAligner</code> (one sentence per line, blank lines
+ * between paragraphs, UTF-8): the source text, a line holding only a form
+ * feed (<code>\f</code>), and the translation. The answer holds the
+ * connections, or the beads with the query parameter <code>beads=true</code>,
+ * in the format of the output of <code>CorpusAligner</code>. Bodies longer
+ * than <code>maxBodySize</code> bytes are answered with status 413.</li>
+ * <li><code>GET /health</code> answers <code>OK</code> while the service
+ * runs.</li>
+ * <li><code>GET /metrics</code> answers the counters of the service, one
+ * <code>name value</code> pair per line.</li>
+ * </ul>
+ * <p>
+ * Requests are read and answered in threads of their own, virtual threads if
+ * the virtual machine has them. Small requests are collected into batches
+ * aligned one after another by one of the worker threads, which saves waking
+ * up a thread per request and keeps the buffers of the dynamic programming of
+ * each worker warm. A worker waits at most <code>batchDelay</code>
+ * milliseconds for a batch to fill. Requests with more sentences than
+ * <code>smallRequest</code> are aligned in their own thread right away. Both
+ * take one of as many permits as there are workers for each alignment (see
+ * <code>AlignmentThreads</code>), so that the many threads of the requests
+ * never align more texts at the same time than there are workers. At most
+ * <code>queueCapacity</code> small requests wait for a worker; the ones
+ * beyond are answered with status 503 at once.
+ */
+public class AlignmentService {
+
+	/** The default largest number of requests aligned in one batch. */
+	public static final int DEFAULT_BATCH_SIZE = 32;
+
+	/** The default time in milliseconds a worker waits for a batch to fill. */
+	public static final long DEFAULT_BATCH_DELAY = 2;
+
+	/** The default largest number of sentences of a request aligned in a batch. */
+	public static final int DEFAULT_SMALL_REQUEST = 512;
+
+	/** The default largest number of small requests waiting for a worker. */
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+	/** The default largest size of the body of a request in bytes. */
+	public static final long DEFAULT_MAX_BODY_SIZE = 16L << 20;
+
+	/** The line separating the source text from the translation. */
+	private static final String SEPARATOR = "\f";
+
+	/** The server. */
+	private HttpServer server;
+
+	/** Runs the handlers of the requests. */
+	private ExecutorService requestExecutor;
+
+	/** Align the batches of small requests. */
+	private Thread[] workers;
+
+	/** The small requests waiting to be aligned. */
+	private BlockingQueue<FutureTask<String>> queue;
+
+	/** Aligns the texts of the requests. */
+	private CorpusAligner corpusAligner;
+
+	/** The largest number of requests aligned in one batch. */
+	private int batchSize;
+
+	/** The time in milliseconds a worker waits for a batch to fill. */
+	private long batchDelay;
+
+	/** The largest number of sentences of a request aligned in a batch. */
+	private int smallRequest;
+
+	/** The largest size of the body of a request in bytes. */
+	private long maxBodySize;
+
+	/** Whether the service has been started and not stopped. */
+	private volatile boolean running;
+
+	/** The counters of the metrics. */
+	private AtomicLong requests = new AtomicLong();
+	private AtomicLong failedRequests = new AtomicLong();
+	private AtomicLong rejectedRequests = new AtomicLong();
+	private AtomicLong batches = new AtomicLong();
+	private AtomicLong batchedRequests = new AtomicLong();
+	private AtomicLong sentences = new AtomicLong();
+	private AtomicLong alignmentTime = new AtomicLong();
+
+	/**
+	 * The public constructor for the AlignmentService class. The service is bound to the address,
+	 * but doesn't answer until it is started.
+	 * @param address
+	 * 		The address to listen at; port 0 chooses a free port (see {@link #getAddress()}).
+	 * @param workers
+	 * 		The number of threads aligning the batches of small requests.
+	 * @throws IOException
+	 * 		If the address can't be bound.
+	 */
+	public AlignmentService(InetSocketAddress address, int workers) throws IOException {
+		super();
+		if (workers < 1) {
+			throw new IllegalArgumentException("Number of workers must be positive, was " + workers);
+		}
+		this.server = HttpServer.create(address, 0);
+		this.workers = new Thread[workers];
+		this.queue = new LinkedBlockingQueue<FutureTask<String>>(DEFAULT_QUEUE_CAPACITY);
+		this.corpusAligner = new CorpusAligner();
+		this.corpusAligner.setThreads(workers);
+		this.corpusAligner.setAlignmentThreads(new AlignmentThreads(workers));
+		this.batchSize = DEFAULT_BATCH_SIZE;
+		this.batchDelay = DEFAULT_BATCH_DELAY;
+		this.smallRequest = DEFAULT_SMALL_REQUEST;
+		this.maxBodySize = DEFAULT_MAX_BODY_SIZE;
+		server.createContext("/align", new AlignHandler());
+		server.createContext("/health", new HealthHandler());
+		server.createContext("/metrics", new MetricsHandler());
+	}
+
+	/** Sets the alignment mode of all requests, <code>FULL</code> by default. */
+	public void setMode(AlignmentMode mode) {
+		corpusAligner.setMode(mode);
+	}
+
+	/** Sets the distance measure of all requests, <code>GaleChurchCostModel.DEFAULT</code> by default. */
+	public void setCostModel(CostModel costModel) {
+		corpusAligner.setCostModel(costModel);
+	}
+
+	/** Sets the largest number of requests aligned in one batch. */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be positive, was " + batchSize);
+		}
+		this.batchSize = batchSize;
+	}
+
+	/** Sets the time in milliseconds a worker waits for a batch to fill. */
+	public void setBatchDelay(long batchDelay) {
+		if (batchDelay < 0) {
+			throw new IllegalArgumentException("Batch delay must not be negative, was " + batchDelay);
+		}
+		this.batchDelay = batchDelay;
+	}
+
+	/** Sets the largest number of sentences of a request aligned in a batch; larger ones are aligned alone. */
+	public void setSmallRequest(int smallRequest) {
+		this.smallRequest = smallRequest;
+	}
+
+	/**
+	 * Sets the largest number of small requests waiting for a worker; the requests beyond it are
+	 * answered with status 503. Can't be changed while the service is running.
+	 */
+	public synchronized void setQueueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be positive, was " + queueCapacity);
+		}
+		if (running) {
+			throw new IllegalStateException("The service is running already");
+		}
+		this.queue = new LinkedBlockingQueue<FutureTask<String>>(queueCapacity);
+	}
+
+	/** Sets the largest size of the body of a request in bytes; larger ones are answered with status 413. */
+	public void setMaxBodySize(long maxBodySize) {
+		if (maxBodySize < 0) {
+			throw new IllegalArgumentException("Maximum body size must not be negative, was " + maxBodySize);
+		}
+		this.maxBodySize = maxBodySize;
+	}
+
+	/** Returns the address the service listens at. */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	/** Starts answering the requests. */
+	public synchronized void start() {
+		if (running) {
+			throw new IllegalStateException("The service is running already");
+		}
+		running = true;
+		requestExecutor = AlignmentThreads.newThreadPerTaskExecutor();
+		server.setExecutor(requestExecutor);
+		for (int w=0; w<workers.length; ++w) {
+			workers[w] = new Thread(new Runnable() {
+				public void run() {
+					runBatches();
+				}
+			}, "alignment-worker-" + w);
+			workers[w].setDaemon(true);
+			workers[w].start();
+		}
+		server.start();
+	}
+
+	/**
+	 * Stops the service. The requests being aligned are finished; the requests waiting in the queue
+	 * are answered with an error.
+	 */
+	public synchronized void stop() {
+		if (!running) return;
+		running = false;
+		server.stop(0);
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+		for (FutureTask<String> waiting; (waiting = queue.poll()) != null; ) {
+			waiting.cancel(false);
+		}
+		requestExecutor.shutdown();
+	}
+
+	/** Takes batches of requests from the queue and aligns them, until the worker is interrupted. */
+	private void runBatches() {
+		List<FutureTask<String>> batch = new ArrayList<FutureTask<String>>();
+		try {
+			while (running) {
+				batch.add(queue.take());
+				long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchDelay);
+				while (batch.size() < batchSize) {
+					FutureTask<String> next = queue.poll(end - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null) break;
+					batch.add(next);
+				}
+				batches.incrementAndGet();
+				batchedRequests.addAndGet(batch.size());
+				for (FutureTask<String> request : batch) {
+					request.run();
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			// The service is stopped; the requests taken are answered.
+			for (FutureTask<String> request : batch) {
+				request.run();
+			}
+		}
+	}
+
+	/**
+	 * Aligns a request in the worker threads if it is small, or in the current thread otherwise.
+	 * @return
+	 * 		The connections or the beads.
+	 * @throws RejectedExecutionException
+	 * 		If the request is small and the queue is full.
+	 */
+	private String align(final CorpusAligner.Text text1, final CorpusAligner.Text text2, final boolean beads)
+			throws Exception {
+		FutureTask<String> request = new FutureTask<String>(new Callable<String>() {
+			public String call() throws IOException, InterruptedException {
+				long startTime = System.nanoTime();
+				StringWriter writer = new StringWriter();
+				corpusAligner.align(text1, text2, beads, writer);
+				alignmentTime.addAndGet(System.nanoTime() - startTime);
+				sentences.addAndGet(text1.size() + text2.size());
+				return writer.toString();
+			}
+		});
+		if (text1.size() + text2.size() > smallRequest) {
+			request.run();
+		} else {
+			if (!queue.offer(request)) {
+				throw new RejectedExecutionException("Too many requests waiting to be aligned");
+			}
+			if (!running) request.cancel(false);
+		}
+		try {
+			return request.get();
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof Exception) ? (Exception)e.getCause() : e;
+		}
+	}
+
+	/** Answers <code>POST /align</code>. */
+	private class AlignHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!exchange.getRequestMethod().equals("POST")) {
+					respond(exchange, 405, "Use POST\n");
+					return;
+				}
+				requests.incrementAndGet();
+				byte[] bytes = readAll(exchange, maxBodySize);
+				if (bytes == null) {
+					failedRequests.incrementAndGet();
+					respond(exchange, 413, "The body is longer than " + maxBodySize + " bytes\n");
+					return;
+				}
+				String body = new String(bytes, "UTF-8");
+				CorpusAligner.Text text1 = new CorpusAligner.Text();
+				CorpusAligner.Text text2 = new CorpusAligner.Text();
+				CorpusAligner.Text text = text1;
+				for (String line : body.split("\n", -1)) {
+					if (line.equals(SEPARATOR) || line.equals(SEPARATOR + "\r")) {
+						if (text == text2) {
+							text = null;
+							break;
+						}
+						text = text2;
+					} else {
+						text.addLine(line);
+					}
+				}
+				if (text != text2) {
+					failedRequests.incrementAndGet();
+					respond(exchange, 400, "Expected a source text and a translation separated by a form feed line\n");
+					return;
+				}
+				respond(exchange, 200, align(text1, text2, isBeads(exchange.getRequestURI())));
+			} catch (RejectedExecutionException e) {
+				rejectedRequests.incrementAndGet();
+				respond(exchange, 503, e.getMessage() + "\n");
+			} catch (Exception e) {
+				failedRequests.incrementAndGet();
+				respond(exchange, running ? 500 : 503, e + "\n");
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/** Answers <code>GET /health</code>. */
+	private class HealthHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				respond(exchange, running ? 200 : 503, running ? "OK\n" : "STOPPED\n");
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/** Answers <code>GET /metrics</code>. */
+	private class MetricsHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				StringBuilder metrics = new StringBuilder();
+				metrics.append("requests ").append(requests.get()).append('\n');
+				metrics.append("failed_requests ").append(failedRequests.get()).append('\n');
+				metrics.append("rejected_requests ").append(rejectedRequests.get()).append('\n');
+				metrics.append("batches ").append(batches.get()).append('\n');
+				metrics.append("batched_requests ").append(batchedRequests.get()).append('\n');
+				metrics.append("queued_requests ").append(queue.size()).append('\n');
+				metrics.append("sentences ").append(sentences.get()).append('\n');
+				metrics.append("alignment_time_ms ").append(alignmentTime.get() / 1000000).append('\n');
+				respond(exchange, 200, metrics.toString());
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/** Returns whether the query asks for the beads instead of the connections. */
+	private static boolean isBeads(URI uri) throws IOException {
+		return Boolean.parseBoolean(parameter(uri, "beads"));
+	}
+
+	/**
+	 * Returns the (decoded) value of the first parameter of the query with the given name, an empty
+	 * string if it has no value, or <code>null</code> if the query doesn't have it.
+	 */
+	private static String parameter(URI uri, String name) throws IOException {
+		String query = uri.getRawQuery();
+		if (query == null) return null;
+		for (String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			String key = URLDecoder.decode((equals < 0) ? pair : pair.substring(0, equals), "UTF-8");
+			if (key.equals(name)) {
+				return (equals < 0) ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the whole body of a request.
+	 * @return
+	 * 		The body, or <code>null</code> if it is longer than <code>maxBodySize</code> bytes; the rest
+	 * 		of a longer body isn't read.
+	 */
+	private static byte[] readAll(HttpExchange exchange, long maxBodySize) throws IOException {
+		String length = exchange.getRequestHeaders().getFirst("Content-Length");
+		if (length != null) {
+			try {
+				if (Long.parseLong(length.trim()) > maxBodySize) return null;
+			} catch (NumberFormatException e) {
+				// The server rejects such requests itself; the body is counted below anyway.
+			}
+		}
+		InputStream input = exchange.getRequestBody();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int read; (read = input.read(buffer)) != -1; ) {
+			if (bytes.size() + (long)read > maxBodySize) return null;
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toByteArray();
+	}
+
+	/** Sends an answer in plain text. */
+	private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] bytes = text.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream output = exchange.getResponseBody();
+		output.write(bytes);
+		output.close();
+	}
+
+	/**
+	 * Runs the service on the loopback interface until the virtual machine is stopped.
+	 * Usage: <code>AlignmentService [port [workers]]</code>, port 8080 and a worker per processor by default.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8080;
+		int workers = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		final AlignmentService service = new AlignmentService(new InetSocketAddress(InetAddress.getByName(null), port), workers);
+		service.setCostModel(GaleChurchCostModel.DEFAULT.compile());
+		service.start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				service.stop();
+			}
+		});
+		System.out.println("Listening at " + service.getAddress());
+	}
+}
@@ -0,0 +1,117 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs each document of a batch in a thread of its own, a virtual thread if
+ * the virtual machine has them, while bounding the number of documents in the
+ * dynamic programming at the same time by a number of permits. Reading the
+ * inputs and writing the results may block as many threads as there are
+ * documents, but only as many alignments as there are permits use the
+ * processors, so a high number of documents doesn't oversubscribe them.
+ * <p>
+ * Each permit comes with an <code>AlignerWorkspace</code>, handed from one
+ * document to the next, so that the buffers of the dynamic programming are
+ * reused although each document runs in a new thread.
+ */
+public class AlignmentThreads {
+
+	/** <code>Executors.newVirtualThreadPerTaskExecutor()</code>, or <code>null</code> if there are no virtual threads. */
+	private static final Method VIRTUAL_THREAD_EXECUTOR = virtualThreadExecutor();
+
+	/** The permits of the alignments. */
+	private final Semaphore permits;
+
+	/** The number of permits. */
+	private final int permitCount;
+
+	/** The workspaces of the permits not taken. */
+	private final ConcurrentLinkedQueue<AlignerWorkspace> workspaces;
+
+	/**
+	 * The public constructor for the AlignmentThreads class.
+	 * @param permits
+	 * 		The largest number of alignments running at the same time.
+	 */
+	public AlignmentThreads(int permits) {
+		super();
+		if (permits < 1) {
+			throw new IllegalArgumentException("Number of permits must be positive, was " + permits);
+		}
+		this.permits = new Semaphore(permits, true);
+		this.permitCount = permits;
+		this.workspaces = new ConcurrentLinkedQueue<AlignerWorkspace>();
+	}
+
+	/** Returns the threads with a permit per processor. */
+	public static AlignmentThreads forProcessors() {
+		return new AlignmentThreads(Runtime.getRuntime().availableProcessors());
+	}
+
+	/** Returns <code>true</code> if the virtual machine has virtual threads. */
+	public static boolean virtualThreadsAvailable() {
+		return VIRTUAL_THREAD_EXECUTOR != null;
+	}
+
+	/** Returns an executor starting a virtual thread per task, or a new platform thread if there are no virtual threads. */
+	public static ExecutorService newThreadPerTaskExecutor() {
+		if (VIRTUAL_THREAD_EXECUTOR != null) {
+			try {
+				return (ExecutorService)VIRTUAL_THREAD_EXECUTOR.invoke(null);
+			} catch (Exception e) {
+				throw new IllegalStateException("Failed to create the executor of virtual threads", e);
+			}
+		}
+		return Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Returns an executor for the documents: a virtual thread per document, or, if there are no
+	 * virtual threads, a pool of as many platform threads as there are permits.
+	 */
+	public ExecutorService newDocumentExecutor() {
+		return virtualThreadsAvailable() ? newThreadPerTaskExecutor() : Executors.newFixedThreadPool(permitCount);
+	}
+
+	/** Returns the largest number of alignments running at the same time. */
+	public int getPermits() {
+		return permitCount;
+	}
+
+	/** Returns the number of alignments which could start now. */
+	public int getAvailablePermits() {
+		return permits.availablePermits();
+	}
+
+	/**
+	 * Waits for a permit to align a document.
+	 * @return
+	 * 		The workspace of the permit, to be given back by {@link #release(AlignerWorkspace)}.
+	 * @throws InterruptedException
+	 * 		If the thread is interrupted while waiting; no permit is taken then.
+	 */
+	public AlignerWorkspace acquire() throws InterruptedException {
+		permits.acquire();
+		AlignerWorkspace workspace = workspaces.poll();
+		return (workspace != null) ? workspace : new AlignerWorkspace();
+	}
+
+	/** Gives back the permit taken by {@link #acquire()}, with its workspace. */
+	public void release(AlignerWorkspace workspace) {
+		workspaces.offer(workspace);
+		permits.release();
+	}
+
+	/** Looks up the factory of the executor of virtual threads, present since Java 21. */
+	private static Method virtualThreadExecutor() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
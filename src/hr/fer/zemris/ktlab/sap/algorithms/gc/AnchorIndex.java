@@ -0,0 +1,161 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.HashMap;
+import java.util.Map;
+import hr.fer.zemris.ktlab.sap.util.DataModel;
+
+/**
+ * Finds anchors: pairs of elements that are identical in both languages
+ * (numbers, codes, URLs, markup-only lines) and can therefore be fixed as
+ * 1-1 alignments before the dynamic programming is run. The remaining
+ * elements between two anchors form independent, much smaller alignment
+ * problems.
+ * <p>
+ * Only language-neutral elements are considered, so that a short common word
+ * or a sentence repeated in both texts never becomes an anchor. An element
+ * text is language-neutral if every one of its tokens contains a digit, is a
+ * URL or an e-mail address, is a markup tag or contains no letters at all.
+ */
+public class AnchorIndex {
+
+	/** Marks a normalized text that occurs more than once in a paragraph. */
+	private static final int AMBIGUOUS = -1;
+
+	/** The <code>DataModel</code> object whose elements are being indexed. */
+	private DataModel dm;
+
+	/** Normalized texts of the language-neutral elements, cached by element key. */
+	private Map<Integer, String> normalizedTexts;
+
+	/**
+	 * The public constructor for the AnchorIndex class.
+	 * @param dm
+	 * 		The DataModel object whose elements are searched for anchors.
+	 */
+	public AnchorIndex(DataModel dm) {
+		super();
+		this.dm = dm;
+		this.normalizedTexts = new HashMap<Integer, String>();
+	}
+
+	/**
+	 * Normalizes the text of an element for the comparison with the elements in the other
+	 * language: surrounding whitespace is removed, inner whitespace collapsed and letters
+	 * lower-cased.
+	 * @param text
+	 * 		The text of an element.
+	 * @return
+	 * 		The normalized text, or <code>null</code> if the text is empty or isn't
+	 * 		language-neutral.
+	 */
+	public static String normalize(String text) {
+		if (text == null) return null;
+		String normalized = text.trim().replaceAll("\\s+", " ").toLowerCase();
+		if (normalized.length() == 0) return null;
+		for (String token : normalized.split(" ")) {
+			if (!isNeutralToken(token)) return null;
+		}
+		return normalized;
+	}
+
+	/** Returns <code>true</code> if the token reads the same in every language. */
+	private static boolean isNeutralToken(String token) {
+		if (token.startsWith("<") && token.endsWith(">")) return true; // Markup
+		if (token.contains("://") || token.startsWith("www.") || token.contains("@")) return true; // URL, e-mail
+		boolean hasLetter = false;
+		for (int i=0; i<token.length(); ++i) {
+			char c = token.charAt(i);
+			if (Character.isDigit(c)) return true; // Numbers and codes
+			if (Character.isLetter(c)) hasLetter = true;
+		}
+		return !hasLetter;
+	}
+
+	/** Returns the normalized text of the element with the given key, computing it only once. */
+	private String normalizedText(int key) {
+		if (!normalizedTexts.containsKey(key)) {
+			normalizedTexts.put(key, normalize(dm.getElement(key)));
+		}
+		return normalizedTexts.get(key);
+	}
+
+	/**
+	 * Finds the anchors between two paragraphs. An anchor is a pair of elements with the
+	 * same normalized text which occurs exactly once in each paragraph. Anchors which
+	 * would cross each other are dropped so that the longest ordered chain of anchors
+	 * remains.
+	 * @param paragraphKeys1
+	 * 		Keys of the elements of the paragraph in the source language.
+	 * @param paragraphKeys2
+	 * 		Keys of the elements of the paragraph in the destination language.
+	 * @return
+	 * 		A two-row array: <code>[0][k]</code> is the position of the k-th anchor in the
+	 * 		source paragraph and <code>[1][k]</code> its position in the destination paragraph.
+	 * 		Both rows are strictly increasing.
+	 */
+	public int[][] findAnchors(int[] paragraphKeys1, int[] paragraphKeys2) {
+		// Hash index of the destination paragraph: normalized text -> position
+		Map<String, Integer> index2 = new HashMap<String, Integer>();
+		for (int j=0; j<paragraphKeys2.length; ++j) {
+			String text = normalizedText(paragraphKeys2[j]);
+			if (text == null) continue;
+			index2.put(text, index2.containsKey(text) ? AMBIGUOUS : j);
+		}
+		if (index2.isEmpty()) return new int[2][0];
+
+		Map<String, Integer> index1 = new HashMap<String, Integer>();
+		for (int i=0; i<paragraphKeys1.length; ++i) {
+			String text = normalizedText(paragraphKeys1[i]);
+			if (text == null || !index2.containsKey(text)) continue;
+			index1.put(text, index1.containsKey(text) ? AMBIGUOUS : i);
+		}
+
+		// Candidate pairs in the order of the source paragraph
+		int[] candidates1 = new int[index1.size()];
+		int[] candidates2 = new int[index1.size()];
+		int count = 0;
+		for (int i=0; i<paragraphKeys1.length; ++i) {
+			String text = normalizedText(paragraphKeys1[i]);
+			if (text == null) continue;
+			Integer position1 = index1.get(text);
+			Integer position2 = index2.get(text);
+			if (position1 == null || position1 != i || position2 == null || position2 == AMBIGUOUS) continue;
+			candidates1[count] = i;
+			candidates2[count] = position2;
+			count++;
+		}
+
+		return longestOrderedChain(candidates1, candidates2, count);
+	}
+
+	/**
+	 * Keeps the longest subsequence of candidate pairs whose destination positions are
+	 * strictly increasing (the source positions already are), using patience sorting.
+	 */
+	private static int[][] longestOrderedChain(int[] candidates1, int[] candidates2, int count) {
+		int[] tails = new int[count];        // Index of the candidate ending a chain of each length
+		int[] predecessors = new int[count];
+		int length = 0;
+		for (int k=0; k<count; ++k) {
+			int low = 0;
+			int high = length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (candidates2[tails[middle]] < candidates2[k]) low = middle + 1;
+				else high = middle;
+			}
+			predecessors[k] = (low > 0) ? tails[low-1] : -1;
+			tails[low] = k;
+			if (low == length) length++;
+		}
+
+		int[][] anchors = new int[2][length];
+		int k = (length > 0) ? tails[length-1] : -1;
+		for (int position=length-1; position>=0; --position) {
+			anchors[0][position] = candidates1[k];
+			anchors[1][position] = candidates2[k];
+			k = predecessors[k];
+		}
+		return anchors;
+	}
+}
@@ -0,0 +1,269 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes the sentence alignment of an <code>Aligner</code> bead by bead,
+ * as the pairs of paragraphs are aligned, instead of only after the whole
+ * document is aligned. The pairs of paragraphs are aligned one after another
+ * by tasks run on the given executor, in the mode of the aligner, and their
+ * connections are written into its <code>DataModel</code> as by
+ * <code>alignSentences()</code>.
+ * <p>
+ * The alignment starts with the first request of the subscriber and goes on
+ * while fewer than <code>prefetch</code> beads wait to be delivered, so at
+ * most <code>prefetch</code> beads and those of one pair of paragraphs are
+ * held at any time, however slow the subscriber is, while the next pair is
+ * aligned as the subscriber works on the beads of the previous one. The
+ * alignment stops when the subscription is cancelled. A failure of the
+ * alignment or a request of no beads is signalled at once; the beads not yet
+ * delivered are dropped, so no bead follows <code>onError</code>.
+ * <p>
+ * The publisher accepts one subscriber, since the aligner aligns each
+ * document once. The <code>DataModel</code> must not be changed by other
+ * threads during the alignment unless it is in the concurrent mode.
+ *
+ * @see Aligner#publishSentences(Executor)
+ */
+public class BeadPublisher implements Flow.Publisher<BeadPublisher.Bead> {
+
+	/** The default largest number of beads aligned ahead of the demand of the subscriber. */
+	public static final int DEFAULT_PREFETCH = 256;
+
+	/** An alignment of sentences, given by the keys of the aligned elements. */
+	public static final class Bead {
+
+		/** The paragraph of the source language the bead is in. */
+		private final int paragraph;
+
+		/** The keys of the aligned elements of the source language. */
+		private final int[] keys1;
+
+		/** The keys of the aligned elements of the destination language. */
+		private final int[] keys2;
+
+		Bead(int paragraph, int[] keys1, int[] keys2) {
+			this.paragraph = paragraph;
+			this.keys1 = keys1;
+			this.keys2 = keys2;
+		}
+
+		/** Returns the number of the paragraph of the source language the bead is in. */
+		public int getParagraph() {
+			return paragraph;
+		}
+
+		/** Returns the keys of the aligned elements of the source language; none for an insertion. */
+		public int[] getKeys1() {
+			return keys1.clone();
+		}
+
+		/** Returns the keys of the aligned elements of the destination language; none for a deletion. */
+		public int[] getKeys2() {
+			return keys2.clone();
+		}
+
+		public String toString() {
+			return Arrays.toString(keys1) + "-" + Arrays.toString(keys2);
+		}
+	}
+
+	/** Aligns the pairs of paragraphs. */
+	private final Aligner aligner;
+
+	/** Runs the alignment of each pair of paragraphs. */
+	private final Executor executor;
+
+	/** The largest number of beads aligned ahead of the demand. */
+	private final int prefetch;
+
+	/** Set by the first subscription. */
+	private final AtomicBoolean subscribed;
+
+	/**
+	 * The public constructor for the BeadPublisher class.
+	 * @param aligner
+	 * 		The aligner of the document, in the mode to align it in.
+	 * @param executor
+	 * 		Runs the alignment of each pair of paragraphs.
+	 * @param prefetch
+	 * 		The largest number of beads aligned ahead of the demand of the subscriber.
+	 */
+	public BeadPublisher(Aligner aligner, Executor executor, int prefetch) {
+		super();
+		if (prefetch < 1) {
+			throw new IllegalArgumentException("Prefetch must be positive, was " + prefetch);
+		}
+		this.aligner = aligner;
+		this.executor = executor;
+		this.prefetch = prefetch;
+		this.subscribed = new AtomicBoolean();
+	}
+
+	public void subscribe(Flow.Subscriber<? super Bead> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("Subscriber must not be null");
+		}
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+				}
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("The beads of an alignment can be published to one subscriber only"));
+			return;
+		}
+		subscriber.onSubscribe(new BeadSubscription(subscriber));
+	}
+
+	/**
+	 * The subscription of the subscriber. It is also the task aligning the next pair of paragraphs.
+	 * The signals are sent to the subscriber by one thread at a time, whichever calls {@link #drain()}
+	 * first; the other threads only mark that there is more to do.
+	 */
+	private class BeadSubscription implements Flow.Subscription, Runnable {
+
+		/** The subscriber. */
+		private final Flow.Subscriber<? super Bead> subscriber;
+
+		/** The number of calls of <code>drain()</code> not yet handled; the one raising it from 0 sends the signals. */
+		private final AtomicInteger pending = new AtomicInteger();
+
+		/** The beads aligned and not yet delivered. */
+		private final ArrayDeque<Bead> beads = new ArrayDeque<Bead>();
+
+		/** The number of beads requested and not yet delivered. */
+		private long demand;
+
+		/** Whether a pair of paragraphs is being aligned. */
+		private boolean aligning;
+
+		/** Whether no more beads will be aligned. */
+		private boolean done;
+
+		/** The reason the alignment failed, or <code>null</code>. */
+		private Throwable error;
+
+		/** Whether the subscription is cancelled or the completion or failure has been sent. */
+		private boolean finished;
+
+		private BeadSubscription(Flow.Subscriber<? super Bead> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public void request(long n) {
+			synchronized (this) {
+				if (n <= 0) {
+					error = new IllegalArgumentException("Number of requested beads must be positive, was " + n);
+					done = true;
+					beads.clear();
+				} else {
+					demand += n;
+					if (demand < 0) demand = Long.MAX_VALUE;
+				}
+			}
+			drain();
+		}
+
+		public void cancel() {
+			synchronized (this) {
+				finished = true;
+				beads.clear();
+			}
+		}
+
+		/** Aligns the next pair of paragraphs. */
+		public void run() {
+			List<Bead> aligned = null;
+			Throwable failure = null;
+			try {
+				aligned = aligner.alignNextParagraphs();
+			} catch (Throwable t) {
+				failure = t;
+			}
+			synchronized (this) {
+				aligning = false;
+				if (failure != null) {
+					error = failure;
+					done = true;
+				} else if (aligned == null) {
+					done = true;
+				} else if (!finished && !done) {
+					// Once the subscription has failed, the beads of an alignment still running are dropped.
+					beads.addAll(aligned);
+				}
+			}
+			drain();
+		}
+
+		/** Delivers the beads requested, starts the alignment of the next pair if there is room, and ends the subscription when all beads are delivered. */
+		private void drain() {
+			if (pending.getAndIncrement() != 0) return;
+			int missed = 1;
+			do {
+				while (true) {
+					Bead next = null;
+					boolean complete = false;
+					boolean align = false;
+					Throwable failure = null;
+					synchronized (this) {
+						if (finished) break;
+						if (error != null) {
+							// A failure is sent before any bead left.
+							finished = true;
+							complete = true;
+							failure = error;
+							beads.clear();
+						} else if (demand > 0 && !beads.isEmpty()) {
+							next = beads.poll();
+							demand--;
+						} else if (done && beads.isEmpty()) {
+							finished = true;
+							complete = true;
+							failure = error;
+						}
+						if (!done && !aligning && !finished && beads.size() < prefetch) {
+							aligning = true;
+							align = true;
+						}
+					}
+					if (align) start();
+					if (next != null) {
+						subscriber.onNext(next);
+						continue;
+					}
+					if (complete) {
+						if (failure != null) {
+							subscriber.onError(failure);
+						} else {
+							subscriber.onComplete();
+						}
+					}
+					break;
+				}
+				missed = pending.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		/** Starts the alignment of the next pair of paragraphs on the executor. */
+		private void start() {
+			try {
+				executor.execute(this);
+			} catch (RuntimeException e) {
+				synchronized (this) {
+					aligning = false;
+					error = e;
+					done = true;
+				}
+				drain();
+			}
+		}
+	}
+}
@@ -0,0 +1,351 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.LinkedList;
+import java.util.List;
+import hr.fer.zemris.ktlab.sap.algorithms.gc.Alignment;
+
+/**
+ * Finds the cheapest alignment by a best-first (A*) search over the cells of
+ * the dynamic programming array instead of filling the whole array. The
+ * cells are visited in the order of their cost from the first cell plus a
+ * lower bound of the cost to the last cell, so only the cells which could lie
+ * on a cheapest path are evaluated, and only those are kept in memory.
+ * <p>
+ * The lower bound is computed from the numbers of remaining segments: if
+ * <code>a</code> source and <code>b</code> destination segments remain, at
+ * least <code>|a-b|</code> alignments with more segments on one side (1-0 and
+ * 2-1, or 0-1 and 1-2) are still needed, each costing at least its penalty,
+ * since distances are not negative. The bound never decreases along a move
+ * by more than the cost of the move, so every cell is evaluated once, with its
+ * final cost.
+ * <p>
+ * The search goes on until all cells which could lie on a cheapest path are
+ * evaluated, and the path is then walked back choosing the moves in the same
+ * order as <code>LengthAligner</code>, so the result is the same as the one
+ * of the full dynamic programming, including the order in which ties are
+ * broken. The search pays off on long, well matching texts, where the
+ * cheapest path stays close to the diagonal; on badly matching texts it
+ * evaluates most of the array, and more slowly than the dynamic programming.
+ */
+public class BestFirstAligner {
+
+	/** The initial capacity of the table of evaluated cells and of the queue. */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** Provides the distance measure. */
+	private LengthAligner lengthAligner;
+
+	/** The number of cells evaluated by the last alignment. */
+	private long evaluatedCells;
+
+	/** Keys (numbers plus one) of the cells in the table; 0 marks an empty slot. */
+	private long[] keys;
+
+	/** The cheapest known costs of the cells in the table. */
+	private int[] costs;
+
+	/** Marks the cells whose cost is final. */
+	private boolean[] closed;
+
+	/** The number of cells in the table. */
+	private int tableSize;
+
+	/** Priorities (cost plus bound) of the queued cells, ordered as a binary heap. */
+	private long[] priorities;
+
+	/** Numbers of the queued cells, in the order of <code>priorities</code>. */
+	private long[] queuedCells;
+
+	/** The number of queued cells. */
+	private int queueSize;
+
+	/**
+	 * The public constructor for the BestFirstAligner class.
+	 * @param lengthAligner
+	 * 		Provides the distance measure, so the search uses the same one as the dynamic programming.
+	 */
+	public BestFirstAligner(LengthAligner lengthAligner) {
+		super();
+		this.lengthAligner = lengthAligner;
+	}
+
+	/** Returns the number of cells of the dynamic programming array evaluated by the last alignment. */
+	public long getEvaluatedCells() {
+		return evaluatedCells;
+	}
+
+	/**
+	 * Aligns the segments <code>from1</code> (inclusive) to <code>to1</code> (exclusive) of the
+	 * source language with the segments <code>from2</code> to <code>to2</code> of the destination
+	 * language. The arguments and the result are the same as in
+	 * {@link LengthAligner#align(int[], int, int, int[], int, int)}.
+	 */
+	public List<Alignment> align(int[] lengths1, int from1, int to1, int[] lengths2, int from2, int to2) {
+		CostModel costModel = lengthAligner.getCostModel();
+		int size1 = to1 - from1;
+		int size2 = to2 - from2;
+		long columns = size2 + 1;
+		long last = size1 * columns + size2;
+
+		keys = new long[INITIAL_CAPACITY];
+		costs = new int[INITIAL_CAPACITY];
+		closed = new boolean[INITIAL_CAPACITY];
+		tableSize = 0;
+		priorities = new long[INITIAL_CAPACITY];
+		queuedCells = new long[INITIAL_CAPACITY];
+		queueSize = 0;
+		evaluatedCells = 0;
+
+		// Penalties of the alignments with more segments on one side, for the lower bound.
+		int surplus1 = Math.min(costModel.getDeletionPenalty(), costModel.getContractionPenalty());
+		int surplus2 = Math.min(costModel.getInsertionPenalty(), costModel.getExpansionPenalty());
+
+		costs[slot(0, true)] = 0;
+		push(bound(size1, size2, surplus1, surplus2), 0);
+		long cheapest = Long.MAX_VALUE;
+
+		while (queueSize > 0 && priorities[0] <= cheapest) {
+			long cell = pop();
+			int s = slot(cell, false);
+			if (closed[s]) continue;
+			closed[s] = true;
+			++evaluatedCells;
+			int cost = costs[s];
+			if (cell == last) {
+				cheapest = cost;
+				continue;
+			}
+
+			int i = (int)(cell / columns);
+			int j = (int)(cell % columns);
+			int single1 = (i < size1) ? lengths1[from1+i] : 0;
+			int single2 = (j < size2) ? lengths2[from2+j] : 0;
+			if (i < size1 && j < size2) {
+				relax(i+1, j+1, cost + costModel.distance(single1, single2) + costModel.getSubstitutionPenalty(),
+						size1, size2, surplus1, surplus2);
+			}
+			if (i < size1) {
+				relax(i+1, j, cost + costModel.distance(single1, 0) + costModel.getDeletionPenalty(),
+						size1, size2, surplus1, surplus2);
+			}
+			if (j < size2) {
+				relax(i, j+1, cost + costModel.distance(0, single2) + costModel.getInsertionPenalty(),
+						size1, size2, surplus1, surplus2);
+			}
+			if (i+1 < size1 && j < size2) {
+				relax(i+2, j+1, cost + costModel.distance(single1 + lengths1[from1+i+1], single2)
+						+ costModel.getContractionPenalty(), size1, size2, surplus1, surplus2);
+			}
+			if (i < size1 && j+1 < size2) {
+				relax(i+1, j+2, cost + costModel.distance(single1, single2 + lengths2[from2+j+1])
+						+ costModel.getExpansionPenalty(), size1, size2, surplus1, surplus2);
+			}
+			if (i+1 < size1 && j+1 < size2) {
+				relax(i+2, j+2, cost + costModel.distance(single1 + lengths1[from1+i+1], single2 + lengths2[from2+j+1])
+						+ costModel.getMergerPenalty(), size1, size2, surplus1, surplus2);
+			}
+		}
+
+		List<Alignment> path = traceBack(costModel, lengths1, from1, lengths2, from2, size1, size2);
+		keys = null;
+		costs = null;
+		closed = null;
+		priorities = null;
+		queuedCells = null;
+		return path;
+	}
+
+	/** Returns the lower bound of the cost of aligning the last <code>a</code> and <code>b</code> segments. */
+	private static int bound(int a, int b, int surplus1, int surplus2) {
+		return (a > b) ? (a - b) * surplus1 : (b - a) * surplus2;
+	}
+
+	/** Lowers the known cost of the cell [i][j] to <code>cost</code> if that is cheaper, and queues the cell. */
+	private void relax(int i, int j, int cost, int size1, int size2, int surplus1, int surplus2) {
+		long cell = i * (long)(size2 + 1) + j;
+		int s = slot(cell, true);
+		if (closed[s] || cost >= costs[s]) return;
+		costs[s] = cost;
+		push((long)cost + bound(size1 - i, size2 - j, surplus1, surplus2), cell);
+	}
+
+	/**
+	 * Walks the cheapest path back from the last cell of the array and returns it from the first bead
+	 * on. In every cell the moves are tried in the order of <code>LengthAligner</code> and the first
+	 * one coming from the cheapest predecessor is taken. All cells lying on a cheapest path have been
+	 * evaluated, and the known costs of the other cells are never lower than their final costs, so
+	 * the same moves are chosen as by the dynamic programming.
+	 */
+	private List<Alignment> traceBack(CostModel costModel, int[] lengths1, int from1, int[] lengths2, int from2,
+			int size1, int size2) {
+		long columns = size2 + 1;
+		LinkedList<Alignment> path = new LinkedList<Alignment>();
+		int i = size1;
+		int j = size2;
+		while (i > 0 || j > 0) {
+			int single1 = (i>0) ? lengths1[from1+i-1] : 0;
+			int single2 = (j>0) ? lengths2[from2+j-1] : 0;
+			int pair1 = (i>1) ? lengths1[from1+i-2] + single1 : 0;
+			int pair2 = (j>1) ? lengths2[from2+j-2] + single2 : 0;
+
+			// Finding the smallest cost (distance). On ties the earlier move wins.
+			long Dmin = Long.MAX_VALUE;
+			int type = 0;
+			long D;
+			if (i>0 && j>0 && (D = known(i-1, j-1, columns)) != Long.MAX_VALUE) {
+				D += costModel.distance(single1, single2) + costModel.getSubstitutionPenalty();
+				if (D < Dmin) { Dmin = D; type = 11; }
+			}
+			if (i>0 && (D = known(i-1, j, columns)) != Long.MAX_VALUE) {
+				D += costModel.distance(single1, 0) + costModel.getDeletionPenalty();
+				if (D < Dmin) { Dmin = D; type = 10; }
+			}
+			if (j>0 && (D = known(i, j-1, columns)) != Long.MAX_VALUE) {
+				D += costModel.distance(0, single2) + costModel.getInsertionPenalty();
+				if (D < Dmin) { Dmin = D; type = 01; }
+			}
+			if (i>1 && j>0 && (D = known(i-2, j-1, columns)) != Long.MAX_VALUE) {
+				D += costModel.distance(pair1, single2) + costModel.getContractionPenalty();
+				if (D < Dmin) { Dmin = D; type = 21; }
+			}
+			if (i>0 && j>1 && (D = known(i-1, j-2, columns)) != Long.MAX_VALUE) {
+				D += costModel.distance(single1, pair2) + costModel.getExpansionPenalty();
+				if (D < Dmin) { Dmin = D; type = 12; }
+			}
+			if (i>1 && j>1 && (D = known(i-2, j-2, columns)) != Long.MAX_VALUE) {
+				D += costModel.distance(pair1, pair2) + costModel.getMergerPenalty();
+				if (D < Dmin) { Dmin = D; type = 22; }
+			}
+
+			Alignment bead = new Alignment();
+			bead.type = type;
+			bead.cost = (int)known(i, j, columns);
+			switch (type) {
+				case 11 :
+					bead.x1 = from1+i-1;
+					bead.y1 = from2+j-1;
+					i -= 1; j -= 1;
+					break;
+				case 10 :
+					bead.x1 = from1+i-1;
+					i -= 1;
+					break;
+				case 01 :
+					bead.y1 = from2+j-1;
+					j -= 1;
+					break;
+				case 21 :
+					bead.x1 = from1+i-2;
+					bead.x2 = from1+i-1;
+					bead.y1 = from2+j-1;
+					i -= 2; j -= 1;
+					break;
+				case 12 :
+					bead.x1 = from1+i-1;
+					bead.y1 = from2+j-2;
+					bead.y2 = from2+j-1;
+					i -= 1; j -= 2;
+					break;
+				default : // 22
+					bead.x1 = from1+i-2;
+					bead.x2 = from1+i-1;
+					bead.y1 = from2+j-2;
+					bead.y2 = from2+j-1;
+					i -= 2; j -= 2;
+			}
+			if (!path.isEmpty()) path.getFirst().cheapestPredecessor = bead;
+			path.addFirst(bead);
+		}
+		return path;
+	}
+
+	/** Returns the known cost of the cell [i][j], or <code>Long.MAX_VALUE</code> if it was never reached. */
+	private long known(int i, int j, long columns) {
+		int s = slot(i * columns + j, false);
+		return (s < 0) ? Long.MAX_VALUE : costs[s];
+	}
+
+	/**
+	 * Returns the slot of the cell in the table (open addressing with linear probing). If the cell
+	 * isn't in the table, it is added with an infinite cost when <code>add</code> is <code>true</code>,
+	 * and -1 is returned otherwise.
+	 */
+	private int slot(long cell, boolean add) {
+		int mask = keys.length - 1;
+		long key = cell + 1;
+		long hash = key * 0x9E3779B97F4A7C15L;
+		int s = (int)(hash ^ (hash >>> 32)) & mask;
+		while (keys[s] != 0) {
+			if (keys[s] == key) return s;
+			s = (s + 1) & mask;
+		}
+		if (!add) return -1;
+		if (2 * (tableSize + 1) > keys.length) {
+			grow();
+			return slot(cell, true);
+		}
+		keys[s] = key;
+		costs[s] = Integer.MAX_VALUE;
+		++tableSize;
+		return s;
+	}
+
+	/** Doubles the capacity of the table. */
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldCosts = costs;
+		boolean[] oldClosed = closed;
+		keys = new long[2 * oldKeys.length];
+		costs = new int[keys.length];
+		closed = new boolean[keys.length];
+		tableSize = 0;
+		for (int k=0; k<oldKeys.length; ++k) {
+			if (oldKeys[k] == 0) continue;
+			int s = slot(oldKeys[k] - 1, true);
+			costs[s] = oldCosts[k];
+			closed[s] = oldClosed[k];
+		}
+	}
+
+	/** Adds a cell to the queue. */
+	private void push(long priority, long cell) {
+		if (queueSize == priorities.length) {
+			long[] grownPriorities = new long[2 * queueSize];
+			long[] grownCells = new long[2 * queueSize];
+			System.arraycopy(priorities, 0, grownPriorities, 0, queueSize);
+			System.arraycopy(queuedCells, 0, grownCells, 0, queueSize);
+			priorities = grownPriorities;
+			queuedCells = grownCells;
+		}
+		int k = queueSize++;
+		while (k > 0) {
+			int parent = (k - 1) / 2;
+			if (priorities[parent] <= priority) break;
+			priorities[k] = priorities[parent];
+			queuedCells[k] = queuedCells[parent];
+			k = parent;
+		}
+		priorities[k] = priority;
+		queuedCells[k] = cell;
+	}
+
+	/** Removes the cell with the lowest priority from the queue and returns it. */
+	private long pop() {
+		long cell = queuedCells[0];
+		--queueSize;
+		long priority = priorities[queueSize];
+		long moved = queuedCells[queueSize];
+		int k = 0;
+		while (2*k + 1 < queueSize) {
+			int child = 2*k + 1;
+			if (child + 1 < queueSize && priorities[child + 1] < priorities[child]) ++child;
+			if (priority <= priorities[child]) break;
+			priorities[k] = priorities[child];
+			queuedCells[k] = queuedCells[child];
+			k = child;
+		}
+		priorities[k] = priority;
+		queuedCells[k] = moved;
+		return cell;
+	}
+}
@@ -0,0 +1,119 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.List;
+import hr.fer.zemris.ktlab.sap.algorithms.gc.Alignment;
+
+/**
+ * Aligns very long sequences of segments in several resolutions. The lengths
+ * are first summed up in blocks of <code>blockSize</code> segments and the
+ * shorter, coarse sequences are aligned (recursively, if they are still too
+ * long). The coarse path is then projected back to the original segments and
+ * widened by <code>radius</code> cells, and the full-resolution dynamic
+ * programming is run only inside that corridor.
+ * <p>
+ * The work done is roughly proportional to the number of segments times
+ * <code>blockSize + 2*radius</code> instead of the product of both numbers of
+ * segments. Should the corridor miss the end of the array, the full dynamic
+ * programming is run instead, so a result is always returned.
+ */
+public class CoarseToFineAligner {
+
+	/** The default number of segments summed up into one coarse segment. */
+	public static final int DEFAULT_BLOCK_SIZE = 4;
+
+	/** The default number of cells the projected path is widened by on each side. */
+	public static final int DEFAULT_RADIUS = 16;
+
+	/** Runs the dynamic programming on each resolution. */
+	private LengthAligner lengthAligner;
+
+	/** The number of segments summed up into one coarse segment. */
+	private int blockSize;
+
+	/** The number of cells the projected coarse path is widened by on each side. */
+	private int radius;
+
+	/**
+	 * The public constructor for the CoarseToFineAligner class.
+	 * @param lengthAligner
+	 * 		Runs the dynamic programming on each resolution.
+	 * @param blockSize
+	 * 		The number of segments summed up into one coarse segment (at least 2).
+	 * @param radius
+	 * 		The number of cells the projected coarse path is widened by on each side.
+	 */
+	public CoarseToFineAligner(LengthAligner lengthAligner, int blockSize, int radius) {
+		super();
+		if (blockSize < 2) {
+			throw new IllegalArgumentException("Block size must be at least 2, was " + blockSize);
+		}
+		if (radius < 0) {
+			throw new IllegalArgumentException("Radius must not be negative, was " + radius);
+		}
+		this.lengthAligner = lengthAligner;
+		this.blockSize = blockSize;
+		this.radius = radius;
+	}
+
+	/**
+	 * Aligns the segments <code>from1</code> (inclusive) to <code>to1</code> (exclusive) of the
+	 * source language with the segments <code>from2</code> to <code>to2</code> of the destination
+	 * language. The arguments and the result are the same as in
+	 * {@link LengthAligner#align(int[], int, int, int[], int, int)}.
+	 */
+	public List<Alignment> align(int[] lengths1, int from1, int to1, int[] lengths2, int from2, int to2) {
+		int size1 = to1 - from1;
+		int size2 = to2 - from2;
+
+		// Small problems are solved directly; the corridor wouldn't be much narrower than the array.
+		if ( Math.min(size1, size2) <= 2 * (blockSize + radius) ) {
+			return lengthAligner.align(lengths1, from1, to1, lengths2, from2, to2);
+		}
+
+		int[] coarse1 = downsample(lengths1, from1, to1);
+		int[] coarse2 = downsample(lengths2, from2, to2);
+		List<Alignment> coarsePath = align(coarse1, 0, coarse1.length, coarse2, 0, coarse2.length);
+
+		Corridor corridor = project(coarsePath, size1, size2);
+		List<Alignment> path = lengthAligner.align(lengths1, from1, to1, lengths2, from2, to2, corridor);
+		if (path == null) {
+			path = lengthAligner.align(lengths1, from1, to1, lengths2, from2, to2);
+		}
+		return path;
+	}
+
+	/** Sums up the lengths in blocks of <code>blockSize</code> segments (the last block may be shorter). */
+	private int[] downsample(int[] lengths, int from, int to) {
+		int[] coarse = new int[(to - from + blockSize - 1) / blockSize];
+		for (int i=from; i<to; ++i) {
+			coarse[(i - from) / blockSize] += lengths[i];
+		}
+		return coarse;
+	}
+
+	/**
+	 * Projects the coarse path to the full resolution: every coarse bead allows the block of fine
+	 * cells it covers. The corridor is then widened by <code>radius</code> columns and rows.
+	 */
+	private Corridor project(List<Alignment> coarsePath, int size1, int size2) {
+		Corridor corridor = new Corridor(size1, size2);
+		corridor.include(0, 0, 0);
+
+		int coarseRow = 0;
+		int coarseColumn = 0;
+		for (Alignment bead : coarsePath) {
+			int nextRow = coarseRow + ((bead.x1 == -1) ? 0 : (bead.x2 == -1) ? 1 : 2);
+			int nextColumn = coarseColumn + ((bead.y1 == -1) ? 0 : (bead.y2 == -1) ? 1 : 2);
+			// Allows the fine cells covered by the coarse cells from [coarseRow][coarseColumn] to [nextRow][nextColumn].
+			for (int i=coarseRow*blockSize; i<=Math.min(nextRow*blockSize, size1); ++i) {
+				corridor.include(i, coarseColumn*blockSize, nextColumn*blockSize);
+			}
+			coarseRow = nextRow;
+			coarseColumn = nextColumn;
+		}
+		corridor.include(size1, size2, size2);
+
+		corridor.widen(radius);
+		return corridor;
+	}
+}
@@ -0,0 +1,550 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import hr.fer.zemris.ktlab.sap.util.DataModel;
+
+/**
+ * Aligns a corpus of parallel files from the command line. Each file holds
+ * one sentence per line, and blank lines separate the paragraphs. Each pair
+ * of a source file and its translation is read into a <code>DataModel</code>,
+ * aligned by an <code>Aligner</code>, and the alignment is written into a file
+ * named after the source file, with the extension <code>.align</code>. The
+ * pairs of files are aligned in several threads at the same time.
+ * <p>
+ * The output holds one line per connection, the number of the source sentence
+ * and the number of the sentence of the translation separated by a tab, or
+ * with <code>-beads</code> one line per alignment (bead): the numbers of its
+ * source sentences and the numbers of its sentences of the translation,
+ * separated by a tab, each list separated by spaces and possibly empty.
+ * Sentences are numbered from 0 in each file.
+ * <p>
+ * Usage:
+ * <pre>
+ * CorpusAligner [options] source1 translation1 [source2 translation2 ...]
+ *   -threads n     number of pairs aligned at the same time (all processors by default)
+ *   -virtual       reads and writes each pair in a virtual thread of its own, aligning n at a time
+ *   -mode MODE     the alignment mode, FULL by default
+ *   -auto          chooses the mode of each pair of paragraphs by the memory (see AlignmentBudget)
+ *   -admit         aligns a pair only while its estimated memory fits into a half of the heap
+ *                  (see AdmissionGate)
+ *   -paragraphs    aligns the paragraphs before the sentences
+ *   -beads         writes the beads instead of the connections
+ *   -out dir       the directory of the output, the one of each source file by default
+ *   -encoding enc  the encoding of the files, UTF-8 by default
+ * </pre>
+ */
+public class CorpusAligner {
+
+	/** The size of the buffers the files are read and written through. */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/** The extension of the output files. */
+	private static final String EXTENSION = ".align";
+
+	/** One language of a file pair: the sentences and the paragraph of each. */
+	static class Text {
+
+		/** The sentences, in order. */
+		private List<String> sentences = new ArrayList<String>();
+
+		/** The paragraph of each sentence; grown as sentences are added. */
+		private int[] paragraphs = new int[1024];
+
+		/** The number of bytes of the file. */
+		private long bytes;
+
+		/** The paragraph of the next sentence. */
+		private int paragraph;
+
+		/** Whether the current paragraph has no sentences yet. */
+		private boolean paragraphEmpty = true;
+
+		/** Returns the number of sentences. */
+		int size() {
+			return sentences.size();
+		}
+
+		/** Adds a line of the text: a sentence, or the end of the paragraph if the line is blank. */
+		void addLine(String line) {
+			String sentence = line.trim();
+			if (sentence.length() == 0) {
+				if (!paragraphEmpty) paragraph++;
+				paragraphEmpty = true;
+			} else {
+				add(sentence, paragraph);
+				paragraphEmpty = false;
+			}
+		}
+
+		/** Adds a sentence to the given paragraph. */
+		private void add(String sentence, int paragraph) {
+			if (sentences.size() == paragraphs.length) {
+				int[] grown = new int[paragraphs.length * 2];
+				System.arraycopy(paragraphs, 0, grown, 0, paragraphs.length);
+				paragraphs = grown;
+			}
+			paragraphs[sentences.size()] = paragraph;
+			sentences.add(sentence);
+		}
+
+		/** Returns the paragraphs of the sentences in an array exactly as long. */
+		private int[] paragraphs() {
+			int[] exact = new int[sentences.size()];
+			System.arraycopy(paragraphs, 0, exact, 0, exact.length);
+			return exact;
+		}
+	}
+
+	/** The number of pairs of files aligned at the same time. */
+	private int threads;
+
+	/** Whether each pair of files is read and written in a thread of its own. */
+	private boolean virtualThreads;
+
+	/** Bounds the pairs aligned at the same time, or <code>null</code> if only the threads bound them. */
+	private AlignmentThreads alignmentThreads;
+
+	/** Admits the pairs by their estimated memory, or <code>null</code> to admit all of them at once. */
+	private AdmissionGate admissionGate;
+
+	/** The alignment mode. */
+	private AlignmentMode mode;
+
+	/** The distance measure. */
+	private CostModel costModel;
+
+	/** Whether the mode of each pair of paragraphs is chosen by an <code>AlignmentBudget</code>. */
+	private boolean automatic;
+
+	/** Whether the paragraphs are aligned before the sentences. */
+	private boolean paragraphAlignment;
+
+	/** Whether the beads are written instead of the connections. */
+	private boolean beads;
+
+	/** The directory of the output, or <code>null</code> for the one of each source file. */
+	private File outputDirectory;
+
+	/** The encoding of the files. */
+	private Charset charset;
+
+	/**
+	 * The public constructor for the CorpusAligner class. Aligns in the <code>FULL</code> mode, in as
+	 * many threads as there are processors, and writes the connections next to the source files.
+	 */
+	public CorpusAligner() {
+		super();
+		this.threads = Runtime.getRuntime().availableProcessors();
+		this.mode = AlignmentMode.FULL;
+		this.costModel = GaleChurchCostModel.DEFAULT;
+		this.charset = Charset.forName("UTF-8");
+	}
+
+	/** Sets the number of pairs of files aligned at the same time. */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive, was " + threads);
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets whether each pair of files is read, aligned and written in a thread of its own, a
+	 * virtual thread if the virtual machine has them, instead of in a pool of the given number of
+	 * threads. The number of threads set still bounds the pairs being aligned at the same time,
+	 * but not the pairs being read or written.
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Sets the permits every alignment has to take, which bound the alignments at the same time
+	 * also when the texts are aligned from many threads, e.g. by a service. Each alignment uses the
+	 * workspace of its permit.
+	 * @param alignmentThreads
+	 * 		The permits, or <code>null</code> to align in every thread at once, with the workspace of
+	 * 		the thread (the default).
+	 */
+	public void setAlignmentThreads(AlignmentThreads alignmentThreads) {
+		this.alignmentThreads = alignmentThreads;
+	}
+
+	/**
+	 * Sets the gate the alignment of each pair of texts has to pass before it starts. The memory
+	 * needed by the alignment is estimated (see <code>MemoryEstimator</code>) and reserved at the
+	 * gate, so that pairs wait while the memory of the gate is taken by other alignments, possibly
+	 * of other aligners sharing the gate. A pair needing more than the gate admits fails.
+	 * @param admissionGate
+	 * 		The gate, or <code>null</code> to align the pairs without waiting (the default).
+	 */
+	public void setAdmissionGate(AdmissionGate admissionGate) {
+		this.admissionGate = admissionGate;
+	}
+
+	/** Sets the alignment mode of all pairs of paragraphs. */
+	public void setMode(AlignmentMode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Sets the distance measure used for all pairs of files.
+	 * @param costModel
+	 * 		The distance measure, <code>GaleChurchCostModel.DEFAULT</code> by default.
+	 */
+	public void setCostModel(CostModel costModel) {
+		if (costModel == null) {
+			throw new IllegalArgumentException("Cost model must not be null");
+		}
+		this.costModel = costModel;
+	}
+
+	/**
+	 * Sets whether the mode of each pair of paragraphs is chosen by its size and an
+	 * <code>AlignmentBudget</code> of the heap divided among the threads, instead of the mode set.
+	 */
+	public void setAutomatic(boolean automatic) {
+		this.automatic = automatic;
+	}
+
+	/** Sets whether the paragraphs are aligned before the sentences. */
+	public void setParagraphAlignment(boolean paragraphAlignment) {
+		this.paragraphAlignment = paragraphAlignment;
+	}
+
+	/** Sets whether the beads are written instead of the connections. */
+	public void setBeads(boolean beads) {
+		this.beads = beads;
+	}
+
+	/** Sets the directory of the output, or <code>null</code> for the directory of each source file. */
+	public void setOutputDirectory(File outputDirectory) {
+		this.outputDirectory = outputDirectory;
+	}
+
+	/** Sets the encoding of the input and the output files. */
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * Aligns the pairs of files and prints the throughput to the standard output. A pair which fails
+	 * is reported to the standard error output and the other pairs are aligned still.
+	 * @param files
+	 * 		The source files, each followed by its translation.
+	 * @return
+	 * 		The number of pairs which failed.
+	 */
+	public int align(List<File> files) {
+		if (files.size() % 2 != 0) {
+			throw new IllegalArgumentException("Each source file needs a translation, " + files.size() + " files given");
+		}
+		if (outputDirectory != null && !outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+			throw new IllegalArgumentException("Cannot create the output directory " + outputDirectory);
+		}
+		long startTime = System.currentTimeMillis();
+		int pairs = files.size() / 2;
+		int failed = 0;
+		long bytes = 0;
+		long sentences = 0;
+
+		final AlignmentThreads permits;
+		ExecutorService executor;
+		if (virtualThreads) {
+			permits = (alignmentThreads != null) ? alignmentThreads : new AlignmentThreads(threads);
+			executor = permits.newDocumentExecutor();
+		} else {
+			permits = alignmentThreads;
+			executor = Executors.newFixedThreadPool(Math.max(Math.min(threads, pairs), 1));
+		}
+		try {
+			List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+			for (int p=0; p<pairs; ++p) {
+				final File source = files.get(2*p);
+				final File translation = files.get(2*p + 1);
+				results.add(executor.submit(new Callable<long[]>() {
+					public long[] call() throws IOException, InterruptedException {
+						return align(source, translation, permits);
+					}
+				}));
+			}
+			for (int p=0; p<pairs; ++p) {
+				try {
+					long[] counts = results.get(p).get();
+					bytes += counts[0];
+					sentences += counts[1];
+				} catch (ExecutionException e) {
+					failed++;
+					System.err.println("Failed to align " + files.get(2*p) + " with " + files.get(2*p + 1)
+							+ ": " + e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while aligning the files", e);
+		} finally {
+			executor.shutdown();
+		}
+
+		long time = Math.max(System.currentTimeMillis() - startTime, 1);
+		System.out.println("Aligned " + (pairs - failed) + " of " + pairs + " pairs of files, " + sentences
+				+ " sentences, " + bytes + " bytes in " + time + " ms");
+		System.out.println(String.format("%.2f MB/s, %.0f sentences/s", bytes / 1048576.0 / (time / 1000.0),
+				sentences / (time / 1000.0)));
+		return failed;
+	}
+
+	/**
+	 * Aligns a pair of files and writes the output.
+	 * @param permits
+	 * 		Bounds the alignments at the same time, or <code>null</code>.
+	 * @return
+	 * 		The number of bytes and the number of sentences of both files.
+	 */
+	private long[] align(File source, File translation, AlignmentThreads permits)
+			throws IOException, InterruptedException {
+		Text text1 = read(source);
+		Text text2 = read(translation);
+
+		File directory = (outputDirectory != null) ? outputDirectory : source.getAbsoluteFile().getParentFile();
+		FileOutputStream output = new FileOutputStream(new File(directory, source.getName() + EXTENSION));
+		try {
+			Writer writer = new BufferedWriter(Channels.newWriter(output.getChannel(), charset.newEncoder(), BUFFER_SIZE),
+					BUFFER_SIZE);
+			align(text1, text2, beads, writer, permits);
+			writer.flush();
+		} finally {
+			output.close();
+		}
+		return new long[] { text1.bytes + text2.bytes, text1.size() + text2.size() };
+	}
+
+	/**
+	 * Aligns a pair of texts and writes the connections or the beads.
+	 * @param beads
+	 * 		Whether the beads are written instead of the connections.
+	 */
+	void align(Text text1, Text text2, boolean beads, Writer writer) throws IOException, InterruptedException {
+		align(text1, text2, beads, writer, alignmentThreads);
+	}
+
+	/**
+	 * Aligns a pair of texts while holding a permit, if there are permits, and writes the
+	 * connections or the beads after the permit is given back.
+	 */
+	private void align(Text text1, Text text2, boolean beads, Writer writer, AlignmentThreads permits)
+			throws IOException, InterruptedException {
+		DataModel dm = new DataModel();
+		dm.setNotifyListeners(false);
+		int firstKey1 = dm.addElements1(text1.sentences, text1.paragraphs());
+		int firstKey2 = dm.addElements2(text2.sentences, text2.paragraphs());
+
+		if (text1.size() > 0 && text2.size() > 0) {
+			// The gate is passed before the permit is taken, so a waiting pair holds no workspace.
+			AdmissionGate gate = admissionGate;
+			long estimate = (gate != null) ? estimate(dm) : 0;
+			if (gate != null) gate.acquire(estimate);
+			try {
+				AlignerWorkspace workspace = (permits != null) ? permits.acquire() : AlignerWorkspace.forCurrentThread();
+				try {
+					Aligner aligner = new Aligner(dm);
+					aligner.setMode(mode);
+					aligner.setCostModel(costModel);
+					aligner.setWorkspace(workspace);
+					if (paragraphAlignment) aligner.alignParagraphs();
+					if (automatic) {
+						aligner.alignSentences(budget());
+					} else {
+						aligner.alignSentences();
+					}
+				} finally {
+					if (permits != null) permits.release(workspace);
+				}
+			} finally {
+				if (gate != null) gate.release(estimate);
+			}
+		}
+
+		if (beads) {
+			writeBeads(dm, firstKey1, text1.size(), firstKey2, text2.size(), writer);
+		} else {
+			for (int i=0; i<text1.size(); ++i) {
+				for (Integer key2 : dm.getConnections(firstKey1 + i)) {
+					writer.write(i + "\t" + (key2 - firstKey2) + "\n");
+				}
+			}
+		}
+	}
+
+	/** Returns the budget of a pair of texts aligned in the automatic mode: the heap divided among the threads. */
+	private AlignmentBudget budget() {
+		return new AlignmentBudget(Runtime.getRuntime().maxMemory() / 2 / threads, AlignmentBudget.DEFAULT_CELLS, 1);
+	}
+
+	/**
+	 * Returns the estimated bytes of the heap the alignment of the sentences of the model needs: in
+	 * the mode set or, in the automatic mode, at most the memory of the budget for the dynamic
+	 * programming besides the least any mode needs.
+	 */
+	private long estimate(DataModel dm) {
+		if (!automatic) {
+			return MemoryEstimator.estimateAlignment(dm, mode);
+		}
+		return Math.min(MemoryEstimator.estimateAlignment(dm, AlignmentMode.FULL),
+				MemoryEstimator.estimateAlignment(dm, AlignmentMode.COARSE_TO_FINE) + budget().getMemory());
+	}
+
+	/** Reads the sentences and paragraphs of a file through a channel, a buffer at a time. */
+	private Text read(File file) throws IOException {
+		Text text = new Text();
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+		StringBuilder line = new StringBuilder();
+
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			text.bytes = channel.size();
+			boolean endOfInput = false;
+			while (!endOfInput) {
+				endOfInput = channel.read(bytes) == -1;
+				bytes.flip();
+				CoderResult result;
+				do {
+					result = decoder.decode(bytes, chars, endOfInput);
+					if (endOfInput && result.isUnderflow()) decoder.flush(chars);
+					chars.flip();
+					while (chars.hasRemaining()) {
+						char c = chars.get();
+						if (c != '\n') {
+							if (c != '\r') line.append(c);
+							continue;
+						}
+						text.addLine(line.toString());
+						line.setLength(0);
+					}
+					chars.clear();
+				} while (result.isOverflow());
+				bytes.compact();
+			}
+		} finally {
+			input.close();
+		}
+		text.addLine(line.toString());
+		return text;
+	}
+
+	/**
+	 * Writes the beads: the smallest groups of consecutive sentences of both files connected only
+	 * among themselves, and each unconnected sentence on its own.
+	 */
+	private void writeBeads(DataModel dm, int firstKey1, int size1, int firstKey2, int size2, Writer writer)
+			throws IOException {
+		int i = 0;
+		int j = 0;
+		while (i < size1 || j < size2) {
+			int last1 = i - 1;
+			int last2 = j - 1;
+			if (i < size1 && dm.getConnections(firstKey1 + i).isEmpty()) {
+				last1 = i;
+			} else if (j < size2 && dm.getConnections(firstKey2 + j).isEmpty()) {
+				last2 = j;
+			} else {
+				// Grows the bead until no sentence in it is connected to a sentence after it.
+				last1 = i;
+				int checked1 = i - 1;
+				int checked2 = j - 1;
+				while (checked1 < last1 || checked2 < last2) {
+					while (checked1 < last1) {
+						for (Integer key2 : dm.getConnections(firstKey1 + ++checked1)) {
+							last2 = Math.max(last2, key2 - firstKey2);
+						}
+					}
+					while (checked2 < last2) {
+						for (Integer key1 : dm.getConnections(firstKey2 + ++checked2)) {
+							last1 = Math.max(last1, key1 - firstKey1);
+						}
+					}
+				}
+			}
+			writer.write(numbers(i, last1) + "\t" + numbers(j, last2) + "\n");
+			i = last1 + 1;
+			j = last2 + 1;
+		}
+	}
+
+	/** Returns the numbers from <code>first</code> to <code>last</code>, separated by spaces. */
+	private static String numbers(int first, int last) {
+		StringBuilder numbers = new StringBuilder();
+		for (int k=first; k<=last; ++k) {
+			if (k > first) numbers.append(' ');
+			numbers.append(k);
+		}
+		return numbers.toString();
+	}
+
+	/** Aligns the files given on the command line; see the description of the class. */
+	public static void main(String[] args) {
+		CorpusAligner corpusAligner = new CorpusAligner();
+		List<File> files = new ArrayList<File>();
+		try {
+			for (int a=0; a<args.length; ++a) {
+				if (args[a].equals("-threads")) {
+					corpusAligner.setThreads(Integer.parseInt(args[++a]));
+				} else if (args[a].equals("-virtual")) {
+					corpusAligner.setVirtualThreads(true);
+				} else if (args[a].equals("-mode")) {
+					corpusAligner.setMode(AlignmentMode.valueOf(args[++a]));
+				} else if (args[a].equals("-auto")) {
+					corpusAligner.setAutomatic(true);
+				} else if (args[a].equals("-admit")) {
+					corpusAligner.setAdmissionGate(AdmissionGate.forRuntime());
+				} else if (args[a].equals("-paragraphs")) {
+					corpusAligner.setParagraphAlignment(true);
+				} else if (args[a].equals("-beads")) {
+					corpusAligner.setBeads(true);
+				} else if (args[a].equals("-out")) {
+					corpusAligner.setOutputDirectory(new File(args[++a]));
+				} else if (args[a].equals("-encoding")) {
+					corpusAligner.setCharset(Charset.forName(args[++a]));
+				} else if (args[a].startsWith("-")) {
+					throw new IllegalArgumentException("Unknown option " + args[a]);
+				} else {
+					files.add(new File(args[a]));
+				}
+			}
+			if (files.isEmpty() || files.size() % 2 != 0) {
+				throw new IllegalArgumentException("Expected pairs of a source file and its translation");
+			}
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: CorpusAligner [-threads n] [-virtual] [-mode MODE] [-auto] [-admit] [-paragraphs] [-beads]"
+					+ " [-out dir] [-encoding enc] source1 translation1 [source2 translation2 ...]");
+			System.exit(2);
+		}
+		System.exit(corpusAligner.align(files) == 0 ? 0 : 1);
+	}
+}
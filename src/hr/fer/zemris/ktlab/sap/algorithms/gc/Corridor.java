@@ -0,0 +1,167 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.List;
+
+/**
+ * The part of the dynamic programming array that is searched for the
+ * cheapest path. For every row <code>i</code> (0 to <code>size1</code>) the
+ * corridor holds one contiguous range of columns; rows with no columns are
+ * marked by a start greater than the end.
+ */
+public class Corridor {
+
+	/** Number of segments in the source language (the last row of the array). */
+	private int size1;
+
+	/** Number of segments in the destination language (the last column of the array). */
+	private int size2;
+
+	/** The first column of each row inside the corridor. */
+	private int[] start;
+
+	/** The last column of each row inside the corridor. */
+	private int[] end;
+
+	/**
+	 * The public constructor for the Corridor class. Creates an empty corridor.
+	 * @param size1
+	 * 		Number of segments in the source language.
+	 * @param size2
+	 * 		Number of segments in the destination language.
+	 */
+	public Corridor(int size1, int size2) {
+		super();
+		this.size1 = size1;
+		this.size2 = size2;
+		this.start = new int[size1+1];
+		this.end = new int[size1+1];
+		for (int i=0; i<=size1; ++i) {
+			start[i] = Integer.MAX_VALUE;
+			end[i] = -1;
+		}
+	}
+
+	/** Returns a corridor covering the whole array. */
+	public static Corridor full(int size1, int size2) {
+		Corridor corridor = new Corridor(size1, size2);
+		for (int i=0; i<=size1; ++i) {
+			corridor.start[i] = 0;
+			corridor.end[i] = size2;
+		}
+		return corridor;
+	}
+
+	/** Returns the number of segments in the source language. */
+	public int getSize1() {
+		return size1;
+	}
+
+	/** Returns the number of segments in the destination language. */
+	public int getSize2() {
+		return size2;
+	}
+
+	/** Returns the first column of the given row inside the corridor. */
+	public int getStart(int row) {
+		return start[row];
+	}
+
+	/** Returns the last column of the given row inside the corridor. */
+	public int getEnd(int row) {
+		return end[row];
+	}
+
+	/** Returns <code>true</code> if the cell [row][column] lies inside the corridor. */
+	public boolean contains(int row, int column) {
+		return (row >= 0) && (row <= size1) && (column >= start[row]) && (column <= end[row]);
+	}
+
+	/** Returns the number of cells inside the corridor. */
+	public long cells() {
+		long cells = 0;
+		for (int i=0; i<=size1; ++i) {
+			if (end[i] >= start[i]) cells += end[i] - start[i] + 1;
+		}
+		return cells;
+	}
+
+	/**
+	 * Adds the columns <code>firstColumn</code> to <code>lastColumn</code> of the given row to the
+	 * corridor. Rows and columns outside of the array are clipped.
+	 */
+	public void include(int row, int firstColumn, int lastColumn) {
+		if (row < 0 || row > size1) return;
+		start[row] = Math.min(start[row], Math.max(firstColumn, 0));
+		end[row] = Math.max(end[row], Math.min(lastColumn, size2));
+	}
+
+	/**
+	 * Adds the cells along the line from [row1][column1] to [row2][column2] (with
+	 * <code>row1 &lt;= row2</code>) to the corridor. Neighbouring rows overlap by at least one
+	 * column, so a path can always follow the line.
+	 */
+	public void includeLine(int row1, int column1, int row2, int column2) {
+		if (row1 == row2) {
+			include(row1, Math.min(column1, column2), Math.max(column1, column2));
+			return;
+		}
+		double slope = (double)(column2 - column1) / (row2 - row1);
+		for (int i=row1; i<=row2; ++i) {
+			double previous = column1 + slope * (Math.max(i-1, row1) - row1);
+			double next = column1 + slope * (Math.min(i+1, row2) - row1);
+			include(i, (int)Math.floor(Math.min(previous, next)), (int)Math.ceil(Math.max(previous, next)));
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if a move from a cell of the path (as returned by
+	 * {@link LengthAligner#align(int[], int, int, int[], int, int, Corridor)} for this corridor)
+	 * leads out of the corridor. The path then runs along the edge of the corridor and a cheaper
+	 * path may lie outside of it.
+	 */
+	public boolean isTouchedBy(List<Alignment> path) {
+		int row = 0;
+		int column = 0;
+		if (leaves(row, column)) return true;
+		for (Alignment bead : path) {
+			row += (bead.x1 == -1) ? 0 : (bead.x2 == -1) ? 1 : 2;
+			column += (bead.y1 == -1) ? 0 : (bead.y2 == -1) ? 1 : 2;
+			if (leaves(row, column)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns <code>true</code> if a move (1-0, 0-1, 1-1, 2-1, 1-2 or 2-2) from the cell
+	 * [row][column] to a cell of the array leads out of the corridor.
+	 */
+	private boolean leaves(int row, int column) {
+		for (int di=0; di<=2; ++di) {
+			for (int dj=0; dj<=2; ++dj) {
+				boolean move = (di + dj > 0) && (di * dj > 0 || di + dj == 1);
+				if (move && row + di <= size1 && column + dj <= size2 && !contains(row + di, column + dj)) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Widens the corridor by <code>radius</code> rows and columns on each side.
+	 */
+	public void widen(int radius) {
+		int[] oldStart = start.clone();
+		int[] oldEnd = end.clone();
+		for (int i=0; i<=size1; ++i) {
+			int low = Integer.MAX_VALUE;
+			int high = -1;
+			for (int k=Math.max(i-radius, 0); k<=Math.min(i+radius, size1); ++k) {
+				low = Math.min(low, oldStart[k]);
+				high = Math.max(high, oldEnd[k]);
+			}
+			if (high >= 0) {
+				start[i] = Math.max(low - radius, 0);
+				end[i] = Math.min(high + radius, size2);
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+/**
+ * The distance measure used by the dynamic programming. The distance of an
+ * alignment (bead) is the distance between the lengths of the aligned
+ * segments plus a penalty depending on the number of segments on each side.
+ * <p>
+ * Implementations must be immutable, so one instance can be shared by all
+ * aligners and threads, and should not allocate memory, since the methods
+ * are called for every cell of the dynamic programming array. Distances and
+ * penalties must not be negative.
+ *
+ * @see GaleChurchCostModel
+ */
+public interface CostModel {
+
+	/**
+	 * Returns the distance between a segment of the translation <code>length2</code> characters
+	 * long and a segment in the source language <code>length1</code> characters long, without
+	 * the penalty.
+	 */
+	public int distance(int length1, int length2);
+
+	/**
+	 * Computes the distances of one source segment against a range of destination segments at
+	 * once. Gives the same values as <code>distance(length1, lengths2[k]) + penalty</code> for
+	 * every <code>k</code> from <code>from</code> (inclusive) to <code>to</code> (exclusive).
+	 * @param length1
+	 * 		Number of characters (length) in the segment in the source language.
+	 * @param lengths2
+	 * 		Numbers of characters (lengths) in the segments in the translation.
+	 * @param distances
+	 * 		The array the distances are written into, at the same positions as the lengths they
+	 * 		were computed from.
+	 * @param from
+	 * 		The first position to compute.
+	 * @param to
+	 * 		The position after the last one to compute.
+	 * @param penalty
+	 * 		The penalty added to each distance.
+	 */
+	public void distances(int length1, int[] lengths2, int[] distances, int from, int to, int penalty);
+
+	/** Returns the penalty of a 1-1 alignment (substitution). */
+	public int getSubstitutionPenalty();
+
+	/** Returns the penalty of a 1-0 alignment (deletion). */
+	public int getDeletionPenalty();
+
+	/** Returns the penalty of a 0-1 alignment (insertion). */
+	public int getInsertionPenalty();
+
+	/** Returns the penalty of a 2-1 alignment (contraction). */
+	public int getContractionPenalty();
+
+	/** Returns the penalty of a 1-2 alignment (expansion). */
+	public int getExpansionPenalty();
+
+	/** Returns the penalty of a 2-2 alignment (merger). */
+	public int getMergerPenalty();
+}
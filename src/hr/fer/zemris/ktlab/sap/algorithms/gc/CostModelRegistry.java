@@ -0,0 +1,128 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the distance measures of the language pairs served by one process.
+ * The parameters of each pair are compiled once, when they are registered,
+ * and the compiled model is shared by all aligners of that pair. Language
+ * pairs without their own parameters use the default model. The registry
+ * can be used from several threads at once.
+ * <p>
+ * The parameters can be loaded at startup from <code>Properties</code> with
+ * keys of the form <code>language1.language2.parameter</code>, for example
+ * <code>zh.en.c</code> or <code>de.en.sSquared</code>, as written by
+ * {@link #store(Properties, String, String, GaleChurchCostModel)}.
+ */
+public class CostModelRegistry {
+
+	/** The models of the registered language pairs, by the key built by <code>key</code>. */
+	private ConcurrentMap<String, CostModel> models;
+
+	/** The model of the language pairs without their own parameters. */
+	private CostModel defaultModel;
+
+	/**
+	 * The public constructor for the CostModelRegistry class.
+	 * @param defaultModel
+	 * 		The model of the language pairs without their own parameters.
+	 */
+	public CostModelRegistry(CostModel defaultModel) {
+		super();
+		if (defaultModel == null) {
+			throw new IllegalArgumentException("Default cost model must not be null");
+		}
+		this.models = new ConcurrentHashMap<String, CostModel>();
+		this.defaultModel = defaultModel;
+	}
+
+	/**
+	 * Registers the parameters of a language pair, replacing the ones registered before. The
+	 * parameters are compiled into a tabulated model here.
+	 * @param language1
+	 * 		The source language, for example "hr".
+	 * @param language2
+	 * 		The destination language, for example "en".
+	 * @param parameters
+	 * 		The parameters of the distance measure for the language pair.
+	 */
+	public void register(String language1, String language2, GaleChurchCostModel parameters) {
+		register(language1, language2, parameters.compile());
+	}
+
+	/**
+	 * Registers the distance measure of a language pair as it is, replacing the one registered before.
+	 */
+	public void register(String language1, String language2, CostModel model) {
+		if (model == null) {
+			throw new IllegalArgumentException("Cost model must not be null");
+		}
+		models.put(key(language1, language2), model);
+	}
+
+	/**
+	 * Returns the distance measure of the language pair, or the default one if the pair wasn't
+	 * registered.
+	 */
+	public CostModel get(String language1, String language2) {
+		CostModel model = models.get(key(language1, language2));
+		return (model != null) ? model : defaultModel;
+	}
+
+	/** Returns the model of the language pairs without their own parameters. */
+	public CostModel getDefaultModel() {
+		return defaultModel;
+	}
+
+	/**
+	 * Registers the parameters of all language pairs found in the given properties. Parameters
+	 * missing for a pair are taken from <code>GaleChurchCostModel.DEFAULT</code>.
+	 * @throws IllegalArgumentException
+	 * 		If a value isn't a number or the parameters of a pair are invalid.
+	 */
+	public void load(Properties properties) {
+		for (String name : properties.stringPropertyNames()) {
+			if (!name.endsWith(".c")) continue;
+			String[] languages = name.substring(0, name.length() - 2).split("\\.");
+			if (languages.length != 2) continue;
+			String prefix = languages[0] + "." + languages[1] + ".";
+			GaleChurchCostModel base = GaleChurchCostModel.DEFAULT;
+			try {
+				register(languages[0], languages[1], new GaleChurchCostModel(
+						Double.parseDouble(properties.getProperty(prefix + "c")),
+						Double.parseDouble(properties.getProperty(prefix + "sSquared", String.valueOf(base.getSSquared()))),
+						Integer.parseInt(properties.getProperty(prefix + "penalty01", String.valueOf(base.getDeletionPenalty()))),
+						Integer.parseInt(properties.getProperty(prefix + "penalty21", String.valueOf(base.getContractionPenalty()))),
+						Integer.parseInt(properties.getProperty(prefix + "penalty22", String.valueOf(base.getMergerPenalty()))),
+						Integer.parseInt(properties.getProperty(prefix + "bigDistance", String.valueOf(base.getBigDistance())))));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid cost model parameters for " + prefix, e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the parameters of a language pair into the given properties, in the form read by
+	 * {@link #load(Properties)}.
+	 */
+	public static void store(Properties properties, String language1, String language2,
+			GaleChurchCostModel parameters) {
+		String prefix = language1 + "." + language2 + ".";
+		properties.setProperty(prefix + "c", String.valueOf(parameters.getC()));
+		properties.setProperty(prefix + "sSquared", String.valueOf(parameters.getSSquared()));
+		properties.setProperty(prefix + "penalty01", String.valueOf(parameters.getDeletionPenalty()));
+		properties.setProperty(prefix + "penalty21", String.valueOf(parameters.getContractionPenalty()));
+		properties.setProperty(prefix + "penalty22", String.valueOf(parameters.getMergerPenalty()));
+		properties.setProperty(prefix + "bigDistance", String.valueOf(parameters.getBigDistance()));
+	}
+
+	/** Builds the key of a language pair; the direction matters. */
+	private static String key(String language1, String language2) {
+		if (language1 == null || language2 == null) {
+			throw new IllegalArgumentException("Languages must not be null");
+		}
+		return language1 + '\u0000' + language2;
+	}
+}
@@ -0,0 +1,105 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+/**
+ * A tabulated replacement for the distance measure of Gale and Church, used
+ * by <code>TabulatedCostModel</code>. The distance of a match depends only
+ * on the absolute value of the parameter delta, so instead of evaluating the
+ * normal distribution (<code>Math.exp</code>) and its logarithm
+ * (<code>Math.log</code>) for every cell of the dynamic programming array,
+ * |delta| is quantized into steps of <code>1/STEPS_PER_UNIT</code> and the
+ * integer distance is read from a table built once.
+ * <p>
+ * The distance is non-decreasing in |delta| up to the point where the
+ * probability underflows and <code>bigDistance</code> is returned, and it
+ * grows by at most one inside a step. Each step therefore stores the
+ * distance at its lower end together with the exact |delta| at which the
+ * distance grows by one, found by bisection on the original function.
+ * Error bound: the looked-up distance equals the distance computed by
+ * <code>GaleChurchCostModel</code> for every input (the error is 0).
+ * Steps where the two properties above do not hold, like the one in which
+ * the probability underflows, are marked while the table is built and
+ * computed directly; beyond the table the probability is always zero.
+ */
+public class CostTable {
+
+	/** The number of table steps per unit of delta. */
+	private static final int STEPS_PER_UNIT = 1024;
+
+	/**
+	 * The value of |delta| beyond which the probability of a match is always too small to be
+	 * represented and the distance is always <code>bigDistance</code>.
+	 */
+	private static final double MAXIMUM_DELTA = 9.0;
+
+	/** The distance used when the probability of a match is too small to be represented. */
+	private final int bigDistance;
+
+	/** The distance at the lower end of each step. */
+	private final int[] lowerDistance;
+
+	/**
+	 * The smallest |delta| inside each step at which the distance is one larger than at the
+	 * lower end of the step; positive infinity if the distance is the same in the whole step,
+	 * NaN if the step has to be computed directly.
+	 */
+	private final double[] nextDistanceAt;
+
+	/**
+	 * The public constructor for the CostTable class. Builds the table.
+	 * @param bigDistance
+	 * 		The distance used when the probability of a match is too small to be represented.
+	 */
+	public CostTable(int bigDistance) {
+		super();
+		this.bigDistance = bigDistance;
+		int steps = (int)(MAXIMUM_DELTA * STEPS_PER_UNIT);
+		lowerDistance = new int[steps];
+		nextDistanceAt = new double[steps];
+		for (int step=0; step<steps; ++step) {
+			double low = (double)step / STEPS_PER_UNIT;
+			double high = (double)(step + 1) / STEPS_PER_UNIT;
+			int lowDistance = compute(low);
+			int highDistance = compute(high);
+			int middleDistance = compute((low + high) / 2);
+			lowerDistance[step] = lowDistance;
+			if (lowDistance == highDistance && middleDistance == lowDistance) {
+				nextDistanceAt[step] = Double.POSITIVE_INFINITY;
+			} else if (highDistance == lowDistance + 1 && middleDistance >= lowDistance && middleDistance <= highDistance) {
+				// Bisection down to two neighbouring doubles.
+				while (true) {
+					double middle = low + (high - low) / 2;
+					if (middle <= low || middle >= high) break;
+					if (compute(middle) == lowDistance) low = middle;
+					else high = middle;
+				}
+				nextDistanceAt[step] = high;
+			} else {
+				nextDistanceAt[step] = Double.NaN;
+			}
+		}
+		if (ProbabilityComputation.matchProbability(MAXIMUM_DELTA) > 0) {
+			throw new IllegalStateException("The cost table doesn't reach the underflow of the probability");
+		}
+	}
+
+	/** Computes the distance for the given absolute value of delta. */
+	private int compute(double delta) {
+		double p_delta_match = ProbabilityComputation.matchProbability(delta);
+		if ( p_delta_match>0 ) return ( (int)(-100 * Math.log(p_delta_match)) );
+		else return bigDistance;
+	}
+
+	/**
+	 * Looks up the distance of a match with the given value of the parameter delta, without the
+	 * penalty for the type of the alignment.
+	 */
+	public int distance(double delta) {
+		if (delta < 0) delta = -delta;
+		if (delta >= MAXIMUM_DELTA) return bigDistance;
+		int step = (int)(delta * STEPS_PER_UNIT);
+		double next = nextDistanceAt[step];
+		if (delta < next) return lowerDistance[step];
+		if (next == next) return lowerDistance[step] + 1; // next isn't NaN
+		return compute(delta);
+	}
+}
@@ -0,0 +1,16 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+/**
+ * Thrown by <code>LengthAligner</code> when the deadline set for the
+ * alignment passes while the dynamic programming array is being filled, and
+ * by <code>LengthCorrelator</code> when it passes while the corridor of a
+ * banded alignment is being estimated.
+ */
+class DeadlineExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	DeadlineExceededException() {
+		super("The deadline of the alignment has passed");
+	}
+}
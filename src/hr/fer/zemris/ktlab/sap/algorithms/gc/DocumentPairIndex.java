@@ -0,0 +1,316 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import hr.fer.zemris.ktlab.sap.algorithms.gc.Alignment;
+import hr.fer.zemris.ktlab.sap.util.DataModel;
+
+/**
+ * Finds the documents of a large collection that are likely translations of
+ * a given document, using only the lengths of their paragraphs.
+ * <p>
+ * Gale and Church's model expects the length of a translated paragraph to be
+ * proportional to the length of the original, so the ratios of the lengths of
+ * neighbouring paragraphs are kept by a translation, whatever the ratio
+ * between the two languages. The signature of a document is the set of its
+ * shingles: runs of <code>SHINGLE_SIZE</code> consecutive ratios, each rounded
+ * to a step of the logarithm. A MinHash of the set is divided into bands, and
+ * documents sharing a band are candidates (locality-sensitive hashing), so a
+ * query looks only at the buckets of its bands instead of at every document.
+ * A document with fewer than two paragraphs has no ratio; it is put into a
+ * bucket by the rounded logarithm of its length instead, and a query for such
+ * a document looks at the buckets of lengths up to one step away.
+ * <p>
+ * Documents with very different numbers of paragraphs are skipped, and of
+ * the rest only those sharing the most bands with the query are ranked by the
+ * cost of the alignment of their paragraphs (the dynamic programming over
+ * paragraph lengths), divided by the number of paragraphs. Only the paragraph
+ * lengths of each indexed document and the buckets are kept.
+ */
+public class DocumentPairIndex {
+
+	/** The default number of bands of the MinHash. */
+	public static final int DEFAULT_BANDS = 24;
+
+	/** The default number of MinHash values in one band. */
+	public static final int DEFAULT_ROWS = 2;
+
+	/** The number of consecutive length ratios in one shingle. */
+	private static final int SHINGLE_SIZE = 3;
+
+	/** The number of documents aligned per candidate returned, chosen by the number of shared bands. */
+	private static final int ALIGNED_PER_CANDIDATE = 16;
+
+	/** The number of steps a ratio of lengths is rounded to per doubling. */
+	private static final double STEPS_PER_DOUBLING = 2;
+
+	/** A candidate translation found by a query. */
+	public static class Candidate {
+
+		/** The identifier of the indexed document. */
+		private String id;
+
+		/** The cost of the paragraph alignment per paragraph. */
+		private double cost;
+
+		private Candidate(String id, double cost) {
+			this.id = id;
+			this.cost = cost;
+		}
+
+		/** Returns the identifier of the indexed document. */
+		public String getId() {
+			return id;
+		}
+
+		/** Returns the cost of the paragraph alignment with the query per paragraph; lower is better. */
+		public double getCost() {
+			return cost;
+		}
+	}
+
+	/** The number of bands of the MinHash. */
+	private int bands;
+
+	/** The number of MinHash values in one band. */
+	private int rows;
+
+	/** Seeds of the hash functions of the MinHash. */
+	private long[] seeds;
+
+	/** The identifiers of the indexed documents, by their numbers. */
+	private List<String> ids;
+
+	/** The paragraph lengths of the indexed documents, by their numbers. */
+	private List<int[]> paragraphLengths;
+
+	/** The numbers of the documents in each bucket, by the band key. */
+	private Map<Long, List<Integer>> buckets;
+
+	/** The numbers of the documents with fewer than two paragraphs, by the rounded logarithm of their length. */
+	private Map<Integer, List<Integer>> shortBuckets;
+
+	/** Aligns the paragraphs of the candidates. */
+	private LengthAligner lengthAligner;
+
+	/**
+	 * The public constructor for the DocumentPairIndex class.
+	 * @param bands
+	 * 		The number of bands; more bands find more candidates.
+	 * @param rows
+	 * 		The number of MinHash values in one band; more rows find fewer, more similar candidates.
+	 */
+	public DocumentPairIndex(int bands, int rows) {
+		super();
+		if (bands < 1 || rows < 1) {
+			throw new IllegalArgumentException("Numbers of bands and rows must be positive");
+		}
+		this.bands = bands;
+		this.rows = rows;
+		this.seeds = new long[bands * rows];
+		long seed = 0x2545F4914F6CDD1DL;
+		for (int k=0; k<seeds.length; ++k) {
+			seed = mix(seed + k);
+			seeds[k] = seed;
+		}
+		this.ids = new ArrayList<String>();
+		this.paragraphLengths = new ArrayList<int[]>();
+		this.buckets = new HashMap<Long, List<Integer>>();
+		this.shortBuckets = new HashMap<Integer, List<Integer>>();
+		this.lengthAligner = new LengthAligner();
+		this.lengthAligner.setCostModel(GaleChurchCostModel.DEFAULT.compile());
+	}
+
+	/**
+	 * Sets the distance measure used to rank the candidates.
+	 * @param costModel
+	 * 		The distance measure, the compiled <code>GaleChurchCostModel.DEFAULT</code> by default.
+	 */
+	public void setCostModel(CostModel costModel) {
+		lengthAligner.setCostModel(costModel);
+	}
+
+	/** Returns the number of indexed documents. */
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Returns the lengths of the paragraphs of one language of a <code>DataModel</code>.
+	 * @param sourceLanguage
+	 * 		<code>true</code> for the source language, <code>false</code> for the destination language.
+	 */
+	public static int[] paragraphLengths(DataModel dm, boolean sourceLanguage) {
+		List<Integer> keys = sourceLanguage ? dm.getKeys1() : dm.getKeys2();
+		List<Integer> lengths = new ArrayList<Integer>();
+		int currentParagraph = 0;
+		int length = 0;
+		boolean first = true;
+		for (Integer key : keys) {
+			int paragraph = dm.getParagraphForElement(key);
+			if (!first && paragraph != currentParagraph) {
+				lengths.add(length);
+				length = 0;
+			}
+			currentParagraph = paragraph;
+			first = false;
+			length += dm.getElement(key).length();
+		}
+		if (!first) lengths.add(length);
+		int[] array = new int[lengths.size()];
+		for (int i=0; i<array.length; ++i) array[i] = lengths.get(i);
+		return array;
+	}
+
+	/**
+	 * Adds a document to the index.
+	 * @param id
+	 * 		The identifier returned in the candidates.
+	 * @param paragraphLengths
+	 * 		The lengths of the paragraphs of the document.
+	 */
+	public void add(String id, int[] paragraphLengths) {
+		int number = ids.size();
+		ids.add(id);
+		this.paragraphLengths.add(paragraphLengths.clone());
+		if (paragraphLengths.length < 2) {
+			int step = lengthStep(paragraphLengths);
+			List<Integer> bucket = shortBuckets.get(step);
+			if (bucket == null) {
+				bucket = new ArrayList<Integer>(2);
+				shortBuckets.put(step, bucket);
+			}
+			bucket.add(number);
+			return;
+		}
+		for (long key : bandKeys(paragraphLengths)) {
+			List<Integer> bucket = buckets.get(key);
+			if (bucket == null) {
+				bucket = new ArrayList<Integer>(2);
+				buckets.put(key, bucket);
+			}
+			bucket.add(number);
+		}
+	}
+
+	/**
+	 * Returns the indexed documents sharing a band with the given document, ranked by the cost of
+	 * the alignment of their paragraphs with the paragraphs of the given document.
+	 * @param paragraphLengths
+	 * 		The lengths of the paragraphs of the document whose translations are searched for.
+	 * @param maximum
+	 * 		The maximum number of candidates returned.
+	 */
+	public List<Candidate> candidates(int[] paragraphLengths, int maximum) {
+		// The number of bands each document shares with the query.
+		Map<Integer, Integer> hits = new HashMap<Integer, Integer>();
+		if (paragraphLengths.length < 2) {
+			// Documents without a ratio: the closer the length, the more "bands" shared.
+			int step = lengthStep(paragraphLengths);
+			for (int distance=-1; distance<=1; ++distance) {
+				List<Integer> bucket = shortBuckets.get(step + distance);
+				if (bucket == null) continue;
+				for (Integer number : bucket) {
+					hits.put(number, 2 - Math.abs(distance));
+				}
+			}
+		} else {
+			for (long key : bandKeys(paragraphLengths)) {
+				List<Integer> bucket = buckets.get(key);
+				if (bucket == null) continue;
+				for (Integer number : bucket) {
+					if (!similarCounts(paragraphLengths.length, this.paragraphLengths.get(number).length)) continue;
+					Integer count = hits.get(number);
+					hits.put(number, (count == null) ? 1 : count + 1);
+				}
+			}
+		}
+
+		// Only the documents sharing the most bands are aligned.
+		List<Map.Entry<Integer, Integer>> found = new ArrayList<Map.Entry<Integer, Integer>>(hits.entrySet());
+		Collections.sort(found, new Comparator<Map.Entry<Integer, Integer>>() {
+			public int compare(Map.Entry<Integer, Integer> a, Map.Entry<Integer, Integer> b) {
+				return b.getValue() - a.getValue();
+			}
+		});
+		if (found.size() > ALIGNED_PER_CANDIDATE * maximum) {
+			found = found.subList(0, ALIGNED_PER_CANDIDATE * maximum);
+		}
+
+		List<Candidate> candidates = new ArrayList<Candidate>(found.size());
+		for (Map.Entry<Integer, Integer> entry : found) {
+			int[] other = this.paragraphLengths.get(entry.getKey());
+			List<Alignment> path = lengthAligner.align(paragraphLengths, 0, paragraphLengths.length, other, 0, other.length);
+			double cost = path.isEmpty() ? 0 : path.get(path.size()-1).cost;
+			candidates.add(new Candidate(ids.get(entry.getKey()), cost / Math.max(paragraphLengths.length + other.length, 1)));
+		}
+		Collections.sort(candidates, new Comparator<Candidate>() {
+			public int compare(Candidate a, Candidate b) {
+				return Double.compare(a.cost, b.cost);
+			}
+		});
+		return (candidates.size() > maximum) ? new ArrayList<Candidate>(candidates.subList(0, maximum)) : candidates;
+	}
+
+	/**
+	 * Returns <code>true</code> if the numbers of paragraphs are close enough for the documents to
+	 * be translations: they may differ by two paragraphs or by a quarter of the larger number.
+	 */
+	private static boolean similarCounts(int count1, int count2) {
+		return Math.abs(count1 - count2) <= Math.max(2, Math.max(count1, count2) / 4);
+	}
+
+	/** Returns the keys of the bands of the MinHash of the document's shingles. */
+	private long[] bandKeys(int[] paragraphLengths) {
+		// Rounded logarithms of the ratios of the lengths of neighbouring paragraphs.
+		int ratios = Math.max(paragraphLengths.length - 1, 0);
+		int[] steps = new int[ratios];
+		for (int i=0; i<ratios; ++i) {
+			double ratio = (paragraphLengths[i+1] + 1.0) / (paragraphLengths[i] + 1.0);
+			steps[i] = (int)Math.round(Math.log(ratio) / Math.log(2) * STEPS_PER_DOUBLING);
+		}
+
+		// The shingles; a document too short for one shingle has a single one of all its ratios (at
+		// least one, documents without a ratio aren't hashed).
+		int shingleSize = Math.min(SHINGLE_SIZE, ratios);
+		int shingles = Math.max(ratios - shingleSize + 1, 1);
+		long[] minHash = new long[seeds.length];
+		for (int k=0; k<minHash.length; ++k) minHash[k] = Long.MAX_VALUE;
+		for (int s=0; s<shingles; ++s) {
+			long shingle = shingleSize;
+			for (int i=s; i<s+shingleSize; ++i) shingle = mix(shingle * 31 + steps[i]);
+			for (int k=0; k<seeds.length; ++k) {
+				minHash[k] = Math.min(minHash[k], mix(shingle ^ seeds[k]));
+			}
+		}
+
+		long[] keys = new long[bands];
+		for (int b=0; b<bands; ++b) {
+			long key = b;
+			for (int r=0; r<rows; ++r) key = mix(key * 31 + minHash[b*rows + r]);
+			keys[b] = key;
+		}
+		return keys;
+	}
+
+	/** Returns the logarithm of the total length of the paragraphs, rounded like a ratio of lengths. */
+	private static int lengthStep(int[] paragraphLengths) {
+		long length = 0;
+		for (int paragraphLength : paragraphLengths) length += paragraphLength;
+		return (int)Math.round(Math.log(length + 1.0) / Math.log(2) * STEPS_PER_DOUBLING);
+	}
+
+	/** Mixes the bits of a value (the finalizer of MurmurHash3). */
+	private static long mix(long x) {
+		x ^= x >>> 33;
+		x *= 0xff51afd7ed558ccdL;
+		x ^= x >>> 33;
+		x *= 0xc4ceb9fe1a85ec53L;
+		x ^= x >>> 33;
+		return x;
+	}
+}
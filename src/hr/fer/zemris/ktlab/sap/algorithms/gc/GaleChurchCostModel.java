@@ -0,0 +1,156 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+/**
+ * The distance measure of Gale and Church with its parameters given per
+ * instance, so different language pairs can be aligned with different
+ * parameters in the same process. The distances are computed exactly like in
+ * <code>ProbabilityComputation</code>; <code>DEFAULT</code> holds the
+ * parameters used there and gives the same distances.
+ * <p>
+ * The class is final and all its fields are final, so the compiler can inline
+ * the distance measure into the dynamic programming loop. The
+ * {@link #compile()} method returns an equivalent model that looks the
+ * distances up in a precomputed <code>CostTable</code>.
+ */
+public final class GaleChurchCostModel implements CostModel {
+
+	/** The parameters of the original article, used by <code>ProbabilityComputation</code>. */
+	public static final GaleChurchCostModel DEFAULT = new GaleChurchCostModel(1, 6.8, 450, 230, 440, 2500);
+
+	/** The expected number of characters in the translation per character in the source language. */
+	private final double c;
+
+	/** The variance of the number of characters in the translation per character in the source language. */
+	private final double sSquared;
+
+	/** -100 * log( prob of 0-1 match / prob of 1-1 match ) */
+	private final int penalty01;
+
+	/** -100 * log( prob of 2-1 match / prob of 1-1 match ) */
+	private final int penalty21;
+
+	/** -100 * log( prob of 2-2 match / prob of 1-1 match ) */
+	private final int penalty22;
+
+	/** The distance used when the probability of a match is too small to be represented. */
+	private final int bigDistance;
+
+	/**
+	 * The public constructor for the GaleChurchCostModel class.
+	 * @param c
+	 * 		The expected number of characters in the translation per character in the source language.
+	 * @param sSquared
+	 * 		The variance of the number of characters in the translation per character in the source
+	 * 		language.
+	 * @param penalty01
+	 * 		The penalty of 0-1 and 1-0 alignments.
+	 * @param penalty21
+	 * 		The penalty of 2-1 and 1-2 alignments.
+	 * @param penalty22
+	 * 		The penalty of 2-2 alignments.
+	 * @param bigDistance
+	 * 		The distance used when the probability of a match is too small to be represented.
+	 */
+	public GaleChurchCostModel(double c, double sSquared, int penalty01, int penalty21, int penalty22,
+			int bigDistance) {
+		super();
+		if (!(c > 0)) {
+			throw new IllegalArgumentException("The parameter c must be positive, was " + c);
+		}
+		if (!(sSquared > 0)) {
+			throw new IllegalArgumentException("The variance must be positive, was " + sSquared);
+		}
+		if (penalty01 < 0 || penalty21 < 0 || penalty22 < 0 || bigDistance < 0) {
+			throw new IllegalArgumentException("Penalties and the big distance must not be negative");
+		}
+		this.c = c;
+		this.sSquared = sSquared;
+		this.penalty01 = penalty01;
+		this.penalty21 = penalty21;
+		this.penalty22 = penalty22;
+		this.bigDistance = bigDistance;
+	}
+
+	/** Returns the expected number of characters in the translation per character in the source language. */
+	public double getC() {
+		return c;
+	}
+
+	/** Returns the variance of the number of characters in the translation per character in the source language. */
+	public double getSSquared() {
+		return sSquared;
+	}
+
+	/** Returns the distance used when the probability of a match is too small to be represented. */
+	public int getBigDistance() {
+		return bigDistance;
+	}
+
+	/**
+	 * Returns an equivalent model that looks the distances up in a precomputed table instead of
+	 * evaluating the normal distribution. The table is built here, so the returned model should be
+	 * kept and reused.
+	 */
+	public CostModel compile() {
+		return new TabulatedCostModel(this, new CostTable(bigDistance));
+	}
+
+	/** The parameter delta as defined in the article by Gale and Church. */
+	double delta(int length1, int length2) {
+		double mean = ( (double)length1 + (double)length2/c )/2;
+		return (  (double)length2 - (double)length1 * c)
+				 /(Math.sqrt( mean*sSquared));
+	}
+
+	public int distance(int length1, int length2) {
+		if ( (length1==0)&&(length2==0) ) return 0;
+		double delta = delta(length1, length2);
+		if (delta < 0) delta = -delta;
+		double p_delta_match = ProbabilityComputation.matchProbability(delta);
+		if ( p_delta_match>0 ) return ( (int)(-100 * Math.log(p_delta_match)) );
+		else return bigDistance;
+	}
+
+	public void distances(int length1, int[] lengths2, int[] distances, int from, int to, int penalty) {
+		// The terms of delta that depend only on the source segment.
+		double source = (double)length1;
+		double sourceTimesC = (double)length1 * c;
+
+		for (int k=from; k<to; ++k) {
+			int length2 = lengths2[k];
+			if ( (length1==0)&&(length2==0) ) {
+				distances[k] = penalty;
+				continue;
+			}
+			double mean = ( source + (double)length2/c )/2;
+			double delta = ( (double)length2 - sourceTimesC )/(Math.sqrt( mean*sSquared));
+			if (delta < 0) delta = -delta;
+			double p_delta_match = ProbabilityComputation.matchProbability(delta);
+			distances[k] = ( p_delta_match>0 ? (int)(-100 * Math.log(p_delta_match)) : bigDistance ) + penalty;
+		}
+	}
+
+	public int getSubstitutionPenalty() {
+		return 0;
+	}
+
+	public int getDeletionPenalty() {
+		return penalty01;
+	}
+
+	public int getInsertionPenalty() {
+		return penalty01;
+	}
+
+	public int getContractionPenalty() {
+		return penalty21;
+	}
+
+	public int getExpansionPenalty() {
+		return penalty21;
+	}
+
+	public int getMergerPenalty() {
+		return penalty22;
+	}
+}
@@ -0,0 +1,417 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.LinkedList;
+import java.util.List;
+import hr.fer.zemris.ktlab.sap.algorithms.gc.Alignment;
+
+/**
+ * Runs the Gale and Church dynamic programming over two sequences of segment
+ * lengths. The class knows nothing about the <code>DataModel</code>: the
+ * <code>x1</code>, <code>x2</code>, <code>y1</code> and <code>y2</code> fields
+ * of the returned <code>Alignment</code> objects hold positions in the given
+ * length arrays (or -1), which the caller maps to element keys.
+ * <p>
+ * The search can be restricted to a <code>Corridor</code>: for every row of
+ * the dynamic programming array only the columns inside the corridor are
+ * evaluated, and only those cells are stored.
+ */
+public class LengthAligner {
+
+	/** Cost of a cell that can't be reached (lies outside of the corridor). */
+	private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	/** Move codes stored for each cell of the dynamic programming array. */
+	private static final byte NONE = 0;
+	private static final byte SUBSTITUTION = 1;
+	private static final byte DELETION = 2;
+	private static final byte INSERTION = 3;
+	private static final byte CONTRACTION = 4;
+	private static final byte EXPANSION = 5;
+	private static final byte MERGER = 6;
+
+	/** The distance measure. */
+	private CostModel costModel = GaleChurchCostModel.DEFAULT;
+
+	/** The buffers reused between alignments, or <code>null</code> to allocate new ones for each alignment. */
+	private AlignerWorkspace workspace;
+
+	/** The time (as by <code>System.currentTimeMillis()</code>) the alignment must end by, or 0 if there is none. */
+	private long deadline;
+
+	/**
+	 * The public constructor for the LengthAligner class.
+	 */
+	public LengthAligner() {
+		super();
+	}
+
+	/**
+	 * Sets the distance measure used by the dynamic programming.
+	 * @param costModel
+	 * 		The distance measure, <code>GaleChurchCostModel.DEFAULT</code> by default.
+	 */
+	public void setCostModel(CostModel costModel) {
+		if (costModel == null) {
+			throw new IllegalArgumentException("Cost model must not be null");
+		}
+		this.costModel = costModel;
+	}
+
+	/** Returns the distance measure used by the dynamic programming. */
+	public CostModel getCostModel() {
+		return costModel;
+	}
+
+	/**
+	 * Sets whether the distances are looked up in a precomputed table (see <code>CostTable</code>)
+	 * instead of evaluating the normal distribution for every cell. Switches between a
+	 * <code>GaleChurchCostModel</code> and its compiled version; the alignments are the same.
+	 * @param tabulatedCosts
+	 * 		<code>true</code> to use the table, <code>false</code> to compute the distances (the default).
+	 * @throws IllegalStateException
+	 * 		if the cost model is neither a <code>GaleChurchCostModel</code> nor a compiled one.
+	 */
+	public void setTabulatedCosts(boolean tabulatedCosts) {
+		if (tabulatedCosts == isTabulatedCosts()) return;
+		if (tabulatedCosts && costModel instanceof GaleChurchCostModel) {
+			costModel = ((GaleChurchCostModel)costModel).compile();
+		} else if (!tabulatedCosts) {
+			costModel = ((TabulatedCostModel)costModel).getParameters();
+		} else {
+			throw new IllegalStateException("Cost model " + costModel.getClass().getName() + " can not be tabulated");
+		}
+	}
+
+	/** Returns <code>true</code> if the distances are looked up in a <code>CostTable</code>. */
+	public boolean isTabulatedCosts() {
+		return costModel instanceof TabulatedCostModel;
+	}
+
+	/**
+	 * Sets the buffers the dynamic programming borrows instead of allocating new arrays for each
+	 * alignment. The aligner must then be used only by the thread the workspace belongs to.
+	 * @param workspace
+	 * 		The workspace, or <code>null</code> to allocate new arrays for each alignment (the default).
+	 */
+	public void setWorkspace(AlignerWorkspace workspace) {
+		this.workspace = workspace;
+	}
+
+	/** Returns the buffers reused between alignments, or <code>null</code> if there are none. */
+	public AlignerWorkspace getWorkspace() {
+		return workspace;
+	}
+
+	/**
+	 * Sets the time the dynamic programming must end by. If it passes while the array is being
+	 * filled, a <code>DeadlineExceededException</code> is thrown.
+	 * @param deadline
+	 * 		The time as by <code>System.currentTimeMillis()</code>, or 0 for no deadline (the default).
+	 */
+	void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Aligns the segments <code>from1</code> (inclusive) to <code>to1</code> (exclusive) of the
+	 * source language with the segments <code>from2</code> to <code>to2</code> of the destination
+	 * language.
+	 * @param lengths1
+	 * 		Lengths of the segments in the source language.
+	 * @param from1
+	 * 		Position of the first source segment to align.
+	 * @param to1
+	 * 		Position after the last source segment to align.
+	 * @param lengths2
+	 * 		Lengths of the segments in the destination language.
+	 * @param from2
+	 * 		Position of the first destination segment to align.
+	 * @param to2
+	 * 		Position after the last destination segment to align.
+	 * @return
+	 * 		The cheapest sequence of alignments (beads), from the first to the last one.
+	 */
+	public List<Alignment> align(int[] lengths1, int from1, int to1, int[] lengths2, int from2, int to2) {
+		return align(lengths1, from1, to1, lengths2, from2, to2, Corridor.full(to1 - from1, to2 - from2));
+	}
+
+	/**
+	 * Aligns the segments like {@link #align(int[], int, int, int[], int, int)}, but evaluates
+	 * only the cells inside the given corridor.
+	 * @param corridor
+	 * 		The cells to evaluate, for rows 0 to <code>to1-from1</code>.
+	 * @return
+	 * 		The cheapest sequence of alignments inside the corridor, or <code>null</code> if the
+	 * 		corridor doesn't connect the first and the last cell of the array.
+	 */
+	public List<Alignment> align(int[] lengths1, int from1, int to1, int[] lengths2, int from2, int to2,
+			Corridor corridor) {
+		int size1 = to1 - from1;
+		int size2 = to2 - from2;
+		if (!corridor.contains(0, 0) || !corridor.contains(size1, size2)) return null;
+
+		List<Alignment> trivialPath = trivialPath(lengths1, from1, to1, lengths2, from2, to2, corridor);
+		if (trivialPath != null) return trivialPath;
+
+		if (this.workspace == null) {
+			return align(lengths1, from1, lengths2, from2, size1, size2, corridor, new AlignerWorkspace());
+		}
+		try {
+			return align(lengths1, from1, lengths2, from2, size1, size2, corridor, workspace);
+		} finally {
+			workspace.trim();
+		}
+	}
+
+	/** Runs the dynamic programming inside the corridor with the buffers of the given workspace. */
+	private List<Alignment> align(int[] lengths1, int from1, int[] lengths2, int from2, int size1, int size2,
+			Corridor corridor, AlignerWorkspace workspace) {
+		int[] corridorStart = workspace.buffer(AlignerWorkspace.CORRIDOR_START, size1+1);
+		int[] corridorEnd = workspace.buffer(AlignerWorkspace.CORRIDOR_END, size1+1);
+		for (int i=0; i<=size1; ++i) {
+			corridorStart[i] = Math.min(corridor.getStart(i), size2+1);
+			corridorEnd[i] = corridor.getEnd(i);
+		}
+
+		// Destination lengths indexed by the column of the array: single2[j] is the length of the
+		// segment ending at column j, pair2[j] the length of the two segments ending there.
+		int[] single2 = workspace.buffer(AlignerWorkspace.SINGLE2, size2+1);
+		int[] pair2 = workspace.buffer(AlignerWorkspace.PAIR2, size2+1);
+		for (int j=1; j<=size2; ++j) {
+			single2[j] = lengths2[from2+j-1];
+			if (j>1) pair2[j] = single2[j-1] + single2[j];
+		}
+		
+		// Costs of the moves into the cells of the current row, computed a whole row at a time.
+		int[] insertion = workspace.buffer(AlignerWorkspace.INSERTION, size2+1);
+		int[] substitution = workspace.buffer(AlignerWorkspace.SUBSTITUTION, size2+1);
+		int[] contraction = workspace.buffer(AlignerWorkspace.CONTRACTION, size2+1);
+		int[] expansion = workspace.buffer(AlignerWorkspace.EXPANSION, size2+1);
+		int[] merger = workspace.buffer(AlignerWorkspace.MERGER, size2+1);
+		CostModel costModel = this.costModel;
+		costModel.distances(0, single2, insertion, 1, size2+1, 0);
+
+		int[][] cost = workspace.costRows(size1+1);
+		byte[][] move = workspace.moveRows(size1+1);
+
+		for (int i=0; i<=size1; ++i) {
+			if (deadline != 0 && (i & 15) == 0 && System.currentTimeMillis() > deadline) {
+				throw new DeadlineExceededException();
+			}
+			int start = corridorStart[i];
+			int end = corridorEnd[i];
+			workspace.costRow(i, end - start + 1);
+			workspace.moveRow(i, end - start + 1);
+
+			int deletion = 0;
+			if (i>0) {
+				int single1 = lengths1[from1+i-1];
+				deletion = costModel.distance(single1, 0);
+				costModel.distances(single1, single2, substitution, Math.max(start, 1), end+1, 0);
+				costModel.distances(single1, pair2, expansion, Math.max(start, 2), end+1, 0);
+				if (i>1) {
+					int pair1 = lengths1[from1+i-2] + single1;
+					costModel.distances(pair1, single2, contraction, Math.max(start, 1), end+1, 0);
+					costModel.distances(pair1, pair2, merger, Math.max(start, 2), end+1, 0);
+				}
+			}
+			fillRow(cost, move, corridorStart, corridorEnd, i, deletion, substitution, insertion, contraction,
+					expansion, merger, costModel);
+		}
+
+		if (cost(cost, corridorStart, corridorEnd, size1, size2) == UNREACHABLE) return null;
+		return traceBack(cost, move, corridorStart, from1, from2, size1, size2);
+	}
+
+	/**
+	 * Fills row <code>i</code> of the dynamic programming array inside the corridor. The arrays hold
+	 * the distances of the moves into the cells of the row, indexed by the column; the penalties of
+	 * the moves are added to them. Rows <code>i-1</code> and <code>i-2</code> must be filled.
+	 * @param penalties
+	 * 		The model the penalties of the moves are taken from.
+	 */
+	static void fillRow(int[][] cost, byte[][] move, int[] corridorStart, int[] corridorEnd, int i,
+			int deletion, int[] substitution, int[] insertion, int[] contraction, int[] expansion, int[] merger,
+			CostModel penalties) {
+		int penalty11 = penalties.getSubstitutionPenalty();
+		int penalty10 = penalties.getDeletionPenalty();
+		int penalty01 = penalties.getInsertionPenalty();
+		int penalty21 = penalties.getContractionPenalty();
+		int penalty12 = penalties.getExpansionPenalty();
+		int penalty22 = penalties.getMergerPenalty();
+		int start = corridorStart[i];
+		int end = corridorEnd[i];
+		for (int j=start; j<=end; ++j) {
+			int previous;
+
+			// Finding costs (distances) for all currently possible alignments
+			int D1 = UNREACHABLE;     // 1-1 alignment (substitution)
+			if (i>0 && j>0 && (previous = cost(cost, corridorStart, corridorEnd, i-1, j-1)) != UNREACHABLE) {
+				D1 = previous + substitution[j] + penalty11;
+			}
+			int D2 = UNREACHABLE;     // 1-0 alignment (deletion)
+			if (i>0 && (previous = cost(cost, corridorStart, corridorEnd, i-1, j)) != UNREACHABLE) {
+				D2 = previous + deletion + penalty10;
+			}
+			int D3 = UNREACHABLE;     // 0-1 alignment (insertion)
+			if (j>0 && (previous = cost(cost, corridorStart, corridorEnd, i, j-1)) != UNREACHABLE) {
+				D3 = previous + insertion[j] + penalty01;
+			}
+			int D4 = UNREACHABLE;     // 2-1 alignment (contraction)
+			if (i>1 && j>0 && (previous = cost(cost, corridorStart, corridorEnd, i-2, j-1)) != UNREACHABLE) {
+				D4 = previous + contraction[j] + penalty21;
+			}
+			int D5 = UNREACHABLE;     // 1-2 alignment (expansion)
+			if (i>0 && j>1 && (previous = cost(cost, corridorStart, corridorEnd, i-1, j-2)) != UNREACHABLE) {
+				D5 = previous + expansion[j] + penalty12;
+			}
+			int D6 = UNREACHABLE;     // 2-2 alignment (merger)
+			if (i>1 && j>1 && (previous = cost(cost, corridorStart, corridorEnd, i-2, j-2)) != UNREACHABLE) {
+				D6 = previous + merger[j] + penalty22;
+			}
+
+			// Finding the smallest cost (distance). On ties the earlier move wins.
+			int Dmin = D1;
+			byte best = SUBSTITUTION;
+			if (D2<Dmin) { Dmin = D2; best = DELETION; }
+			if (D3<Dmin) { Dmin = D3; best = INSERTION; }
+			if (D4<Dmin) { Dmin = D4; best = CONTRACTION; }
+			if (D5<Dmin) { Dmin = D5; best = EXPANSION; }
+			if (D6<Dmin) { Dmin = D6; best = MERGER; }
+
+			if (Dmin == UNREACHABLE) {
+				// Only the [0][0] cell starts a path; other cells without a predecessor stay unreachable.
+				cost[i][j-start] = (i==0 && j==0) ? 0 : UNREACHABLE;
+				move[i][j-start] = NONE;
+			} else {
+				cost[i][j-start] = Dmin;
+				move[i][j-start] = best;
+			}
+		}
+	}
+
+	/**
+	 * Recognizes the problems whose cheapest path is known without the dynamic programming and
+	 * returns that path, or <code>null</code> if the problem isn't one of them:
+	 * <ul>
+	 * <li>If one of the languages has no segments, the only path deletes or inserts all segments of
+	 * the other one.</li>
+	 * <li>If both languages have the same number of segments, the path of 1-1 alignments is the
+	 * cheapest one if its cost is lower than the cheapest possible other path. Every other path
+	 * contains a 2-2 alignment, or both an alignment with more source segments (1-0, 2-1) and one
+	 * with more destination segments (0-1, 1-2), and the distances of the other alignments are not
+	 * negative, so the penalties of those alignments are a lower bound of its cost. As the 1-1 path
+	 * is then the only cheapest one, the dynamic programming would find it too.</li>
+	 * </ul>
+	 * The path is only returned if all of its cells lie inside the corridor.
+	 */
+	private List<Alignment> trivialPath(int[] lengths1, int from1, int to1, int[] lengths2, int from2, int to2,
+			Corridor corridor) {
+		int size1 = to1 - from1;
+		int size2 = to2 - from2;
+		LinkedList<Alignment> path = new LinkedList<Alignment>();
+		int cost = 0;
+
+		if (size1 == 0 || size2 == 0) {
+			for (int k=1; k<=size1+size2; ++k) {
+				if (!corridor.contains((size1 == 0) ? 0 : k, (size1 == 0) ? k : 0)) return null;
+			}
+			for (int k=0; k<size1+size2; ++k) {
+				Alignment bead = new Alignment();
+				if (size1 == 0) {
+					bead.type = 01;
+					bead.y1 = from2+k;
+					cost += costModel.distance(0, lengths2[from2+k]) + costModel.getInsertionPenalty();
+				} else {
+					bead.type = 10;
+					bead.x1 = from1+k;
+					cost += costModel.distance(lengths1[from1+k], 0) + costModel.getDeletionPenalty();
+				}
+				bead.cost = cost;
+				if (!path.isEmpty()) bead.cheapestPredecessor = path.getLast();
+				path.addLast(bead);
+			}
+			return path;
+		}
+
+		if (size1 != size2) return null;
+		int bound = Math.min(costModel.getMergerPenalty(),
+				Math.min(costModel.getDeletionPenalty(), costModel.getContractionPenalty())
+				+ Math.min(costModel.getInsertionPenalty(), costModel.getExpansionPenalty()));
+		for (int k=0; k<size1; ++k) {
+			if (!corridor.contains(k+1, k+1)) return null;
+			cost += costModel.distance(lengths1[from1+k], lengths2[from2+k]) + costModel.getSubstitutionPenalty();
+			if (cost >= bound) return null;
+			Alignment bead = new Alignment();
+			bead.type = 11;
+			bead.x1 = from1+k;
+			bead.y1 = from2+k;
+			bead.cost = cost;
+			if (!path.isEmpty()) bead.cheapestPredecessor = path.getLast();
+			path.addLast(bead);
+		}
+		return path;
+	}
+
+	/** Returns the cost of the cell [i][j], or <code>UNREACHABLE</code> if it lies outside of the corridor. */
+	private static int cost(int[][] cost, int[] corridorStart, int[] corridorEnd, int i, int j) {
+		if (j < corridorStart[i] || j > corridorEnd[i]) return UNREACHABLE;
+		return cost[i][j - corridorStart[i]];
+	}
+
+	/** Walks the cheapest path back from the last cell of the array and returns it from the first bead on. */
+	static List<Alignment> traceBack(int[][] cost, byte[][] move, int[] corridorStart,
+			int from1, int from2, int i, int j) {
+		LinkedList<Alignment> path = new LinkedList<Alignment>();
+		while (true) {
+			int column = j - corridorStart[i];
+			byte m = move[i][column];
+			if (m == NONE) break;
+
+			Alignment bead = new Alignment();
+			bead.cost = cost[i][column];
+			switch (m) {
+				case SUBSTITUTION :
+					bead.type = 11;
+					bead.x1 = from1+i-1;
+					bead.y1 = from2+j-1;
+					i -= 1; j -= 1;
+					break;
+				case DELETION :
+					bead.type = 10;
+					bead.x1 = from1+i-1;
+					i -= 1;
+					break;
+				case INSERTION :
+					bead.type = 01;
+					bead.y1 = from2+j-1;
+					j -= 1;
+					break;
+				case CONTRACTION :
+					bead.type = 21;
+					bead.x1 = from1+i-2;
+					bead.x2 = from1+i-1;
+					bead.y1 = from2+j-1;
+					i -= 2; j -= 1;
+					break;
+				case EXPANSION :
+					bead.type = 12;
+					bead.x1 = from1+i-1;
+					bead.y1 = from2+j-2;
+					bead.y2 = from2+j-1;
+					i -= 1; j -= 2;
+					break;
+				default : // MERGER
+					bead.type = 22;
+					bead.x1 = from1+i-2;
+					bead.x2 = from1+i-1;
+					bead.y1 = from2+j-2;
+					bead.y2 = from2+j-1;
+					i -= 2; j -= 2;
+			}
+			if (!path.isEmpty()) path.getFirst().cheapestPredecessor = bead;
+			path.addFirst(bead);
+		}
+		return path;
+	}
+}
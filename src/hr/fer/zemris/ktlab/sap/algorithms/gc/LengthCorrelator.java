@@ -0,0 +1,382 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+/**
+ * Estimates where the cheapest alignment path runs before the dynamic
+ * programming is started, so that only a band around it has to be searched.
+ * <p>
+ * Both texts are turned into signals over their character positions: a
+ * signal is raised at every position where one segment ends and the next one
+ * starts. Gale and Church's model expects a translation to keep the positions
+ * of those boundaries (the expected number of translated characters per source
+ * character is 1), so the cross-correlation of both signals, computed with the
+ * fast Fourier transform, peaks at the number of characters by which the
+ * destination text is shifted against the source text, for example because of
+ * front matter present in only one language. Working with character positions
+ * rather than segment numbers keeps the peak sharp when sentences are split or
+ * merged in the translation.
+ * <p>
+ * The corridor of a banded alignment follows the local skew instead: the
+ * offset is estimated separately for consecutive windows of the source text,
+ * each only searched near the offset of its neighbour, so its correlation is
+ * computed directly for those few lags, over the bins of the window, in time
+ * linear in the length of the texts. A single offset of the whole texts is too
+ * noisy to start from, because the small differences of the translated lengths
+ * add up along the texts; the windows are therefore followed twice, once
+ * forward from the first cell of the array, where the texts start together,
+ * and once backward from the last cell, where they end together. Both
+ * sequences of window offsets are mapped back to segment numbers and form two
+ * guide lines from the first to the last cell of the dynamic programming
+ * array. The corridor spans the rows of both lines and a band around them:
+ * where the texts are shifted, e.g. by front matter in one language, the
+ * cheapest path runs between the line of the texts starting together and the
+ * line of the texts ending together, or a little beyond, as it takes in the
+ * untranslated segments a few at a time; the corridor extends further beyond
+ * the lines the more they disagree.
+ */
+public class LengthCorrelator {
+
+	/** The default number of source segments in a window with its own offset. */
+	public static final int DEFAULT_WINDOW_SIZE = 64;
+
+	/** The default number of rows and columns the band extends on each side of the estimated path. */
+	public static final int DEFAULT_RADIUS = 32;
+
+	/** The number of bins the average segment length is divided into. */
+	private static final int BINS_PER_SEGMENT = 4;
+
+	/** The number of source segments in a window with its own offset. */
+	private int windowSize;
+
+	/** The time (as by <code>System.currentTimeMillis()</code>) the estimate must end by, or 0 if there is none. */
+	private long deadline;
+
+	/**
+	 * The public constructor for the LengthCorrelator class.
+	 * @param windowSize
+	 * 		The number of source segments in a window with its own offset (at least 2).
+	 */
+	public LengthCorrelator(int windowSize) {
+		super();
+		if (windowSize < 2) {
+			throw new IllegalArgumentException("Window size must be at least 2, was " + windowSize);
+		}
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Sets the time the corridor must be estimated by. If it passes before the estimate of the
+	 * offset of a window, a <code>DeadlineExceededException</code> is thrown.
+	 * @param deadline
+	 * 		The time as by <code>System.currentTimeMillis()</code>, or 0 for no deadline (the default).
+	 */
+	void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Estimates the offset of the destination text against the source text in characters: the
+	 * character <code>p</code> of the source text most likely corresponds to the character
+	 * <code>p + offset</code> of the destination text. The arguments are the same as in
+	 * {@link LengthAligner#align(int[], int, int, int[], int, int)}.
+	 */
+	public int estimateOffset(int[] lengths1, int from1, int to1, int[] lengths2, int from2, int to2) {
+		int[] positions1 = positions(lengths1, from1, to1);
+		int[] positions2 = positions(lengths2, from2, to2);
+		int bin = binSize(positions1, positions2);
+		double[] signal1 = signal(positions1, 0, positions1.length, bin);
+		double[] signal2 = signal(positions2, 0, positions2.length, bin);
+		return bin * bestLag(signal1, signal2, -signal1.length, signal2.length);
+	}
+
+	/**
+	 * Returns a corridor of the given radius around the estimated path. The arguments are the same
+	 * as in {@link LengthAligner#align(int[], int, int, int[], int, int)}.
+	 * @param radius
+	 * 		The number of rows and columns the corridor extends on each side of the estimated path.
+	 */
+	public Corridor corridor(int[] lengths1, int from1, int to1, int[] lengths2, int from2, int to2, int radius) {
+		int size1 = to1 - from1;
+		int size2 = to2 - from2;
+		Corridor corridor = new Corridor(size1, size2);
+		if (size1 == 0 || size2 == 0) {
+			corridor.includeLine(0, 0, size1, size2);
+			corridor.widen(radius);
+			return corridor;
+		}
+
+		int[] positions1 = positions(lengths1, from1, to1);
+		int[] positions2 = positions(lengths2, from2, to2);
+		int bin = binSize(positions1, positions2);
+		double[] signal2 = signal(positions2, 0, positions2.length, bin);
+
+		// Offsets of the windows, searched for within an eighth of a window of the offset of the
+		// previous window: forward from the start of both texts and backward from their end.
+		int windows = Math.max(size1 / windowSize, 1);
+		int reach = windowSize * BINS_PER_SEGMENT / 8 + 1;
+		int[] rows = new int[windows];
+		for (int w=0; w<windows; ++w) {
+			rows[w] = (w * size1 / windows + (w+1) * size1 / windows) / 2;
+		}
+		int[] forward = new int[windows];
+		int lag = 0;
+		for (int w=0; w<windows; ++w) {
+			checkDeadline();
+			lag = windowLag(positions1, w * size1 / windows, (w+1) * size1 / windows + 1, bin, signal2, lag - reach, lag + reach);
+			forward[w] = segmentAt(positions2, positions1[rows[w]] + lag * bin);
+			if (w > 0) forward[w] = Math.max(forward[w], forward[w-1]); // The path never goes back.
+		}
+		int[] backward = new int[windows];
+		lag = (positions2[size2] - positions1[size1]) / bin;
+		for (int w=windows-1; w>=0; --w) {
+			checkDeadline();
+			lag = windowLag(positions1, w * size1 / windows, (w+1) * size1 / windows + 1, bin, signal2, lag - reach, lag + reach);
+			backward[w] = segmentAt(positions2, positions1[rows[w]] + lag * bin);
+			if (w < windows-1) backward[w] = Math.min(backward[w], backward[w+1]);
+		}
+
+		// Where the lines disagree, the cheapest path may also run a little outside of both of
+		// them, so the corridor extends beyond them by a quarter of their distance.
+		int[] low = new int[windows];
+		int[] high = new int[windows];
+		for (int w=0; w<windows; ++w) {
+			int margin = Math.abs(forward[w] - backward[w]) / 4;
+			low[w] = Math.max(Math.min(forward[w], backward[w]) - margin, 0);
+			high[w] = Math.min(Math.max(forward[w], backward[w]) + margin, size2);
+			if (w > 0) {
+				low[w] = Math.max(low[w], low[w-1]);
+				high[w] = Math.max(high[w], high[w-1]);
+			}
+		}
+		includeGuide(corridor, rows, low);
+		includeGuide(corridor, rows, high);
+
+		corridor.widen(radius);
+		return corridor;
+	}
+
+	/**
+	 * Adds the guide line through the given cells of the windows to the corridor: to the first
+	 * window along its offset, through the windows and along the offset of the last window to the
+	 * end of the array.
+	 */
+	private static void includeGuide(Corridor corridor, int[] rows, int[] columns) {
+		int size1 = corridor.getSize1();
+		int size2 = corridor.getSize2();
+		int windows = rows.length;
+		int firstLag = columns[0] - rows[0];
+		int entryRow = Math.min(Math.max(-firstLag, 0), rows[0]);
+		int entryColumn = Math.min(Math.max(firstLag, 0), columns[0]);
+		corridor.includeLine(0, 0, 0, entryColumn);
+		corridor.includeLine(0, 0, entryRow, 0);
+		corridor.includeLine(entryRow, entryColumn, rows[0], columns[0]);
+		for (int w=1; w<windows; ++w) {
+			corridor.includeLine(rows[w-1], columns[w-1], rows[w], columns[w]);
+		}
+		int lastRow = rows[windows-1];
+		int lastColumn = columns[windows-1];
+		int lastLag = lastColumn - lastRow;
+		int exitRow = Math.max(Math.min(size1, size2 - lastLag), lastRow);
+		int exitColumn = Math.max(Math.min(size2, size1 + lastLag), lastColumn);
+		corridor.includeLine(lastRow, lastColumn, exitRow, exitColumn);
+		corridor.includeLine(exitRow, exitColumn, size1, exitColumn);
+		corridor.include(size1, exitColumn, size2);
+	}
+
+	/** Throws a <code>DeadlineExceededException</code> if the deadline has passed. */
+	private void checkDeadline() {
+		if (deadline != 0 && System.currentTimeMillis() > deadline) {
+			throw new DeadlineExceededException();
+		}
+	}
+
+	/** Returns the character positions at which the segments start, followed by the total length. */
+	private static int[] positions(int[] lengths, int from, int to) {
+		int[] positions = new int[to - from + 1];
+		for (int i=from; i<to; ++i) {
+			positions[i-from+1] = positions[i-from] + lengths[i];
+		}
+		return positions;
+	}
+
+	/** Returns the number of characters in one bin of the boundary signals. */
+	private static int binSize(int[] positions1, int[] positions2) {
+		long characters = (long)positions1[positions1.length-1] + positions2[positions2.length-1];
+		long segments = positions1.length + positions2.length - 2;
+		return (int)Math.max(1, characters / Math.max(segments, 1) / BINS_PER_SEGMENT);
+	}
+
+	/**
+	 * Returns the boundary signal of the segments from <code>from</code> to <code>to</code>
+	 * (positions in the array returned by <code>positions</code>). Each boundary is spread over
+	 * three neighbouring bins, which tolerates small differences in the translated lengths.
+	 */
+	private static double[] signal(int[] positions, int from, int to, int bin) {
+		double[] signal = new double[positions[positions.length-1] / bin + 2];
+		for (int i=from; i<to; ++i) {
+			int k = positions[i] / bin;
+			signal[k] += 1;
+			if (k > 0) signal[k-1] += 0.5;
+			signal[k+1] += 0.5;
+		}
+		return signal;
+	}
+
+	/**
+	 * Returns the lag (between <code>minLag</code> and <code>maxLag</code>) at which the
+	 * cross-correlation of the boundary signal of the segments from <code>from</code> to
+	 * <code>to</code> with <code>signal2</code> is the largest, like
+	 * <code>bestLag(signal(positions, from, to, bin), signal2, minLag, maxLag)</code>. The signal
+	 * of the window is only built over its own bins and correlated directly at each lag, which
+	 * takes time proportional to the bins of the window times the number of lags instead of a
+	 * transform of the whole text.
+	 */
+	private static int windowLag(int[] positions, int from, int to, int bin, double[] signal2, int minLag, int maxLag) {
+		int size1 = positions[positions.length-1] / bin + 2;
+		int size2 = signal2.length;
+		int first = Math.max(minLag, -(size1 - 1));
+		int last = Math.min(maxLag, size2 - 1);
+		if (first > last) return Math.max(minLag, Math.min(maxLag, 0));
+
+		// The bins of the window, from firstBin on.
+		int firstBin = Math.max(positions[from] / bin - 1, 0);
+		double[] window = new double[positions[to-1] / bin + 2 - firstBin];
+		for (int i=from; i<to; ++i) {
+			int k = positions[i] / bin - firstBin;
+			window[k] += 1;
+			if (k + firstBin > 0) window[k-1] += 0.5;
+			window[k+1] += 0.5;
+		}
+
+		double[] values = new double[last - first + 1];
+		for (int lag=first; lag<=last; ++lag) {
+			// Only the bins paired with a bin of signal2 count.
+			int low = Math.max(0, -(firstBin + lag));
+			int high = Math.min(window.length, size2 - firstBin - lag);
+			double value = 0;
+			for (int t=low; t<high; ++t) {
+				value += window[t] * signal2[firstBin + t + lag];
+			}
+			values[lag - first] = value;
+		}
+		return largest(values, first, minLag, maxLag);
+	}
+
+	/** Returns the number of the segment containing the given character position. */
+	private static int segmentAt(int[] positions, int position) {
+		int low = 0;
+		int high = positions.length - 1;
+		if (position <= 0) return 0;
+		if (position >= positions[high]) return high;
+		while (high - low > 1) {
+			int middle = (low + high) >>> 1;
+			if (positions[middle] <= position) low = middle;
+			else high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the lag (between <code>minLag</code> and <code>maxLag</code>) at which the
+	 * cross-correlation of the two signals is the largest. A lag of <code>k</code> pairs the value
+	 * <code>signal1[i]</code> with <code>signal2[i+k]</code>.
+	 */
+	private static int bestLag(double[] signal1, double[] signal2, int minLag, int maxLag) {
+		int size1 = signal1.length;
+		int size2 = signal2.length;
+
+		int n = 1;
+		while (n < size1 + size2) n <<= 1;
+		double[] re1 = new double[n];
+		double[] im1 = new double[n];
+		double[] re2 = new double[n];
+		double[] im2 = new double[n];
+		System.arraycopy(signal1, 0, re1, 0, size1);
+		System.arraycopy(signal2, 0, re2, 0, size2);
+
+		fft(re1, im1, false);
+		fft(re2, im2, false);
+		// conj(X) * Y is the transform of the cross-correlation
+		for (int k=0; k<n; ++k) {
+			double re = re1[k] * re2[k] + im1[k] * im2[k];
+			double im = re1[k] * im2[k] - im1[k] * re2[k];
+			re1[k] = re;
+			im1[k] = im;
+		}
+		fft(re1, im1, true);
+
+		int first = Math.max(minLag, -(size1 - 1));
+		int last = Math.min(maxLag, size2 - 1);
+		if (first > last) return Math.max(minLag, Math.min(maxLag, 0));
+		double[] values = new double[last - first + 1];
+		for (int lag=first; lag<=last; ++lag) {
+			values[lag - first] = re1[(lag + n) % n];
+		}
+		return largest(values, first, minLag, maxLag);
+	}
+
+	/**
+	 * Returns the lag with the largest correlation, <code>values[k]</code> being the correlation
+	 * at the lag <code>first + k</code>. On ties the lag closest to the middle of the range from
+	 * <code>minLag</code> to <code>maxLag</code> wins.
+	 */
+	private static int largest(double[] values, int first, int minLag, int maxLag) {
+		int middle = (minLag + maxLag) / 2;
+		int best = first;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for (int k=0; k<values.length; ++k) {
+			int lag = first + k;
+			double value = values[k];
+			if (value > bestValue + 1e-9 
+					|| (Math.abs(value - bestValue) <= 1e-9 && Math.abs(lag - middle) < Math.abs(best - middle))) {
+				bestValue = value;
+				best = lag;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * An in-place iterative radix-2 fast Fourier transform. The length of the arrays must be a
+	 * power of two. The inverse transform is scaled by <code>1/n</code>.
+	 */
+	private static void fft(double[] re, double[] im, boolean inverse) {
+		int n = re.length;
+		for (int i=1, j=0; i<n; ++i) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+			j ^= bit;
+			if (i < j) {
+				double t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+		for (int length=2; length<=n; length<<=1) {
+			double angle = 2 * Math.PI / length * (inverse ? 1 : -1);
+			double stepRe = Math.cos(angle);
+			double stepIm = Math.sin(angle);
+			for (int i=0; i<n; i+=length) {
+				double wRe = 1;
+				double wIm = 0;
+				for (int k=0; k<length/2; ++k) {
+					int a = i + k;
+					int b = i + k + length/2;
+					double bRe = re[b] * wRe - im[b] * wIm;
+					double bIm = re[b] * wIm + im[b] * wRe;
+					re[b] = re[a] - bRe;
+					im[b] = im[a] - bIm;
+					re[a] += bRe;
+					im[a] += bIm;
+					double t = wRe * stepRe - wIm * stepIm;
+					wIm = wRe * stepIm + wIm * stepRe;
+					wRe = t;
+				}
+			}
+		}
+		if (inverse) {
+			for (int i=0; i<n; ++i) {
+				re[i] /= n;
+				im[i] /= n;
+			}
+		}
+	}
+}
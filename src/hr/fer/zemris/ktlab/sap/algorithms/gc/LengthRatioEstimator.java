@@ -0,0 +1,233 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import hr.fer.zemris.ktlab.sap.util.DataModel;
+
+/**
+ * Estimates the parameters <code>c</code> and <code>sSquared</code> of the
+ * distance measure of Gale and Church from pairs of lengths of segments that
+ * are translations of each other. The model assumes that the length of the
+ * translation is normally distributed with the mean <code>c*l1</code> and the
+ * variance <code>sSquared*l1</code>, so the estimates are
+ * <pre>
+ *     c        = sum(l2) / sum(l1)
+ *     sSquared = sum( (l2 - c*l1)^2 / l1 ) / n
+ *              = ( sum(l2^2/l1) - 2*c*sum(l2) + c^2*sum(l1) ) / n
+ * </pre>
+ * Only the four sums and the number of pairs are kept, so the lengths are
+ * read once and never stored, and the sums of several estimators can be
+ * added up. That is how documents are processed in parallel by
+ * {@link #estimate(List, int)}.
+ * <p>
+ * The pairs come either from an existing alignment (each group of connected
+ * elements gives one pair) or, for documents that are not aligned yet, from
+ * the paragraphs of both languages taken in order.
+ */
+public class LengthRatioEstimator {
+
+	/** Number of pairs of lengths seen. */
+	private long n;
+
+	/** Sum of the source lengths. */
+	private double sumLength1;
+
+	/** Sum of the destination lengths. */
+	private double sumLength2;
+
+	/** Sum of the squared destination lengths divided by the source lengths. */
+	private double sumLength2SquaredOverLength1;
+
+	/**
+	 * The public constructor for the LengthRatioEstimator class. Creates an estimator that hasn't
+	 * seen any lengths yet.
+	 */
+	public LengthRatioEstimator() {
+		super();
+	}
+
+	/**
+	 * Adds a pair of lengths of segments that are translations of each other. Pairs with an empty
+	 * source segment carry no information about the ratio and are skipped.
+	 * @param length1
+	 * 		Number of characters in the segment in the source language.
+	 * @param length2
+	 * 		Number of characters in the translation.
+	 */
+	public void add(int length1, int length2) {
+		if (length1 <= 0 || length2 < 0) return;
+		++n;
+		sumLength1 += length1;
+		sumLength2 += length2;
+		sumLength2SquaredOverLength1 += (double)length2 * length2 / length1;
+	}
+
+	/**
+	 * Adds the lengths of the aligned segments of a <code>DataModel</code>: every group of elements
+	 * connected to each other gives one pair, the sum of the lengths of its elements in each
+	 * language. Elements without connections are skipped.
+	 */
+	public void addConnections(DataModel dm) {
+		Set<Integer> visited1 = new HashSet<Integer>();
+		Set<Integer> visited2 = new HashSet<Integer>();
+		List<Integer> group1 = new ArrayList<Integer>();
+		List<Integer> group2 = new ArrayList<Integer>();
+		for (Integer key : dm.getKeys1()) {
+			if (visited1.contains(key) || dm.getConnections(key).isEmpty()) continue;
+
+			// Collects the group of connected elements in both languages.
+			int length1 = 0;
+			int length2 = 0;
+			group1.clear();
+			group2.clear();
+			group1.add(key);
+			visited1.add(key);
+			int next1 = 0;
+			int next2 = 0;
+			while (next1 < group1.size() || next2 < group2.size()) {
+				if (next1 < group1.size()) {
+					int member = group1.get(next1++);
+					length1 += dm.getElement(member).length();
+					for (Integer connected : dm.getConnections(member)) {
+						if (visited2.add(connected)) group2.add(connected);
+					}
+				} else {
+					int member = group2.get(next2++);
+					length2 += dm.getElement(member).length();
+					for (Integer connected : dm.getConnections(member)) {
+						if (visited1.add(connected)) group1.add(connected);
+					}
+				}
+			}
+			add(length1, length2);
+		}
+	}
+
+	/**
+	 * Adds the lengths of the paragraphs of a <code>DataModel</code> that isn't aligned yet. The
+	 * paragraphs of both languages are paired in order, so the document is used only if both
+	 * languages have the same number of paragraphs.
+	 * @return
+	 * 		<code>true</code> if the paragraphs were added.
+	 */
+	public boolean addParagraphs(DataModel dm) {
+		List<Integer> lengths1 = paragraphLengths(dm, dm.getKeys1());
+		List<Integer> lengths2 = paragraphLengths(dm, dm.getKeys2());
+		if (lengths1.size() != lengths2.size()) return false;
+		for (int i=0; i<lengths1.size(); ++i) {
+			add(lengths1.get(i), lengths2.get(i));
+		}
+		return true;
+	}
+
+	/** Returns the lengths of the paragraphs in one language, in order. */
+	private static List<Integer> paragraphLengths(DataModel dm, List<Integer> keys) {
+		List<Integer> lengths = new ArrayList<Integer>();
+		int currentParagraph = 0;
+		int length = 0;
+		boolean first = true;
+		for (Integer key : keys) {
+			int paragraph = dm.getParagraphForElement(key);
+			if (!first && paragraph != currentParagraph) {
+				lengths.add(length);
+				length = 0;
+			}
+			currentParagraph = paragraph;
+			first = false;
+			length += dm.getElement(key).length();
+		}
+		if (!first) lengths.add(length);
+		return lengths;
+	}
+
+	/** Adds the sums of another estimator to the sums of this one. */
+	public void merge(LengthRatioEstimator other) {
+		n += other.n;
+		sumLength1 += other.sumLength1;
+		sumLength2 += other.sumLength2;
+		sumLength2SquaredOverLength1 += other.sumLength2SquaredOverLength1;
+	}
+
+	/** Returns the number of pairs of lengths seen. */
+	public long getCount() {
+		return n;
+	}
+
+	/** Returns the estimated expected number of characters in the translation per source character. */
+	public double getC() {
+		if (n == 0) {
+			throw new IllegalStateException("No lengths were added");
+		}
+		return sumLength2 / sumLength1;
+	}
+
+	/** Returns the estimated variance of the number of characters in the translation per source character. */
+	public double getSSquared() {
+		double c = getC();
+		double sSquared = (sumLength2SquaredOverLength1 - 2 * c * sumLength2 + c * c * sumLength1) / n;
+		return Math.max(sSquared, 0);
+	}
+
+	/**
+	 * Returns a cost model with the estimated <code>c</code> and <code>sSquared</code> and the
+	 * remaining parameters (penalties and the big distance) taken from the given model.
+	 * @throws IllegalStateException
+	 * 		If there are too few lengths to estimate a positive variance.
+	 */
+	public GaleChurchCostModel estimate(GaleChurchCostModel base) {
+		double sSquared = getSSquared();
+		if (n < 2 || !(sSquared > 0)) {
+			throw new IllegalStateException("Too few lengths to estimate the variance (" + n + " pairs)");
+		}
+		return new GaleChurchCostModel(getC(), sSquared, base.getDeletionPenalty(), base.getContractionPenalty(),
+				base.getMergerPenalty(), base.getBigDistance());
+	}
+
+	/**
+	 * Reads the lengths of several documents in parallel, one task per document, and returns the
+	 * merged estimator. The aligned segments of a document are used if it has any connections,
+	 * otherwise its paragraphs.
+	 * @param documents
+	 * 		The documents of one language pair.
+	 * @param threads
+	 * 		The number of threads reading the documents.
+	 */
+	public static LengthRatioEstimator estimate(List<DataModel> documents, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive, was " + threads);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<LengthRatioEstimator>> results = new ArrayList<Future<LengthRatioEstimator>>();
+			for (final DataModel dm : documents) {
+				results.add(executor.submit(new Callable<LengthRatioEstimator>() {
+					public LengthRatioEstimator call() {
+						LengthRatioEstimator estimator = new LengthRatioEstimator();
+						estimator.addConnections(dm);
+						if (estimator.getCount() == 0) estimator.addParagraphs(dm);
+						return estimator;
+					}
+				}));
+			}
+			LengthRatioEstimator total = new LengthRatioEstimator();
+			for (Future<LengthRatioEstimator> result : results) {
+				total.merge(result.get());
+			}
+			return total;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while estimating the parameters", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to read a document", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.ArrayList;
+import java.util.List;
+import hr.fer.zemris.ktlab.sap.util.DataModel;
+
+/**
+ * Estimates the heap needed to align a <code>DataModel</code> before the
+ * alignment is started, from its paragraph structure: the model itself needs
+ * memory per element, per character and per connection, and the alignment
+ * needs the copies of the keys and lengths, the connections it adds and the
+ * dynamic programming of its largest pair of paragraphs, which grows with
+ * the product of their sizes in the <code>FULL</code> mode.
+ * <p>
+ * The <i>i</i>-th paragraph of the source language is paired with the
+ * <i>i</i>-th one of the destination language, as in the sentence alignment
+ * without the paragraph alignment. Paragraphs joined by the paragraph
+ * alignment form larger pairs and may need more. The estimates are meant for
+ * admitting the work (see <code>AdmissionGate</code>), not for sizing the
+ * heap exactly.
+ */
+public class MemoryEstimator {
+
+	/**
+	 * The bytes of an element of a <code>DataModel</code> besides its text: the element, its key,
+	 * its entries in the map of elements and in the list of keys, and its empty set of connections.
+	 */
+	private static final long BYTES_PER_ELEMENT = 200;
+
+	/** The bytes of a character of the text of an element, with its string. */
+	private static final long BYTES_PER_CHARACTER = 2;
+
+	/**
+	 * The bytes of a connection of a <code>DataModel</code>: the entries in the sets of both
+	 * elements and the edit kept for the undo.
+	 */
+	private static final long BYTES_PER_CONNECTION = 160;
+
+	/** The bytes of an element copied by the <code>Aligner</code>: its key in the list and in the arrays of keys, and its length. */
+	private static final long BYTES_PER_ALIGNED_ELEMENT = 40;
+
+	private MemoryEstimator() {
+		super();
+	}
+
+	/**
+	 * Returns the estimated peak of the heap needed by the <code>DataModel</code> and its sentence
+	 * alignment in the given mode: the sum of {@link #estimateDataModel(DataModel)} and
+	 * {@link #estimateAlignment(DataModel, AlignmentMode)}.
+	 */
+	public static long estimate(DataModel dm, AlignmentMode mode) {
+		return estimateDataModel(dm) + estimateAlignment(dm, mode);
+	}
+
+	/** Returns the estimated number of bytes of the heap held by the <code>DataModel</code> as it is now. */
+	public static long estimateDataModel(DataModel dm) {
+		long bytes = 0;
+		long connections = 0;
+		for (Integer key : dm.getKeys1()) {
+			bytes += BYTES_PER_ELEMENT + dm.getElement(key).length() * BYTES_PER_CHARACTER;
+			connections += dm.getConnections(key).size();
+		}
+		for (Integer key : dm.getKeys2()) {
+			bytes += BYTES_PER_ELEMENT + dm.getElement(key).length() * BYTES_PER_CHARACTER;
+		}
+		return bytes + connections * BYTES_PER_CONNECTION;
+	}
+
+	/**
+	 * Returns the estimated number of bytes of the heap the sentence alignment of the
+	 * <code>DataModel</code> needs besides the model: the copies of the keys and lengths, a
+	 * connection for each element of the longer side, and the dynamic programming of the pair of
+	 * paragraphs needing the most in the given mode (see <code>AlignmentBudget.memory</code>).
+	 */
+	public static long estimateAlignment(DataModel dm, AlignmentMode mode) {
+		List<Integer> sizes1 = paragraphSizes(dm, dm.getKeys1());
+		List<Integer> sizes2 = paragraphSizes(dm, dm.getKeys2());
+		int elements1 = dm.getKeys1().size();
+		int elements2 = dm.getKeys2().size();
+
+		long pair = 0;
+		for (int p=0; p<Math.min(sizes1.size(), sizes2.size()); ++p) {
+			pair = Math.max(pair, AlignmentBudget.memory(mode, sizes1.get(p), sizes2.get(p)));
+		}
+		return (long)(elements1 + elements2) * BYTES_PER_ALIGNED_ELEMENT
+				+ (long)Math.max(elements1, elements2) * BYTES_PER_CONNECTION + pair;
+	}
+
+	/** Returns the numbers of elements of the paragraphs of one language, in order. */
+	private static List<Integer> paragraphSizes(DataModel dm, List<Integer> keys) {
+		List<Integer> sizes = new ArrayList<Integer>();
+		int currentParagraph = 0;
+		int size = 0;
+		for (Integer key : keys) {
+			int paragraph = dm.getParagraphForElement(key);
+			if (size > 0 && paragraph != currentParagraph) {
+				sizes.add(size);
+				size = 0;
+			}
+			currentParagraph = paragraph;
+			size++;
+		}
+		if (size > 0) sizes.add(size);
+		return sizes;
+	}
+}
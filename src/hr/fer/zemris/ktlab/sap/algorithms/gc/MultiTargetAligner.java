@@ -0,0 +1,278 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import hr.fer.zemris.ktlab.sap.algorithms.gc.Alignment;
+import hr.fer.zemris.ktlab.sap.util.DataModel;
+
+/**
+ * Aligns one text in the source language with many translations. Each
+ * translation is held by its own <code>DataModel</code>, whose source
+ * language side is a copy of the same text. The lengths of the source
+ * sentences, the division into paragraphs and the lengths of the paragraphs
+ * are read once, when the aligner is created, and shared by all
+ * translations, which are then aligned in parallel.
+ * <p>
+ * Each translation is aligned like by <code>Aligner</code> with paragraph
+ * alignment: the paragraphs are aligned first, paragraphs aligned 1-2, 2-1 or
+ * 2-2 are joined, deleted and inserted paragraphs are skipped, and the
+ * sentences of every pair of (joined) paragraphs are aligned. The connections
+ * are written into the <code>DataModel</code> of each translation.
+ */
+public class MultiTargetAligner {
+
+	/** One language of a text, reduced to lengths. */
+	private static class Side {
+
+		/** Lengths of the sentences. */
+		private int[] lengths;
+
+		/** Position of the first sentence of each paragraph, followed by the number of sentences. */
+		private int[] paragraphStarts;
+
+		/** Lengths of the paragraphs. */
+		private int[] paragraphLengths;
+
+		/** Reads one language of a <code>DataModel</code>. */
+		private Side(DataModel dm, List<Integer> keys) {
+			lengths = new int[keys.size()];
+			List<Integer> starts = new ArrayList<Integer>();
+			int i = 0;
+			int currentParagraph = 0;
+			for (Integer key : keys) {
+				int paragraph = dm.getParagraphForElement(key);
+				if (i == 0 || paragraph != currentParagraph) starts.add(i);
+				currentParagraph = paragraph;
+				lengths[i++] = dm.getElement(key).length();
+			}
+			paragraphStarts = new int[starts.size() + 1];
+			paragraphLengths = new int[starts.size()];
+			for (int p=0; p<starts.size(); ++p) {
+				paragraphStarts[p] = starts.get(p);
+			}
+			paragraphStarts[starts.size()] = lengths.length;
+			for (int p=0; p<paragraphLengths.length; ++p) {
+				for (int k=paragraphStarts[p]; k<paragraphStarts[p+1]; ++k) paragraphLengths[p] += lengths[k];
+			}
+		}
+	}
+
+	/** The source text. */
+	private Side source;
+
+	/** The distance measure. */
+	private CostModel costModel;
+
+	/** Admits the translations by their estimated memory, or <code>null</code> to admit all of them at once. */
+	private AdmissionGate admissionGate;
+
+	/** Whether each translation waits and is aligned in a thread of its own. */
+	private boolean virtualThreads;
+
+	/**
+	 * The public constructor for the MultiTargetAligner class.
+	 * @param source
+	 * 		A <code>DataModel</code> whose source language side holds the text in the source language.
+	 */
+	public MultiTargetAligner(DataModel source) {
+		super();
+		this.source = new Side(source, source.getKeys1());
+		this.costModel = GaleChurchCostModel.DEFAULT;
+	}
+
+	/**
+	 * Sets the distance measure used for all translations.
+	 * @param costModel
+	 * 		The distance measure, <code>GaleChurchCostModel.DEFAULT</code> by default.
+	 */
+	public void setCostModel(CostModel costModel) {
+		if (costModel == null) {
+			throw new IllegalArgumentException("Cost model must not be null");
+		}
+		this.costModel = costModel;
+	}
+
+	/**
+	 * Sets the gate the alignment of each translation has to pass before it starts. The memory
+	 * needed by the alignment of the translation is estimated and reserved at the gate, so that
+	 * translations wait while the memory of the gate is taken by other alignments, possibly of
+	 * other aligners sharing the gate.
+	 * @param admissionGate
+	 * 		The gate, or <code>null</code> to align the translations without waiting (the default).
+	 */
+	public void setAdmissionGate(AdmissionGate admissionGate) {
+		this.admissionGate = admissionGate;
+	}
+
+	/**
+	 * Sets whether each translation is aligned in a thread of its own, a virtual thread if the
+	 * virtual machine has them, instead of in a pool of the given number of threads. The number of
+	 * threads still bounds the translations being aligned at the same time (see
+	 * <code>AlignmentThreads</code>), but the translations waiting at the admission gate don't hold
+	 * a thread of the pool.
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Aligns the source text with each translation and writes the connections into the
+	 * <code>DataModel</code> of the translation.
+	 * @param targets
+	 * 		The translations. The source language side of each must hold the same sentences and
+	 * 		paragraphs as the one given to the constructor.
+	 * @param threads
+	 * 		The number of translations aligned at the same time.
+	 * @return
+	 * 		The time needed for the alignment in milliseconds.
+	 * @throws IllegalArgumentException
+	 * 		If the source language side of a translation differs from the source text, or if the
+	 * 		admission gate can never admit the alignment of a translation. Nothing is aligned then.
+	 * @throws IllegalStateException
+	 * 		If the thread is interrupted, or a translation is rejected by the queue of the
+	 * 		admission gate or fails to be aligned.
+	 */
+	public long align(List<DataModel> targets, int threads) {
+		long startTime = System.currentTimeMillis();
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive, was " + threads);
+		}
+		for (DataModel target : targets) {
+			checkSource(target);
+		}
+		final AdmissionGate gate = admissionGate;
+		final long[] estimates = new long[targets.size()];
+		if (gate != null) {
+			for (int t=0; t<estimates.length; ++t) {
+				estimates[t] = MemoryEstimator.estimateAlignment(targets.get(t), AlignmentMode.FULL);
+				if (!gate.admits(estimates[t])) {
+					throw new IllegalArgumentException("The alignment of translation " + t + " needs about "
+							+ estimates[t] + " bytes, more than the admission gate admits");
+				}
+			}
+		}
+
+		final AlignmentThreads permits = virtualThreads ? new AlignmentThreads(threads) : null;
+		ExecutorService executor = virtualThreads ? permits.newDocumentExecutor() : Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Object>> results = new ArrayList<Future<Object>>();
+			for (int t=0; t<estimates.length; ++t) {
+				final DataModel target = targets.get(t);
+				final long estimate = estimates[t];
+				results.add(executor.submit(new Callable<Object>() {
+					public Object call() throws InterruptedException {
+						if (gate == null) {
+							align(target, permits);
+							return null;
+						}
+						gate.acquire(estimate);
+						try {
+							align(target, permits);
+						} finally {
+							gate.release(estimate);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while aligning the translations", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to align a translation", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return System.currentTimeMillis() - startTime;
+	}
+
+	/** Checks that the lengths of the source sentences of the translation are those of the source text. */
+	private void checkSource(DataModel target) {
+		List<Integer> keys1 = target.getKeys1();
+		if (keys1.size() != source.lengths.length) {
+			throw new IllegalArgumentException("The translation has " + keys1.size()
+					+ " source sentences instead of " + source.lengths.length);
+		}
+		int i = 0;
+		for (Integer key : keys1) {
+			if (target.getElement(key).length() != source.lengths[i++]) {
+				throw new IllegalArgumentException("The source sentence " + (i-1) + " of the translation differs");
+			}
+		}
+	}
+
+	/**
+	 * Aligns the source text with one translation while holding a permit, if there are permits.
+	 * @param permits
+	 * 		Bounds the translations aligned at the same time, or <code>null</code>.
+	 */
+	private void align(DataModel target, AlignmentThreads permits) throws InterruptedException {
+		if (permits == null) {
+			alignTranslation(target, null);
+			return;
+		}
+		AlignerWorkspace workspace = permits.acquire();
+		try {
+			alignTranslation(target, workspace);
+		} finally {
+			permits.release(workspace);
+		}
+	}
+
+	/**
+	 * Aligns the source text with one translation.
+	 * @param workspace
+	 * 		The buffers of the dynamic programming, or <code>null</code> to allocate new ones.
+	 */
+	private void alignTranslation(DataModel target, AlignerWorkspace workspace) {
+		LengthAligner lengthAligner = new LengthAligner();
+		lengthAligner.setCostModel(costModel);
+		lengthAligner.setWorkspace(workspace);
+		Side translation = new Side(target, target.getKeys2());
+		int[] keys1 = keys(target.getKeys1());
+		int[] keys2 = keys(target.getKeys2());
+
+		List<Alignment> paragraphPath = lengthAligner.align(source.paragraphLengths, 0, source.paragraphLengths.length,
+				translation.paragraphLengths, 0, translation.paragraphLengths.length);
+		for (Alignment paragraphs : paragraphPath) {
+			if (paragraphs.x1 == -1 || paragraphs.y1 == -1) continue; // deleted or inserted paragraphs
+
+			// The sentences of the (joined) paragraphs.
+			int from1 = source.paragraphStarts[paragraphs.x1];
+			int to1 = source.paragraphStarts[(paragraphs.x2 == -1 ? paragraphs.x1 : paragraphs.x2) + 1];
+			int from2 = translation.paragraphStarts[paragraphs.y1];
+			int to2 = translation.paragraphStarts[(paragraphs.y2 == -1 ? paragraphs.y1 : paragraphs.y2) + 1];
+
+			List<Alignment> path = lengthAligner.align(source.lengths, from1, to1, translation.lengths, from2, to2);
+			for (Alignment bead : path) {
+				if (bead.x1 == -1 || bead.y1 == -1) continue; // deletions and insertions make no connections
+				connect(target, keys1[bead.x1], keys2, bead);
+				if (bead.x2 != -1) connect(target, keys1[bead.x2], keys2, bead);
+			}
+		}
+	}
+
+	/** Connects a source sentence with the sentences of the translation in the bead. */
+	private static void connect(DataModel target, int key1, int[] keys2, Alignment bead) {
+		target.addConnection(key1, keys2[bead.y1]);
+		if (bead.y2 != -1) target.addConnection(key1, keys2[bead.y2]);
+	}
+
+	/** Copies the keys into an array. */
+	private static int[] keys(List<Integer> keys) {
+		int[] array = new int[keys.size()];
+		int i = 0;
+		for (Integer key : keys) {
+			array[i++] = key;
+		}
+		return array;
+	}
+}
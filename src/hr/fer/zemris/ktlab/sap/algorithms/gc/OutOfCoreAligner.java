@@ -0,0 +1,237 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.List;
+import hr.fer.zemris.ktlab.sap.algorithms.gc.Alignment;
+
+/**
+ * Aligns sequences of segments too long for the dynamic programming array to
+ * fit into the heap. Only the last three rows of costs are kept in memory;
+ * the move into every cell, one byte per cell, is written into a temporary
+ * file mapped into memory, from which the cheapest path is read back at the
+ * end. The operating system pages the file in and out as needed, so the heap
+ * needed is proportional to the length of a row only.
+ * <p>
+ * The file is mapped in chunks of whole rows, at most
+ * <code>MAX_CHUNK_SIZE</code> bytes each, and deleted when the alignment is
+ * done. The moves are chosen in the same order as by
+ * <code>LengthAligner</code>, so the result is the same as the one of the full
+ * dynamic programming.
+ */
+public class OutOfCoreAligner {
+
+	/** The largest number of bytes mapped at once. */
+	private static final int MAX_CHUNK_SIZE = 1 << 30;
+
+	/** Move codes stored for each cell of the dynamic programming array. */
+	private static final byte NONE = 0;
+	private static final byte SUBSTITUTION = 1;
+	private static final byte DELETION = 2;
+	private static final byte INSERTION = 3;
+	private static final byte CONTRACTION = 4;
+	private static final byte EXPANSION = 5;
+	private static final byte MERGER = 6;
+
+	/** Provides the distance measure. */
+	private LengthAligner lengthAligner;
+
+	/** The directory of the temporary files, or <code>null</code> for the default one. */
+	private File directory;
+
+	/**
+	 * The public constructor for the OutOfCoreAligner class.
+	 * @param lengthAligner
+	 * 		Provides the distance measure, so the same one is used as by the dynamic programming in memory.
+	 * @param directory
+	 * 		The directory of the temporary files, or <code>null</code> for the default temporary directory.
+	 */
+	public OutOfCoreAligner(LengthAligner lengthAligner, File directory) {
+		super();
+		this.lengthAligner = lengthAligner;
+		this.directory = directory;
+	}
+
+	/**
+	 * Aligns the segments <code>from1</code> (inclusive) to <code>to1</code> (exclusive) of the
+	 * source language with the segments <code>from2</code> to <code>to2</code> of the destination
+	 * language. The arguments and the result are the same as in
+	 * {@link LengthAligner#align(int[], int, int, int[], int, int)}.
+	 * @throws IllegalStateException
+	 * 		If the temporary file can't be created or mapped.
+	 */
+	public List<Alignment> align(int[] lengths1, int from1, int to1, int[] lengths2, int from2, int to2) {
+		int size1 = to1 - from1;
+		int size2 = to2 - from2;
+		int rowsPerChunk = Math.max(MAX_CHUNK_SIZE / (size2+1), 1);
+		MappedByteBuffer[] chunks = new MappedByteBuffer[size1 / rowsPerChunk + 1];
+
+		File file = null;
+		RandomAccessFile moves = null;
+		try {
+			file = File.createTempFile("moves", ".tmp", directory);
+			moves = new RandomAccessFile(file, "rw");
+			FileChannel channel = moves.getChannel();
+			for (int k=0; k<chunks.length; ++k) {
+				int rows = Math.min(rowsPerChunk, size1+1 - k*rowsPerChunk);
+				chunks[k] = channel.map(FileChannel.MapMode.READ_WRITE, (long)k * rowsPerChunk * (size2+1),
+						(long)rows * (size2+1));
+			}
+			fill(lengths1, from1, size1, lengths2, from2, size2, chunks, rowsPerChunk);
+			return traceBack(lengths1, from1, size1, lengths2, from2, size2, chunks, rowsPerChunk);
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to map the temporary file of the moves", e);
+		} finally {
+			if (moves != null) {
+				try {
+					moves.close();
+				} catch (IOException e) {
+					// The file is deleted anyway.
+				}
+			}
+			// A mapped file may not be deletable before the mapping is collected; only then is it
+			// left to be deleted on exit, so the paths of the deleted files aren't kept until then.
+			if (file != null && !file.delete()) file.deleteOnExit();
+		}
+	}
+
+	/** Runs the dynamic programming row by row and writes the move into every cell into the chunks. */
+	private void fill(int[] lengths1, int from1, int size1, int[] lengths2, int from2, int size2,
+			MappedByteBuffer[] chunks, int rowsPerChunk) {
+		CostModel costModel = lengthAligner.getCostModel();
+		int[] single2 = new int[size2+1];
+		int[] pair2 = new int[size2+1];
+		for (int j=1; j<=size2; ++j) {
+			single2[j] = lengths2[from2+j-1];
+			if (j>1) pair2[j] = single2[j-1] + single2[j];
+		}
+
+		// Costs of the moves into the cells of the current row, computed a whole row at a time.
+		int[] insertion = new int[size2+1];
+		int[] substitution = new int[size2+1];
+		int[] contraction = new int[size2+1];
+		int[] expansion = new int[size2+1];
+		int[] merger = new int[size2+1];
+		costModel.distances(0, single2, insertion, 1, size2+1, costModel.getInsertionPenalty());
+
+		// The last three rows of costs and the moves of the current row.
+		int[][] cost = new int[3][size2+1];
+		byte[] moves = new byte[size2+1];
+
+		for (int i=0; i<=size1; ++i) {
+			int deletion = 0;
+			if (i>0) {
+				int single1 = lengths1[from1+i-1];
+				deletion = costModel.distance(single1, 0) + costModel.getDeletionPenalty();
+				costModel.distances(single1, single2, substitution, 1, size2+1, costModel.getSubstitutionPenalty());
+				costModel.distances(single1, pair2, expansion, 2, size2+1, costModel.getExpansionPenalty());
+				if (i>1) {
+					int pair1 = lengths1[from1+i-2] + single1;
+					costModel.distances(pair1, single2, contraction, 1, size2+1, costModel.getContractionPenalty());
+					costModel.distances(pair1, pair2, merger, 2, size2+1, costModel.getMergerPenalty());
+				}
+			}
+			int[] row = cost[i%3];
+			int[] up = cost[(i+2)%3];
+			int[] up2 = cost[(i+1)%3];
+
+			for (int j=0; j<=size2; ++j) {
+				// Finding the smallest cost (distance). On ties the earlier move wins.
+				int Dmin = Integer.MAX_VALUE;
+				byte best = NONE;
+				if (i>0 && j>0) { Dmin = up[j-1] + substitution[j]; best = SUBSTITUTION; }
+				if (i>0 && up[j] + deletion < Dmin) { Dmin = up[j] + deletion; best = DELETION; }
+				if (j>0 && row[j-1] + insertion[j] < Dmin) { Dmin = row[j-1] + insertion[j]; best = INSERTION; }
+				if (i>1 && j>0 && up2[j-1] + contraction[j] < Dmin) { Dmin = up2[j-1] + contraction[j]; best = CONTRACTION; }
+				if (i>0 && j>1 && up[j-2] + expansion[j] < Dmin) { Dmin = up[j-2] + expansion[j]; best = EXPANSION; }
+				if (i>1 && j>1 && up2[j-2] + merger[j] < Dmin) { Dmin = up2[j-2] + merger[j]; best = MERGER; }
+				row[j] = (best == NONE) ? 0 : Dmin;
+				moves[j] = best;
+			}
+
+			MappedByteBuffer chunk = chunks[i / rowsPerChunk];
+			chunk.position((i % rowsPerChunk) * (size2+1));
+			chunk.put(moves);
+		}
+	}
+
+	/**
+	 * Walks the cheapest path back from the last cell of the array, reading the moves from the chunks,
+	 * and returns it from the first bead on. The cumulative costs of the beads are added up afterwards,
+	 * from the first bead on.
+	 */
+	private List<Alignment> traceBack(int[] lengths1, int from1, int size1, int[] lengths2, int from2, int size2,
+			MappedByteBuffer[] chunks, int rowsPerChunk) {
+		CostModel costModel = lengthAligner.getCostModel();
+		LinkedList<Alignment> path = new LinkedList<Alignment>();
+		int i = size1;
+		int j = size2;
+		while (true) {
+			byte m = chunks[i / rowsPerChunk].get((i % rowsPerChunk) * (size2+1) + j);
+			if (m == NONE) break;
+
+			Alignment bead = new Alignment();
+			switch (m) {
+				case SUBSTITUTION :
+					bead.type = 11;
+					bead.x1 = from1+i-1;
+					bead.y1 = from2+j-1;
+					bead.cost = costModel.distance(lengths1[bead.x1], lengths2[bead.y1]) + costModel.getSubstitutionPenalty();
+					i -= 1; j -= 1;
+					break;
+				case DELETION :
+					bead.type = 10;
+					bead.x1 = from1+i-1;
+					bead.cost = costModel.distance(lengths1[bead.x1], 0) + costModel.getDeletionPenalty();
+					i -= 1;
+					break;
+				case INSERTION :
+					bead.type = 01;
+					bead.y1 = from2+j-1;
+					bead.cost = costModel.distance(0, lengths2[bead.y1]) + costModel.getInsertionPenalty();
+					j -= 1;
+					break;
+				case CONTRACTION :
+					bead.type = 21;
+					bead.x1 = from1+i-2;
+					bead.x2 = from1+i-1;
+					bead.y1 = from2+j-1;
+					bead.cost = costModel.distance(lengths1[bead.x1] + lengths1[bead.x2], lengths2[bead.y1])
+							+ costModel.getContractionPenalty();
+					i -= 2; j -= 1;
+					break;
+				case EXPANSION :
+					bead.type = 12;
+					bead.x1 = from1+i-1;
+					bead.y1 = from2+j-2;
+					bead.y2 = from2+j-1;
+					bead.cost = costModel.distance(lengths1[bead.x1], lengths2[bead.y1] + lengths2[bead.y2])
+							+ costModel.getExpansionPenalty();
+					i -= 1; j -= 2;
+					break;
+				default : // MERGER
+					bead.type = 22;
+					bead.x1 = from1+i-2;
+					bead.x2 = from1+i-1;
+					bead.y1 = from2+j-2;
+					bead.y2 = from2+j-1;
+					bead.cost = costModel.distance(lengths1[bead.x1] + lengths1[bead.x2], lengths2[bead.y1] + lengths2[bead.y2])
+							+ costModel.getMergerPenalty();
+					i -= 2; j -= 2;
+			}
+			if (!path.isEmpty()) path.getFirst().cheapestPredecessor = bead;
+			path.addFirst(bead);
+		}
+
+		int total = 0;
+		for (Alignment bead : path) {
+			total += bead.cost;
+			bead.cost = total;
+		}
+		return path;
+	}
+}
@@ -2,9 +2,9 @@ package hr.fer.zemris.ktlab.sap.algorithms.gc;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import hr.fer.zemris.ktlab.sap.util.DataModel;
 import hr.fer.zemris.ktlab.sap.algorithms.gc.Alignment;
-import hr.fer.zemris.ktlab.sap.algorithms.gc.ProbabilityComputation;
 
 public class ParagraphAligner {
 	
@@ -278,24 +278,6 @@ public class ParagraphAligner {
 		}
 	}
 	
-	/** 
-	 * Initializes a two-dimensional array of references to point to 
-	 * newly created, empty <code>Alignment</code> objects. 
-	 * @param array
-	 * 		The array to be initialized.
-	 * @param rows
-	 * 		The first index of a two-dimensional array.
-	 * @param columns
-	 * 		The second index of a two-dimensional array.
-	 */
-	private void initializeAlignmentArray(Alignment array[][], int rows, int columns) {
-		for (int i=0; i<rows; ++i) {
-			for (int j=0; j<columns; ++j) {
-				array[i][j] = new Alignment();
-			}
-		}
-	}
-
 	/** Returns the paragraph length stored in the String in an <code>Element</code> object. */
 	public static Integer getParagraphLength(String string) {
 		return new Integer(Integer.parseInt( string.split("-")[0] ));
@@ -339,107 +321,31 @@ public class ParagraphAligner {
 				currentElement2++;
 			}
 			
-			Alignment[][] distance = new Alignment[currentParagraphSize1+1][currentParagraphSize2+1];
-			initializeAlignmentArray(distance, currentParagraphSize1+1, currentParagraphSize2+1);
-						
-			for (int i=0; i<=currentParagraphSize1; ++i) {
-				for (int j=0; j<=currentParagraphSize2; ++j) {
-					
-					// Finding costs (distances) for all currently possible alignments
-					int D1 = (i>0 && j>0)    // 1-1 alignment (substitution)
-							 ? 
-							 ( distance[i-1][j-1].cost + ProbabilityComputation.d(getParagraphLength( paragraphDataModel.getElement(keys1.get(currentParagraphStart1+i-1)) ),
-									 										      getParagraphLength( paragraphDataModel.getElement(keys2.get(currentParagraphStart2+j-1)) ), 
-									 											  11) )
-							 : Integer.MAX_VALUE;
-							 
-					int D2 = (i>0)  			// 1-0 alignment (deletion) 
-							 ? 
-							 ( distance[i-1][j].cost + ProbabilityComputation.d(getParagraphLength( paragraphDataModel.getElement(keys1.get(currentParagraphStart1+i-1)) ),
-									 											0, 
-									 											10) )
-							 : Integer.MAX_VALUE;
-							 
-					int D3 = (j>0)  			// 0-1 alignment (insertion) 
-							 ? 
-							 ( distance[i][j-1].cost + ProbabilityComputation.d(0,
-									 											getParagraphLength(paragraphDataModel.getElement(keys2.get(currentParagraphStart2+j-1)) ), 
-									 											01) )
-							 : Integer.MAX_VALUE;
-							 
-					int D4 = (i>1 && j>0)  			// 2-1 alignment (contraction) 
-							 ? 
-							 ( distance[i-2][j-1].cost + ProbabilityComputation.d( getParagraphLength( paragraphDataModel.getElement(keys1.get(currentParagraphStart1+i-2)) )
-									 											  +getParagraphLength( paragraphDataModel.getElement(keys1.get(currentParagraphStart1+i-1)) ),
-									 											   getParagraphLength( paragraphDataModel.getElement(keys2.get(currentParagraphStart2+j-1)) ), 
-									  											  21) )
-							 : Integer.MAX_VALUE;
-							 
-					int D5 = (i>0 && j>1)  			// 1-2 alignment (expansion) 
-							 ? 
-							 ( distance[i-1][j-2].cost + ProbabilityComputation.d( getParagraphLength( paragraphDataModel.getElement(keys1.get(currentParagraphStart1+i-1)) ),
-									 											   getParagraphLength( paragraphDataModel.getElement(keys2.get(currentParagraphStart2+j-2)) )	
-									 											  +getParagraphLength( paragraphDataModel.getElement(keys2.get(currentParagraphStart2+j-1)) ), 
-									  											  12) )
-							 : Integer.MAX_VALUE;
-							 
-					int D6 = (i>1 && j>1)  			// 2-2 alignment (merger) 
-							 ? 
-							 ( distance[i-2][j-2].cost + ProbabilityComputation.d( getParagraphLength( paragraphDataModel.getElement(keys1.get(currentParagraphStart1+i-2)) )
-									 											  +getParagraphLength( paragraphDataModel.getElement(keys1.get(currentParagraphStart1+i-1)) ),
-									 											   getParagraphLength( paragraphDataModel.getElement(keys2.get(currentParagraphStart2+j-2)) )	
-									 											  +getParagraphLength( paragraphDataModel.getElement(keys2.get(currentParagraphStart2+j-1)) ), 
-									  											  22) )
-							 : Integer.MAX_VALUE;
-							 
-					// Finding the smallest cost (distance). 
-					int Dmin = D1;
-					if (D2<Dmin) Dmin = D2;
-					if (D3<Dmin) Dmin = D3;
-					if (D4<Dmin) Dmin = D4;
-					if (D5<Dmin) Dmin = D5;
-					if (D6<Dmin) Dmin = D6;
-					
-					// Setting up the best alignment.
-					distance[i][j].cost = Dmin;
-					if (Dmin == Integer.MAX_VALUE) {
-						distance[i][j].cost = 0; // Necessary only for the [0][0] element of the array?
-					} else if (Dmin == D1) {  // Substitution
-						distance[i][j].cheapestPredecessor = distance[i-1][j-1];
-						distance[i][j].x1 = paragraphDataModel.getKeys1().get(currentParagraphStart1+i-1);
-						distance[i][j].y1 = paragraphDataModel.getKeys2().get(currentParagraphStart2+j-1);
-					} else if (Dmin == D2) {  // Deletion
-						distance[i][j].cheapestPredecessor = distance[i-1][j];
-					  	distance[i][j].x1 = paragraphDataModel.getKeys1().get(currentParagraphStart1+i-1);
-					} else if (Dmin == D3) {  // Insertion
-						distance[i][j].cheapestPredecessor = distance[i][j-1];
-					  	distance[i][j].y1 = paragraphDataModel.getKeys2().get(currentParagraphStart2+j-1);
-					} else if (Dmin == D4) {  // Contraction
-						distance[i][j].cheapestPredecessor = distance[i-2][j-1];
-						distance[i][j].x1 = paragraphDataModel.getKeys1().get(currentParagraphStart1+i-2);
-						distance[i][j].x2 = paragraphDataModel.getKeys1().get(currentParagraphStart1+i-1);
-						distance[i][j].y1 = paragraphDataModel.getKeys2().get(currentParagraphStart2+j-1);
-					} else if (Dmin == D5) {  // Expansion
-						distance[i][j].cheapestPredecessor = distance[i-1][j-2];
-						distance[i][j].x1 = paragraphDataModel.getKeys1().get(currentParagraphStart1+i-1);
-						distance[i][j].y1 = paragraphDataModel.getKeys2().get(currentParagraphStart2+j-2);
-						distance[i][j].y2 = paragraphDataModel.getKeys2().get(currentParagraphStart2+j-1);
-					} else /* Dmin == D6 */ {  // Merger
-						distance[i][j].cheapestPredecessor = distance[i-2][j-2];
-						distance[i][j].x1 = paragraphDataModel.getKeys1().get(currentParagraphStart1+i-2);
-						distance[i][j].x2 = paragraphDataModel.getKeys1().get(currentParagraphStart1+i-1);
-						distance[i][j].y1 = paragraphDataModel.getKeys2().get(currentParagraphStart2+j-2);
-						distance[i][j].y2 = paragraphDataModel.getKeys2().get(currentParagraphStart2+j-1);
-					}
-					
-				}
+			AlignerWorkspace workspace = sentenceAligner.workspace();
+			int[] lengths1 = workspace.buffer(AlignerWorkspace.LENGTHS1, currentParagraphSize1);
+			for (int i=0; i<currentParagraphSize1; ++i) {
+				lengths1[i] = getParagraphLength( paragraphDataModel.getElement(keys1.get(currentParagraphStart1+i)) );
 			}
-			// Transcribing the alignments from the dynamic programming framework to the DataModel object. 
-			Alignment roadBackHome = distance[currentParagraphSize1][currentParagraphSize2];
+			int[] lengths2 = workspace.buffer(AlignerWorkspace.LENGTHS2, currentParagraphSize2);
+			for (int j=0; j<currentParagraphSize2; ++j) {
+				lengths2[j] = getParagraphLength( paragraphDataModel.getElement(keys2.get(currentParagraphStart2+j)) );
+			}
+			
+			// The paragraphs are aligned in the same mode as the sentences.
+			List<Alignment> path = sentenceAligner.alignRange(lengths1, 0, currentParagraphSize1, lengths2, 0, currentParagraphSize2);
 			
-			while ( roadBackHome.cheapestPredecessor != null ) {
-				setParagraphConnection(roadBackHome);
-				roadBackHome = roadBackHome.cheapestPredecessor;
+			// Transcribing the alignments from the dynamic programming framework to the DataModel object,
+			// from the last one back to the first one. 
+			ListIterator<Alignment> roadBackHome = path.listIterator(path.size());
+			while ( roadBackHome.hasPrevious() ) {
+				Alignment position = roadBackHome.previous();
+				Alignment align = new Alignment();
+				align.type = position.type;
+				align.x1 = (position.x1 == -1) ? -1 : keys1.get(currentParagraphStart1+position.x1);
+				align.x2 = (position.x2 == -1) ? -1 : keys1.get(currentParagraphStart1+position.x2);
+				align.y1 = (position.y1 == -1) ? -1 : keys2.get(currentParagraphStart2+position.y1);
+				align.y2 = (position.y2 == -1) ? -1 : keys2.get(currentParagraphStart2+position.y2);
+				setParagraphConnection(align);
 			}
 			
 		} while ( (currentElement1 < numberOfElements1)&&(currentElement2 < numberOfElements2) );
@@ -0,0 +1,268 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import hr.fer.zemris.ktlab.sap.algorithms.gc.Alignment;
+import hr.fer.zemris.ktlab.sap.util.DataModel;
+
+/**
+ * Aligns pairs of length sequences (paragraphs) with several sets of penalties
+ * at once, for tuning the penalties. The lengths are read from the
+ * <code>DataModel</code> once. All parameter sets share the parameters of the
+ * distance between lengths (<code>c</code>, <code>sSquared</code> and the big
+ * distance) and differ only in the penalties, so the distances of a row of
+ * the dynamic programming array are computed once and then used by the
+ * dynamic programming of every parameter set in turn, which only adds its own
+ * penalties.
+ * <p>
+ * The parameter sets are divided among the given number of threads; each
+ * thread aligns the pairs one after another and computes the distances of a
+ * row once for all of its parameter sets. The rows are filled and the path is
+ * traced back by the code of <code>LengthAligner</code> over the full array,
+ * so the results are the same as those of <code>LengthAligner</code> with the
+ * same model, including the order in which ties are broken. Only the moves of
+ * the pair being aligned are kept, one array for each parameter set of the
+ * thread.
+ */
+public class ParameterSweep {
+
+	/** The cost and the paths found with one parameter set. */
+	public static class Result {
+
+		/** The parameter set. */
+		private GaleChurchCostModel model;
+
+		/** The cost of the cheapest paths of all pairs. */
+		private int cost;
+
+		/** The cheapest path of each pair, from the first bead on. */
+		private List<List<Alignment>> paths;
+
+		private Result(GaleChurchCostModel model) {
+			this.model = model;
+			this.paths = new ArrayList<List<Alignment>>();
+		}
+
+		/** Returns the parameter set. */
+		public GaleChurchCostModel getModel() {
+			return model;
+		}
+
+		/** Returns the cost of the cheapest paths of all pairs. */
+		public int getCost() {
+			return cost;
+		}
+
+		/**
+		 * Returns the cheapest path of each pair, from the first bead on, in the order of the pairs.
+		 * The beads hold positions in the length arrays of the pair, like the ones returned by
+		 * <code>LengthAligner</code>.
+		 */
+		public List<List<Alignment>> getPaths() {
+			return paths;
+		}
+	}
+
+	/** Lengths of the segments in the source language, for each pair. */
+	private List<int[]> lengths1;
+
+	/** Lengths of the segments in the destination language, for each pair. */
+	private List<int[]> lengths2;
+
+	/**
+	 * The public constructor for the ParameterSweep class, for one pair of length sequences.
+	 * @param lengths1
+	 * 		Lengths of the segments in the source language.
+	 * @param lengths2
+	 * 		Lengths of the segments in the destination language.
+	 */
+	public ParameterSweep(int[] lengths1, int[] lengths2) {
+		this(new ArrayList<int[]>(), new ArrayList<int[]>());
+		this.lengths1.add(lengths1);
+		this.lengths2.add(lengths2);
+	}
+
+	/** Creates a sweep over the given pairs; the lists have the same size. */
+	private ParameterSweep(List<int[]> lengths1, List<int[]> lengths2) {
+		super();
+		this.lengths1 = lengths1;
+		this.lengths2 = lengths2;
+	}
+
+	/**
+	 * Returns a sweep over the pairs of paragraphs of the <code>DataModel</code>, paired like
+	 * {@link Aligner#alignSentences()} pairs them without a paragraph alignment.
+	 */
+	public static ParameterSweep forDataModel(DataModel dm) {
+		List<int[]> lengths1 = new ArrayList<int[]>();
+		List<int[]> lengths2 = new ArrayList<int[]>();
+		for (int[][] pair : new Aligner(dm).remainingParagraphs()) {
+			lengths1.add(lengths(dm, pair[0]));
+			lengths2.add(lengths(dm, pair[1]));
+		}
+		return new ParameterSweep(lengths1, lengths2);
+	}
+
+	/** Returns the lengths of the elements with the given keys. */
+	private static int[] lengths(DataModel dm, int[] keys) {
+		int[] lengths = new int[keys.length];
+		for (int i=0; i<keys.length; ++i) {
+			lengths[i] = dm.getElement(keys[i]).length();
+		}
+		return lengths;
+	}
+
+	/**
+	 * Aligns the pairs with every parameter set.
+	 * @param models
+	 * 		The parameter sets. They must all have the same <code>c</code>, <code>sSquared</code> and
+	 * 		big distance.
+	 * @param threads
+	 * 		The number of threads the parameter sets are divided among.
+	 * @return
+	 * 		The results in the order of the parameter sets.
+	 */
+	public List<Result> run(List<GaleChurchCostModel> models, int threads) {
+		if (models.isEmpty()) return new ArrayList<Result>();
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive, was " + threads);
+		}
+		GaleChurchCostModel first = models.get(0);
+		for (GaleChurchCostModel model : models) {
+			if (model.getC() != first.getC() || model.getSSquared() != first.getSSquared()
+					|| model.getBigDistance() != first.getBigDistance()) {
+				throw new IllegalArgumentException("The parameter sets may differ only in the penalties");
+			}
+		}
+		final CostModel distances = first.compile();
+
+		int groups = Math.min(threads, models.size());
+		ExecutorService executor = Executors.newFixedThreadPool(groups);
+		try {
+			List<Future<Result[]>> futures = new ArrayList<Future<Result[]>>();
+			for (int g=0; g<groups; ++g) {
+				final List<GaleChurchCostModel> group = new ArrayList<GaleChurchCostModel>();
+				for (int k=g; k<models.size(); k+=groups) group.add(models.get(k));
+				futures.add(executor.submit(new Callable<Result[]>() {
+					public Result[] call() {
+						return align(distances, group);
+					}
+				}));
+			}
+			Result[] results = new Result[models.size()];
+			for (int g=0; g<groups; ++g) {
+				Result[] groupResults = futures.get(g).get();
+				for (int k=0; k<groupResults.length; ++k) results[g + k*groups] = groupResults[k];
+			}
+			List<Result> list = new ArrayList<Result>();
+			for (Result result : results) list.add(result);
+			return list;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while sweeping the parameters", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to align with a parameter set", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/** Aligns all pairs with a group of parameter sets. */
+	private Result[] align(CostModel distances, List<GaleChurchCostModel> models) {
+		Result[] results = new Result[models.size()];
+		for (int k=0; k<results.length; ++k) results[k] = new Result(models.get(k));
+		for (int p=0; p<lengths1.size(); ++p) {
+			align(distances, lengths1.get(p), lengths2.get(p), results);
+		}
+		return results;
+	}
+
+	/** Runs the dynamic programming of a pair with a group of parameter sets, row by row. */
+	private static void align(CostModel distances, int[] lengths1, int[] lengths2, Result[] results) {
+		int size1 = lengths1.length;
+		int size2 = lengths2.length;
+		int count = results.length;
+
+		int[] single2 = new int[size2+1];
+		int[] pair2 = new int[size2+1];
+		for (int j=1; j<=size2; ++j) {
+			single2[j] = lengths2[j-1];
+			if (j>1) pair2[j] = single2[j-1] + single2[j];
+		}
+		// The full array: every row starts at column 0 and ends at column size2.
+		int[] corridorStart = new int[size1+1];
+		int[] corridorEnd = new int[size1+1];
+		for (int i=0; i<=size1; ++i) corridorEnd[i] = size2;
+
+		// Distances without penalties, shared by all parameter sets of the group.
+		int[] insertion = new int[size2+1];
+		int[] substitution = new int[size2+1];
+		int[] contraction = new int[size2+1];
+		int[] expansion = new int[size2+1];
+		int[] merger = new int[size2+1];
+		distances.distances(0, single2, insertion, 1, size2+1, 0);
+
+		// The rows of costs of each parameter set refer to the same three arrays in turn, as only the
+		// last three rows are read; the moves are kept for all cells.
+		int[][][] cost = new int[count][size1+1][];
+		byte[][][] move = new byte[count][size1+1][size2+1];
+		for (int k=0; k<count; ++k) {
+			int[][] rows = new int[3][size2+1];
+			for (int i=0; i<=size1; ++i) cost[k][i] = rows[i%3];
+		}
+
+		for (int i=0; i<=size1; ++i) {
+			int deletion = 0;
+			if (i>0) {
+				int single1 = lengths1[i-1];
+				deletion = distances.distance(single1, 0);
+				distances.distances(single1, single2, substitution, 1, size2+1, 0);
+				distances.distances(single1, pair2, expansion, 2, size2+1, 0);
+				if (i>1) {
+					int pair1 = lengths1[i-2] + single1;
+					distances.distances(pair1, single2, contraction, 1, size2+1, 0);
+					distances.distances(pair1, pair2, merger, 2, size2+1, 0);
+				}
+			}
+			for (int k=0; k<count; ++k) {
+				LengthAligner.fillRow(cost[k], move[k], corridorStart, corridorEnd, i, deletion, substitution,
+						insertion, contraction, expansion, merger, results[k].model);
+			}
+		}
+
+		for (int k=0; k<count; ++k) {
+			List<Alignment> path = LengthAligner.traceBack(cost[k], move[k], corridorStart, 0, 0, size1, size2);
+			setCosts(path, lengths1, lengths2, distances, results[k].model);
+			results[k].cost += cost[k][size1][size2];
+			results[k].paths.add(path);
+		}
+	}
+
+	/**
+	 * Sets the cumulative costs of the beads of a path, from the first bead on. The costs read by the
+	 * trace back belong to rows which have been overwritten since.
+	 */
+	private static void setCosts(List<Alignment> path, int[] lengths1, int[] lengths2, CostModel distances,
+			CostModel model) {
+		int total = 0;
+		for (Alignment bead : path) {
+			int length1 = (bead.x1 == -1) ? 0 : lengths1[bead.x1] + ((bead.x2 == -1) ? 0 : lengths1[bead.x2]);
+			int length2 = (bead.y1 == -1) ? 0 : lengths2[bead.y1] + ((bead.y2 == -1) ? 0 : lengths2[bead.y2]);
+			total += distances.distance(length1, length2);
+			switch (bead.type) {
+				case 11 : total += model.getSubstitutionPenalty(); break;
+				case 10 : total += model.getDeletionPenalty(); break;
+				case 01 : total += model.getInsertionPenalty(); break;
+				case 21 : total += model.getContractionPenalty(); break;
+				case 12 : total += model.getExpansionPenalty(); break;
+				default : total += model.getMergerPenalty(); // 22
+			}
+			bead.cost = total;
+		}
+	}
+}
@@ -3,7 +3,9 @@ package hr.fer.zemris.ktlab.sap.algorithms.gc;
 /**
  * The class exclusively contains static members and methods. These are used
  * for computing probabilities and corresponding distance measures for the 
- * given alignments of sentences. 
+ * given alignments of sentences. The parameters are the ones of
+ * <code>GaleChurchCostModel.DEFAULT</code>, which gives the same distances
+ * and is what the aligners use.
  * 
  * @author Vjekoslav Osmann
  *
@@ -97,11 +99,19 @@ public class ProbabilityComputation {
 		if ( (length1==0)&&(length2==0) ) return 0;
 		delta = delta(length1, length2);
 		if (delta < 0) delta = -delta;
-		p_delta_match = 2 * ( 1-pnorm(delta));
+		p_delta_match = matchProbability(delta);
 		if ( p_delta_match>0 ) return ( (int)(-100 * Math.log(p_delta_match)) );
 		else return bigDistance;
 	}
 	
+	/**
+	 * Computes the probability of a match with the given absolute value of
+	 * the parameter delta (the two-sided tail of the normal distribution).
+	 */
+	static double matchProbability(double delta) {
+		return 2 * ( 1-pnorm(delta));
+	}
+	
 	/**
 	 * The distance measure method (called "two_side_distance" in the original
 	 * C implementation attached to Gale&Church's article). An additional 
@@ -0,0 +1,69 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+/**
+ * The distance measure of Gale and Church that looks the distances up in a
+ * <code>CostTable</code>. Gives the same distances as the
+ * <code>GaleChurchCostModel</code> it was compiled from; instances are
+ * created by {@link GaleChurchCostModel#compile()}.
+ */
+public final class TabulatedCostModel implements CostModel {
+
+	/** The parameters of the distance measure. */
+	private final GaleChurchCostModel parameters;
+
+	/** The distances for the absolute values of delta. */
+	private final CostTable table;
+
+	/**
+	 * The constructor for the TabulatedCostModel class.
+	 * @param parameters
+	 * 		The parameters of the distance measure.
+	 * @param table
+	 * 		The table built for the big distance of the parameters.
+	 */
+	TabulatedCostModel(GaleChurchCostModel parameters, CostTable table) {
+		super();
+		this.parameters = parameters;
+		this.table = table;
+	}
+
+	/** Returns the model this one was compiled from. */
+	public GaleChurchCostModel getParameters() {
+		return parameters;
+	}
+
+	public int distance(int length1, int length2) {
+		if ( (length1==0)&&(length2==0) ) return 0;
+		return table.distance(parameters.delta(length1, length2));
+	}
+
+	public void distances(int length1, int[] lengths2, int[] distances, int from, int to, int penalty) {
+		for (int k=from; k<to; ++k) {
+			distances[k] = distance(length1, lengths2[k]) + penalty;
+		}
+	}
+
+	public int getSubstitutionPenalty() {
+		return parameters.getSubstitutionPenalty();
+	}
+
+	public int getDeletionPenalty() {
+		return parameters.getDeletionPenalty();
+	}
+
+	public int getInsertionPenalty() {
+		return parameters.getInsertionPenalty();
+	}
+
+	public int getContractionPenalty() {
+		return parameters.getContractionPenalty();
+	}
+
+	public int getExpansionPenalty() {
+		return parameters.getExpansionPenalty();
+	}
+
+	public int getMergerPenalty() {
+		return parameters.getMergerPenalty();
+	}
+}
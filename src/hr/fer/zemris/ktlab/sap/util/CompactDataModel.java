@@ -0,0 +1,419 @@
+package hr.fer.zemris.ktlab.sap.util;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sažeti binarni zapis modela (<code>DataModel</code>) koji se koristi kod
+ * serijalizacije modela umjesto zadane serijalizacije. Model se kod
+ * serijalizacije zamjenjuje ovim objektom, a kod deserijalizacije se iz njega
+ * ponovno stvara model, pa se model i dalje sprema i učitava pomoću
+ * <code>ObjectOutputStream</code> i <code>ObjectInputStream</code>. Datoteke
+ * spremljene prije uvođenja ovog zapisa i dalje se učitavaju zadanom
+ * deserijalizacijom.
+ * <p>
+ * Zapis počinje brojem inačice, a sadrži redom:
+ * <ul>
+ * <li>ključ sljedećeg elementa
+ * <li>tablicu imena atributa, u kojoj je svako ime zapisano jednom, a
+ * atributi elemenata i imena atributa iz ulazne xml datoteke zapisuju se kao
+ * indeksi u tablicu
+ * <li>svojstva modela
+ * <li>elemente prvog pa drugog skupa, redom: ključeve i odlomke kao razlike
+ * od prethodnog elementa, tekstove u UTF-8 kodu te atribute
+ * <li>veze elemenata prvog skupa s elementima drugog skupa u obliku retka
+ * matrice (eng. <i>compressed sparse row</i>): najprije broj veza svakog
+ * elementa, a zatim ključevi povezanih elemenata, sortirani unutar elementa i
+ * zapisani kao razlike od prethodnog ključa
+ * <li>knjižne oznake
+ * </ul>
+ * Svi cijeli brojevi zapisuju se u promjenjivom broju okteta (eng.
+ * <i>varint</i>), 7 bitova po oktetu, a razlike koje mogu biti negativne
+ * prije toga se preslikavaju u nenegativne brojeve (eng. <i>zigzag</i>), pa
+ * većina ključeva, odlomaka i veza zauzima jedan oktet.
+ *
+ * @see DataModel
+ */
+public final class CompactDataModel implements Externalizable {
+
+	private static final long serialVersionUID = -3017329158610271346L;
+
+	/** Inačica zapisa koju zapisuje ova klasa */
+	public static final int VERSION = 1;
+
+	/** Kodna stranica tekstova */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Oznaka elementa koji je sigurno podijeljen */
+	private static final int SPLIT_SAFELY = 1;
+
+	/** Oznaka elementa koji ima atribute */
+	private static final int HAS_ATTRIBUTES = 2;
+
+	/** Model koji se zapisuje ili koji je pročitan */
+	private DataModel model;
+
+	/** Međuspremnik za čitanje tekstova */
+	private transient byte[] buffer = new byte[256];
+
+	/**
+	 * Javni konstruktor klase, koristi ga deserijalizacija.
+	 */
+	public CompactDataModel() {
+	}
+
+	/**
+	 * Konstruktor klase za zapisivanje modela.
+	 *
+	 * @param model
+	 *            model koji se zapisuje
+	 */
+	CompactDataModel(DataModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * Zapisuje model; model je za vrijeme zapisivanja zaključan za pisanje.
+	 */
+	public void writeExternal(ObjectOutput out) throws IOException {
+		model.writeCompact(this, out);
+	}
+
+	/**
+	 * Čita model zapisan metodom <code>writeExternal</code>.
+	 *
+	 * @throws InvalidObjectException
+	 *             ako je zapis nepoznate inačice ili neispravan
+	 */
+	public void readExternal(ObjectInput in) throws IOException,
+			ClassNotFoundException {
+		int version = readVarint(in);
+		if (version != VERSION) {
+			throw new InvalidObjectException("Unsupported format version: "
+					+ version);
+		}
+		int nextKey = readVarint(in);
+
+		String[] names = new String[readVarint(in)];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = readString(in);
+		}
+
+		int count = readVarint(in);
+		Set<String> xmlAttributes = new HashSet<String>();
+		for (int i = 0; i < count; i++) {
+			xmlAttributes.add(name(names, readVarint(in)));
+		}
+
+		count = readVarint(in);
+		Map<String, String> properties = new HashMap<String, String>();
+		for (int i = 0; i < count; i++) {
+			String name = readString(in);
+			properties.put(name, readString(in));
+		}
+
+		Map<Integer, Element> elements = new HashMap<Integer, Element>();
+		List<Integer> keys1 = readElements(in, names, elements, Element.SET1);
+		List<Integer> keys2 = readElements(in, names, elements, Element.SET2);
+
+		int[] degrees = new int[keys1.size()];
+		for (int i = 0; i < degrees.length; i++) {
+			degrees[i] = readVarint(in);
+		}
+		int key = -1;
+		int i = 0;
+		for (Integer key1 : keys1) {
+			Element element1 = elements.get(key1);
+			for (int j = 0; j < degrees[i]; j++) {
+				key += readZigzag(in);
+				Element element2 = elements.get(key);
+				if (element2 == null || element2.isInSet1()) {
+					throw new InvalidObjectException(
+							"Connection to an unknown element: " + key);
+				}
+				element1.addConnection(key);
+				element2.addConnection(key1);
+			}
+			i++;
+		}
+
+		count = readVarint(in);
+		List<Bookmark> bookmarks = new LinkedList<Bookmark>();
+		for (i = 0; i < count; i++) {
+			bookmarks.add((Bookmark) in.readObject());
+		}
+
+		model = new DataModel(elements, keys1, keys2, nextKey, bookmarks,
+				xmlAttributes, properties);
+	}
+
+	/**
+	 * Vraća pročitani model umjesto ovog objekta.
+	 *
+	 * @return pročitani model
+	 */
+	private Object readResolve() {
+		return model;
+	}
+
+	/**
+	 * Zapisuje podatke modela. Poziva je model dok je zaključan.
+	 *
+	 * @param out
+	 *            izlaz u koji se zapisuje
+	 * @param elements
+	 *            elementi modela
+	 * @param keys1
+	 *            ključevi prvog skupa
+	 * @param keys2
+	 *            ključevi drugog skupa
+	 * @param nextKey
+	 *            ključ sljedećeg elementa
+	 * @param bookmarks
+	 *            knjižne oznake
+	 * @param xmlAttributes
+	 *            atributi iz ulazne xml datoteke
+	 * @param properties
+	 *            svojstva modela
+	 * @throws IOException
+	 *             ako zapisivanje ne uspije
+	 */
+	void write(ObjectOutput out, Map<Integer, Element> elements,
+			List<Integer> keys1, List<Integer> keys2, int nextKey,
+			List<Bookmark> bookmarks, Set<String> xmlAttributes,
+			Map<String, String> properties) throws IOException {
+		writeVarint(out, VERSION);
+		writeVarint(out, nextKey);
+
+		Map<String, Integer> names = new LinkedHashMap<String, Integer>();
+		for (String name : xmlAttributes) {
+			index(names, name);
+		}
+		for (Element element : elements.values()) {
+			Map<String, String> attributes = element.getAttributes();
+			if (attributes != null) {
+				for (String name : attributes.keySet()) {
+					index(names, name);
+				}
+			}
+		}
+		writeVarint(out, names.size());
+		for (String name : names.keySet()) {
+			writeString(out, name);
+		}
+
+		writeVarint(out, xmlAttributes.size());
+		for (String name : xmlAttributes) {
+			writeVarint(out, names.get(name));
+		}
+
+		writeVarint(out, properties.size());
+		for (Map.Entry<String, String> property : properties.entrySet()) {
+			writeString(out, property.getKey());
+			writeString(out, property.getValue());
+		}
+
+		writeElements(out, names, elements, keys1);
+		writeElements(out, names, elements, keys2);
+
+		int[][] connections = new int[keys1.size()][];
+		int i = 0;
+		for (Integer key1 : keys1) {
+			Set<Integer> destinations = elements.get(key1).getConnections();
+			int[] row = new int[destinations.size()];
+			int j = 0;
+			for (Integer key2 : destinations) {
+				row[j++] = key2;
+			}
+			Arrays.sort(row);
+			connections[i++] = row;
+			writeVarint(out, row.length);
+		}
+		int key = -1;
+		for (int[] row : connections) {
+			for (int key2 : row) {
+				writeZigzag(out, key2 - key);
+				key = key2;
+			}
+		}
+
+		writeVarint(out, bookmarks.size());
+		for (Bookmark bookmark : bookmarks) {
+			out.writeObject(bookmark);
+		}
+	}
+
+	/**
+	 * Zapisuje elemente jednog skupa.
+	 */
+	private void writeElements(ObjectOutput out, Map<String, Integer> names,
+			Map<Integer, Element> elements, List<Integer> keys)
+			throws IOException {
+		writeVarint(out, keys.size());
+		int key = -1;
+		int paragraph = -1;
+		for (Integer next : keys) {
+			Element element = elements.get(next);
+			Map<String, String> attributes = element.getAttributes();
+			writeZigzag(out, next - key);
+			writeZigzag(out, element.getParagraph() - paragraph);
+			out.write((element.isSplitSafely() ? SPLIT_SAFELY : 0)
+					| (attributes != null ? HAS_ATTRIBUTES : 0));
+			writeString(out, element.getText());
+			if (attributes != null) {
+				writeVarint(out, attributes.size());
+				for (Map.Entry<String, String> attribute : attributes
+						.entrySet()) {
+					writeVarint(out, names.get(attribute.getKey()));
+					writeString(out, attribute.getValue());
+				}
+			}
+			key = next;
+			paragraph = element.getParagraph();
+		}
+	}
+
+	/**
+	 * Čita elemente jednog skupa.
+	 *
+	 * @return ključevi pročitanih elemenata, redom
+	 */
+	private List<Integer> readElements(ObjectInput in, String[] names,
+			Map<Integer, Element> elements, boolean set) throws IOException {
+		int count = readVarint(in);
+		List<Integer> keys = new LinkedList<Integer>();
+		int key = -1;
+		int paragraph = -1;
+		for (int i = 0; i < count; i++) {
+			key += readZigzag(in);
+			paragraph += readZigzag(in);
+			int flags = in.readUnsignedByte();
+			String text = readString(in);
+			Map<String, String> attributes = null;
+			if ((flags & HAS_ATTRIBUTES) != 0) {
+				int size = readVarint(in);
+				attributes = new LinkedHashMap<String, String>();
+				for (int j = 0; j < size; j++) {
+					String name = name(names, readVarint(in));
+					attributes.put(name, readString(in));
+				}
+			}
+			Element element = new Element(key, text, set, paragraph,
+					attributes);
+			element.setSplitSafely((flags & SPLIT_SAFELY) != 0);
+			if (elements.put(key, element) != null) {
+				throw new InvalidObjectException("Duplicate element: " + key);
+			}
+			keys.add(key);
+		}
+		return keys;
+	}
+
+	/**
+	 * Vraća indeks imena u tablici imena, dodaje ga u tablicu ako ga nema.
+	 */
+	private static int index(Map<String, Integer> names, String name) {
+		Integer index = names.get(name);
+		if (index == null) {
+			index = names.size();
+			names.put(name, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Vraća ime iz tablice imena.
+	 */
+	private static String name(String[] names, int index)
+			throws InvalidObjectException {
+		if (index >= names.length) {
+			throw new InvalidObjectException("Unknown attribute name: " + index);
+		}
+		return names[index];
+	}
+
+	/**
+	 * Zapisuje tekst kao duljinu uvećanu za jedan i okteta u UTF-8 kodu, a
+	 * <code>null</code> kao nulu.
+	 */
+	private static void writeString(ObjectOutput out, String text)
+			throws IOException {
+		if (text == null) {
+			writeVarint(out, 0);
+			return;
+		}
+		byte[] bytes = text.getBytes(UTF8);
+		writeVarint(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	/**
+	 * Čita tekst zapisan metodom <code>writeString</code>.
+	 */
+	private String readString(ObjectInput in) throws IOException {
+		int length = readVarint(in) - 1;
+		if (length < 0) {
+			return null;
+		}
+		if (buffer == null || buffer.length < length) {
+			buffer = new byte[Math.max(length, 256)];
+		}
+		in.readFully(buffer, 0, length);
+		return new String(buffer, 0, length, UTF8);
+	}
+
+	/**
+	 * Zapisuje nenegativan broj u promjenjivom broju okteta.
+	 */
+	private static void writeVarint(ObjectOutput out, int value)
+			throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Čita broj zapisan metodom <code>writeVarint</code>.
+	 */
+	private static int readVarint(ObjectInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new InvalidObjectException("Malformed varint");
+	}
+
+	/**
+	 * Zapisuje broj koji može biti negativan, preslikan u nenegativan broj.
+	 */
+	private static void writeZigzag(ObjectOutput out, int value)
+			throws IOException {
+		writeVarint(out, (value << 1) ^ (value >> 31));
+	}
+
+	/**
+	 * Čita broj zapisan metodom <code>writeZigzag</code>.
+	 */
+	private static int readZigzag(ObjectInput in) throws IOException {
+		int value = readVarint(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
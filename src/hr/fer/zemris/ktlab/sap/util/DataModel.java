@@ -4,14 +4,20 @@ package hr.fer.zemris.ktlab.sap.util;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.io.IOException;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.swing.event.UndoableEditListener;
 import javax.swing.undo.AbstractUndoableEdit;
@@ -35,9 +41,22 @@ import javax.swing.undo.UndoableEditSupport;
  * <code>PropertyChangeSupport</code> klase i podršku za slanje informacija o
  * događajima koji se mogu vratiti (eng. undo) ili ponoviti (eng. redo) pomoću
  * klase <code>UndoableEditSupport</code>.
+ * <p>
+ * Model se normalno koristi iz samo jedne dretve. U konkurentnom načinu rada
+ * (vidi <code>setConcurrent</code>) model smije istovremeno koristiti više
+ * dretvi: promjene elemenata, ključeva i knjižnih oznaka zaključavaju cijeli
+ * model za pisanje, a čitanja ga zaključavaju za čitanje. Veze se dodaju i
+ * uklanjaju uz zaključavanje modela za čitanje i zaključavanje dijela veza
+ * kojem pripadaju povezani elementi, pa više dretvi (npr. dretve koje
+ * sravnjuju različite dijelove teksta) može istovremeno dodavati veze.
+ * <p>
+ * Model se serijalizira u sažetom binarnom zapisu (vidi
+ * <code>CompactDataModel</code>), a modeli spremljeni zadanom
+ * serijalizacijom mogu se i dalje učitati.
  * 
  * @see Element
  * @see Bookmark
+ * @see CompactDataModel
  * @see PropertyChangeSupport
  * @see UndoableEditSupport
  * 
@@ -173,6 +192,39 @@ public class DataModel implements Serializable {
 	/** Omogućava slanje undo i redo događaja */
 	transient private UndoableEditSupport undoSupport;
 
+	/** Broj dijelova na koje su podijeljene veze u konkurentnom načinu rada */
+	private static final int CONNECTION_LOCKS = 64;
+
+	/**
+	 * Zaključavanje modela u konkurentnom načinu rada, <code>null</code> ako
+	 * model koristi samo jedna dretva
+	 */
+	transient private ReentrantReadWriteLock lock;
+
+	/**
+	 * Zaključavanja dijelova veza u konkurentnom načinu rada; veze elementa
+	 * pripadaju dijelu određenom njegovim ključem
+	 */
+	transient private ReentrantLock[] connectionLocks;
+
+	/**
+	 * Zadnja stvorena snimka modela; njezini podaci o nepromijenjenim
+	 * elementima koriste se u sljedećoj snimci
+	 */
+	transient private DataModelSnapshot lastSnapshot;
+
+	/**
+	 * Ključevi elemenata koji su promijenjeni, dodani ili uklonjeni od zadnje
+	 * snimke; <code>null</code> dok snimka ne postoji
+	 */
+	transient private Set<Integer> changedKeys;
+
+	/** Označava da se lista ključeva prvog skupa promijenila od zadnje snimke */
+	transient private boolean keys1Changed;
+
+	/** Označava da se lista ključeva drugog skupa promijenila od zadnje snimke */
+	transient private boolean keys2Changed;
+
 	/** Mapa u koju se spremaju svi elementi iz modela */
 	private Map<Integer, Element> elements;
 
@@ -237,6 +289,38 @@ public class DataModel implements Serializable {
 		properties = new HashMap<String, String>();
 	}
 
+	/**
+	 * Konstruktor klase za model pročitan iz sažetog binarnog zapisa. Model
+	 * preuzima predane kolekcije.
+	 * 
+	 * @param elements
+	 *            elementi modela
+	 * @param keys1
+	 *            ključevi prvog skupa
+	 * @param keys2
+	 *            ključevi drugog skupa
+	 * @param nextKey
+	 *            ključ sljedećeg elementa
+	 * @param bookmarks
+	 *            knjižne oznake
+	 * @param xmlAttributes
+	 *            atributi iz ulazne xml datoteke
+	 * @param properties
+	 *            svojstva modela
+	 */
+	DataModel(Map<Integer, Element> elements, List<Integer> keys1,
+			List<Integer> keys2, int nextKey, List<Bookmark> bookmarks,
+			Set<String> xmlAttributes, Map<String, String> properties) {
+		initializeTransients();
+		this.elements = elements;
+		this.keys1 = keys1;
+		this.keys2 = keys2;
+		this.nextKey = nextKey;
+		this.bookmarks = bookmarks;
+		this.xmlAttributes = xmlAttributes;
+		this.properties = properties;
+	}
+
 	/**
 	 * Metoda za inicijalizaciju svih klasa koje su <code>transient</code>.
 	 */
@@ -351,6 +435,167 @@ public class DataModel implements Serializable {
 		return notifyListeners;
 	}
 
+	/**
+	 * Uključuje ili isključuje konkurentni način rada u kojem model smije
+	 * istovremeno koristiti više dretvi. Način rada smije se mijenjati samo dok
+	 * model ne koristi niti jedna druga dretva. Nakon deserijalizacije model
+	 * nije u konkurentnom načinu rada.
+	 * <p>
+	 * U konkurentnom načinu rada metode <code>getKeys1</code>,
+	 * <code>getKeys2</code>, <code>getConnections</code>,
+	 * <code>getBookmarks</code> i <code>getXmlAttributeNames</code> vraćaju
+	 * nepromjenjive kopije umjesto samih kolekcija iz modela. Slušatelji se
+	 * obavještavaju u dretvi koja je promijenila model, dok je model
+	 * zaključan, pa ne smiju čekati druge dretve koje koriste model.
+	 * 
+	 * @param concurrent
+	 *            <code>true</code> za konkurentni način rada,
+	 *            <code>false</code> za korištenje iz samo jedne dretve
+	 */
+	public void setConcurrent(boolean concurrent) {
+		if (!concurrent) {
+			lock = null;
+			connectionLocks = null;
+		} else if (lock == null) {
+			connectionLocks = new ReentrantLock[CONNECTION_LOCKS];
+			for (int i = 0; i < CONNECTION_LOCKS; i++) {
+				connectionLocks[i] = new ReentrantLock();
+			}
+			lock = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Vraća da li je model u konkurentnom načinu rada.
+	 * 
+	 * @return <code>true</code> ako model smije istovremeno koristiti više
+	 *         dretvi, <code>false</code> inače
+	 */
+	public boolean isConcurrent() {
+		return lock != null;
+	}
+
+	/**
+	 * Izvodi akciju dok je model zaključan za pisanje, tako da niti jedna
+	 * druga dretva ne vidi model usred akcije niti ga mijenja za vrijeme
+	 * akcije. Akcija smije pozivati sve metode modela. Ako model nije u
+	 * konkurentnom načinu rada, akcija se samo izvodi.
+	 * 
+	 * @param action
+	 *            akcija koja se izvodi
+	 */
+	public void runAtomically(Runnable action) {
+		lockWrite();
+		try {
+			action.run();
+		} finally {
+			unlockWrite();
+		}
+	}
+
+	/** Zaključava model za čitanje u konkurentnom načinu rada. */
+	private void lockRead() {
+		if (lock != null) {
+			lock.readLock().lock();
+		}
+	}
+
+	/** Otključava model zaključan za čitanje. */
+	private void unlockRead() {
+		if (lock != null) {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Zaključava model za pisanje u konkurentnom načinu rada. */
+	private void lockWrite() {
+		if (lock != null) {
+			lock.writeLock().lock();
+		}
+	}
+
+	/** Otključava model zaključan za pisanje. */
+	private void unlockWrite() {
+		if (lock != null) {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Zaključava model za čitanje i dijelove veza kojima pripadaju elementi sa
+	 * zadanim ključevima u konkurentnom načinu rada. Dijelovi se zaključavaju
+	 * uvijek istim redom, pa dvije dretve ne mogu čekati jedna drugu.
+	 * <p>
+	 * Veze se mijenjaju dok je model zaključan samo za čitanje, pa metode koje
+	 * čitaju veze elemenata moraju zaključati ili dijelove veza tih elemenata
+	 * ili cijeli model za pisanje.
+	 * 
+	 * @param key1
+	 *            ključ prvog elementa
+	 * @param key2
+	 *            ključ drugog elementa
+	 */
+	private void lockConnections(int key1, int key2) {
+		if (lock == null) {
+			return;
+		}
+		lock.readLock().lock();
+		int stripe1 = stripe(key1);
+		int stripe2 = stripe(key2);
+		connectionLocks[Math.min(stripe1, stripe2)].lock();
+		if (stripe1 != stripe2) {
+			connectionLocks[Math.max(stripe1, stripe2)].lock();
+		}
+	}
+
+	/**
+	 * Otključava dijelove veza i model zaključane metodom
+	 * <code>lockConnections</code>.
+	 * 
+	 * @param key1
+	 *            ključ prvog elementa
+	 * @param key2
+	 *            ključ drugog elementa
+	 */
+	private void unlockConnections(int key1, int key2) {
+		if (lock == null) {
+			return;
+		}
+		int stripe1 = stripe(key1);
+		int stripe2 = stripe(key2);
+		if (stripe1 != stripe2) {
+			connectionLocks[Math.max(stripe1, stripe2)].unlock();
+		}
+		connectionLocks[Math.min(stripe1, stripe2)].unlock();
+		lock.readLock().unlock();
+	}
+
+	/**
+	 * Vraća broj dijela veza kojem pripadaju veze elementa sa zadanim ključem.
+	 * 
+	 * @param key
+	 *            ključ elementa
+	 * @return broj dijela veza
+	 */
+	private static int stripe(int key) {
+		return (key & Integer.MAX_VALUE) % CONNECTION_LOCKS;
+	}
+
+	/**
+	 * Bilježi da su se podaci elementa sa zadanim ključem promijenili ili da
+	 * je element dodan ili uklonjen, kako bi sljedeća snimka ponovno kopirala
+	 * samo njegove podatke. Poziva se prije promjene, dok je model zaključan
+	 * za pisanje ili su zaključani dijelovi veza elementa.
+	 * 
+	 * @param key
+	 *            ključ elementa
+	 */
+	private void changed(int key) {
+		if (changedKeys != null) {
+			changedKeys.add(key);
+		}
+	}
+
 	/**
 	 * Metoda obavještava sve klase koje slušaju da li se dogodila promjena koja
 	 * se može vratiti da se takva promjena dogodila. Metoda uzima u obzir
@@ -366,10 +611,12 @@ public class DataModel implements Serializable {
 	 *            podršku da se ta akcija poništi ili ponovi
 	 */
 	private void postEdit(UndoableEdit edit) {
-		if (compoundActions) {
-			compoundEdit.addEdit(edit);
-		} else {
-			undoSupport.postEdit(edit);
+		synchronized (undoSupport) {
+			if (compoundActions) {
+				compoundEdit.addEdit(edit);
+			} else {
+				undoSupport.postEdit(edit);
+			}
 		}
 	}
 
@@ -384,12 +631,14 @@ public class DataModel implements Serializable {
 	 * @see DataModel#stopCompoudAction()
 	 */
 	public void startCompoundAction() {
-		if (compoundActions) {
-			throw new IllegalStateException(
-					"Trying to start new compound action while the previous one has not ended");
+		synchronized (undoSupport) {
+			if (compoundActions) {
+				throw new IllegalStateException(
+						"Trying to start new compound action while the previous one has not ended");
+			}
+			compoundEdit = new CompoundEdit();
+			compoundActions = true;
 		}
-		compoundEdit = new CompoundEdit();
-		compoundActions = true;
 	}
 
 	/**
@@ -403,14 +652,16 @@ public class DataModel implements Serializable {
 	 * @see DataModel#startCompoudAction()
 	 */
 	public void stopCompoudAction() {
-		if (!compoundActions) {
-			throw new IllegalStateException(
-					"There is no active compound action to stop");
-		}
+		synchronized (undoSupport) {
+			if (!compoundActions) {
+				throw new IllegalStateException(
+						"There is no active compound action to stop");
+			}
 
-		compoundEdit.end();
-		undoSupport.postEdit(compoundEdit);
-		compoundActions = false;
+			compoundEdit.end();
+			undoSupport.postEdit(compoundEdit);
+			compoundActions = false;
+		}
 	}
 
 	/**
@@ -422,17 +673,24 @@ public class DataModel implements Serializable {
 	 * @return ključ pomoću kojeg se može dohvatiti spremljeni element
 	 */
 	public int add1(String text) {
-		int lastKey = getLastKey();
-		int key = getNextKey();
-		Element element = new Element(key, text, Element.SET1);
-		elements.put(key, element);
-		keys1.add(key);
-		UndoableEdit edit = new AddEdit(lastKey, key);
+		lockWrite();
+		try {
+			int lastKey = getLastKey();
+			int key = getNextKey();
+			Element element = new Element(key, text, Element.SET1);
+			changed(key);
+			elements.put(key, element);
+			keys1Changed = true;
+			keys1.add(key);
+			UndoableEdit edit = new AddEdit(lastKey, key);
 
-		firePropertyChange(ELEMENT_ADDED_IN_SET1, null, key);
-		postEdit(edit);
+			firePropertyChange(ELEMENT_ADDED_IN_SET1, null, key);
+			postEdit(edit);
 
-		return key;
+			return key;
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -446,17 +704,24 @@ public class DataModel implements Serializable {
 	 * @return ključ pomoću kojeg se može dohvatiti spremljeni element
 	 */
 	public int add1(String text, int paragraph) {
-		int lastKey = getLastKey();
-		int key = getNextKey();
-		Element element = new Element(key, text, Element.SET1, paragraph);
-		elements.put(key, element);
-		keys1.add(key);
-		UndoableEdit edit = new AddEdit(lastKey, key);
+		lockWrite();
+		try {
+			int lastKey = getLastKey();
+			int key = getNextKey();
+			Element element = new Element(key, text, Element.SET1, paragraph);
+			changed(key);
+			elements.put(key, element);
+			keys1Changed = true;
+			keys1.add(key);
+			UndoableEdit edit = new AddEdit(lastKey, key);
 
-		firePropertyChange(ELEMENT_ADDED_IN_SET1, null, key);
-		postEdit(edit);
+			firePropertyChange(ELEMENT_ADDED_IN_SET1, null, key);
+			postEdit(edit);
 
-		return key;
+			return key;
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -472,18 +737,25 @@ public class DataModel implements Serializable {
 	 * @return ključ pomoću kojeg se može dohvatiti spremljeni element
 	 */
 	public int add1(String text, int paragraph, Map<String, String> attributes) {
-		int lastKey = getLastKey();
-		int key = getNextKey();
-		Element element = new Element(key, text, Element.SET1, paragraph,
-				attributes);
-		elements.put(key, element);
-		keys1.add(key);
-		UndoableEdit edit = new AddEdit(lastKey, key);
+		lockWrite();
+		try {
+			int lastKey = getLastKey();
+			int key = getNextKey();
+			Element element = new Element(key, text, Element.SET1, paragraph,
+					attributes);
+			changed(key);
+			elements.put(key, element);
+			keys1Changed = true;
+			keys1.add(key);
+			UndoableEdit edit = new AddEdit(lastKey, key);
 
-		firePropertyChange(ELEMENT_ADDED_IN_SET1, null, key);
-		postEdit(edit);
+			firePropertyChange(ELEMENT_ADDED_IN_SET1, null, key);
+			postEdit(edit);
 
-		return key;
+			return key;
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -499,24 +771,32 @@ public class DataModel implements Serializable {
 	 * @return ključ pomoću kojeg se može dohvatiti umetnuti element
 	 */
 	public int insertElement1(int index, String text) {
-		int lastKey = getLastKey();
-		int key = getNextKey();
-		int paragraph = elements.get(keys1.get(index)).getParagraph();
-
-		if (paragraph != -1) {
-			elements.put(key, new Element(key, text, Element.SET1, paragraph));
-		} else {
-			elements.put(key, new Element(key, text, Element.SET1));
-		}
-		keys1.add(index, key);
+		lockWrite();
+		try {
+			int lastKey = getLastKey();
+			int key = getNextKey();
+			int paragraph = elements.get(keys1.get(index)).getParagraph();
+
+			if (paragraph != -1) {
+				changed(key);
+				elements.put(key, new Element(key, text, Element.SET1, paragraph));
+			} else {
+				changed(key);
+				elements.put(key, new Element(key, text, Element.SET1));
+			}
+			keys1Changed = true;
+			keys1.add(index, key);
 
-		UndoableEdit edit = new InsertEdit(index, lastKey, key);
+			UndoableEdit edit = new InsertEdit(index, lastKey, key);
 
-		firePropertyChange(ELEMENT_INSERTED_IN_SET1, null, constructPair(index,
-				key));
-		postEdit(edit);
+			firePropertyChange(ELEMENT_INSERTED_IN_SET1, null, constructPair(index,
+					key));
+			postEdit(edit);
 
-		return key;
+			return key;
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -528,16 +808,23 @@ public class DataModel implements Serializable {
 	 * @return ključ pomoću kojeg se može dohvatiti spremljeni element
 	 */
 	public int add2(String text) {
-		int lastKey = getLastKey();
-		int key = getNextKey();
-		elements.put(key, new Element(key, text, Element.SET2));
-		keys2.add(key);
-		UndoableEdit edit = new AddEdit(lastKey, key);
+		lockWrite();
+		try {
+			int lastKey = getLastKey();
+			int key = getNextKey();
+			changed(key);
+			elements.put(key, new Element(key, text, Element.SET2));
+			keys2Changed = true;
+			keys2.add(key);
+			UndoableEdit edit = new AddEdit(lastKey, key);
 
-		firePropertyChange(ELEMENT_ADDED_IN_SET2, null, key);
-		postEdit(edit);
+			firePropertyChange(ELEMENT_ADDED_IN_SET2, null, key);
+			postEdit(edit);
 
-		return key;
+			return key;
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -551,16 +838,23 @@ public class DataModel implements Serializable {
 	 * @return ključ pomoću kojeg se može dohvatiti spremljeni element
 	 */
 	public int add2(String text, int paragraph) {
-		int lastKey = getLastKey();
-		int key = getNextKey();
-		elements.put(key, new Element(key, text, Element.SET2, paragraph));
-		keys2.add(key);
-		UndoableEdit edit = new AddEdit(lastKey, key);
+		lockWrite();
+		try {
+			int lastKey = getLastKey();
+			int key = getNextKey();
+			changed(key);
+			elements.put(key, new Element(key, text, Element.SET2, paragraph));
+			keys2Changed = true;
+			keys2.add(key);
+			UndoableEdit edit = new AddEdit(lastKey, key);
 
-		firePropertyChange(ELEMENT_ADDED_IN_SET2, null, key);
-		postEdit(edit);
+			firePropertyChange(ELEMENT_ADDED_IN_SET2, null, key);
+			postEdit(edit);
 
-		return key;
+			return key;
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -576,17 +870,107 @@ public class DataModel implements Serializable {
 	 * @return ključ pomoću kojeg se može dohvatiti spremljeni element
 	 */
 	public int add2(String text, int paragraph, Map<String, String> attributes) {
-		int lastKey = getLastKey();
-		int key = getNextKey();
-		elements.put(key, new Element(key, text, Element.SET2, paragraph,
-				attributes));
-		keys2.add(key);
-		UndoableEdit edit = new AddEdit(lastKey, key);
+		lockWrite();
+		try {
+			int lastKey = getLastKey();
+			int key = getNextKey();
+			changed(key);
+			elements.put(key, new Element(key, text, Element.SET2, paragraph,
+					attributes));
+			keys2Changed = true;
+			keys2.add(key);
+			UndoableEdit edit = new AddEdit(lastKey, key);
 
-		firePropertyChange(ELEMENT_ADDED_IN_SET2, null, key);
-		postEdit(edit);
+			firePropertyChange(ELEMENT_ADDED_IN_SET2, null, key);
+			postEdit(edit);
 
-		return key;
+			return key;
+		} finally {
+			unlockWrite();
+		}
+	}
+
+	/**
+	 * Dodaje više elemenata odjednom na kraj prvog skupa. Elementi dobivaju
+	 * redom uzastopne ključeve, a dodaju se dok je model zaključan za pisanje,
+	 * pa je to brži način punjenja modela od dodavanja element po element. Sve
+	 * dodane elemente moguće je vratiti jednim pozivom <code>undo</code>.
+	 * 
+	 * @param texts
+	 *            tekstovi elemenata, redom
+	 * @param paragraphs
+	 *            brojevi odlomaka elemenata, jednako mnogo kao tekstova
+	 * @return ključ prvog dodanog elementa
+	 */
+	public int addElements1(List<String> texts, int[] paragraphs) {
+		return addElements(texts, paragraphs, true);
+	}
+
+	/**
+	 * Dodaje više elemenata odjednom na kraj drugog skupa. Elementi dobivaju
+	 * redom uzastopne ključeve, kao kod metode <code>addElements1</code>.
+	 * 
+	 * @param texts
+	 *            tekstovi elemenata, redom
+	 * @param paragraphs
+	 *            brojevi odlomaka elemenata, jednako mnogo kao tekstova
+	 * @return ključ prvog dodanog elementa
+	 * @see DataModel#addElements1(List, int[])
+	 */
+	public int addElements2(List<String> texts, int[] paragraphs) {
+		return addElements(texts, paragraphs, false);
+	}
+
+	/**
+	 * Dodaje više elemenata odjednom u jedan od skupova.
+	 * 
+	 * @param texts
+	 *            tekstovi elemenata, redom
+	 * @param paragraphs
+	 *            brojevi odlomaka elemenata
+	 * @param inSet1
+	 *            <code>true</code> za prvi skup, <code>false</code> za drugi
+	 * @return ključ prvog dodanog elementa
+	 */
+	private int addElements(List<String> texts, int[] paragraphs, boolean inSet1) {
+		if (texts.size() != paragraphs.length) {
+			throw new IllegalArgumentException(
+					"Numbers of texts and paragraphs differ: " + texts.size()
+							+ " and " + paragraphs.length);
+		}
+
+		lockWrite();
+		try {
+			int firstKey = getLastKey();
+			List<Integer> keys = inSet1 ? keys1 : keys2;
+			if (inSet1) {
+				keys1Changed = true;
+			} else {
+				keys2Changed = true;
+			}
+			String property = inSet1 ? ELEMENT_ADDED_IN_SET1
+					: ELEMENT_ADDED_IN_SET2;
+			CompoundEdit addEdit = new CompoundEdit();
+			int i = 0;
+			for (String text : texts) {
+				int lastKey = getLastKey();
+				int key = getNextKey();
+				Element element = inSet1 ? new Element(key, text, Element.SET1,
+						paragraphs[i++]) : new Element(key, text, Element.SET2,
+						paragraphs[i++]);
+				changed(key);
+				elements.put(key, element);
+				keys.add(key);
+				addEdit.addEdit(new AddEdit(lastKey, key));
+				firePropertyChange(property, null, key);
+			}
+			addEdit.end();
+			postEdit(addEdit);
+
+			return firstKey;
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -602,24 +986,32 @@ public class DataModel implements Serializable {
 	 * @return ključ pomoću kojeg se može dohvatiti umetnuti element
 	 */
 	public int insertElement2(int index, String text) {
-		int lastKey = getLastKey();
-		int key = getNextKey();
-		int paragraph = elements.get(keys2.get(index)).getParagraph();
-
-		if (paragraph != -1) {
-			elements.put(key, new Element(key, text, Element.SET2, paragraph));
-		} else {
-			elements.put(key, new Element(key, text, Element.SET2));
-		}
-		keys2.add(index, key);
+		lockWrite();
+		try {
+			int lastKey = getLastKey();
+			int key = getNextKey();
+			int paragraph = elements.get(keys2.get(index)).getParagraph();
+
+			if (paragraph != -1) {
+				changed(key);
+				elements.put(key, new Element(key, text, Element.SET2, paragraph));
+			} else {
+				changed(key);
+				elements.put(key, new Element(key, text, Element.SET2));
+			}
+			keys2Changed = true;
+			keys2.add(index, key);
 
-		UndoableEdit edit = new InsertEdit(index, lastKey, key);
+			UndoableEdit edit = new InsertEdit(index, lastKey, key);
 
-		firePropertyChange(ELEMENT_INSERTED_IN_SET2, null, constructPair(index,
-				key));
-		postEdit(edit);
+			firePropertyChange(ELEMENT_INSERTED_IN_SET2, null, constructPair(index,
+					key));
+			postEdit(edit);
 
-		return key;
+			return key;
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -633,24 +1025,30 @@ public class DataModel implements Serializable {
 	 *         <code>false</code> inače
 	 */
 	public boolean setElement(int key, String text) {
-		Element element = elements.get(key);
-		if (element == null) {
-			return false;
-		}
-		String oldText = element.getText();
-		element.setText(text);
+		lockWrite();
+		try {
+			Element element = elements.get(key);
+			if (element == null) {
+				return false;
+			}
+			String oldText = element.getText();
+			changed(key);
+			element.setText(text);
 
-		UndoableEdit edit = new UpdateEdit(key, oldText);
+			UndoableEdit edit = new UpdateEdit(key, oldText);
 
-		if (element.isInSet1()) {
-			firePropertyChange(ELEMENT_UPDATED_IN_SET1, null, key);
-		} else {
-			firePropertyChange(ELEMENT_UPDATED_IN_SET2, null, key);
-		}
+			if (element.isInSet1()) {
+				firePropertyChange(ELEMENT_UPDATED_IN_SET1, null, key);
+			} else {
+				firePropertyChange(ELEMENT_UPDATED_IN_SET2, null, key);
+			}
 
-		postEdit(edit);
+			postEdit(edit);
 
-		return true;
+			return true;
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -664,49 +1062,58 @@ public class DataModel implements Serializable {
 	 *         <code>false</code>
 	 */
 	public boolean remove(int key) {
-		int index;
-		Element element = elements.get(key);
+		lockWrite();
+		try {
+			int index;
+			Element element = elements.get(key);
 
-		if (element == null) {
-			return false;
-		}
+			if (element == null) {
+				return false;
+			}
 
-		if (elements.remove(key) == null) {
-			return false;
-		}
+			changed(key);
+			if (elements.remove(key) == null) {
+				return false;
+			}
 
-		for (Integer destination : element.getConnections()) {
-			elements.get(destination).removeConnection(key);
-		}
+			for (Integer destination : element.getConnections()) {
+				changed(destination);
+				elements.get(destination).removeConnection(key);
+			}
 
-		CompoundEdit removeEdit = new CompoundEdit();
+			CompoundEdit removeEdit = new CompoundEdit();
 
-		for (int i = 0; i < bookmarks.size(); i++) {
-			if (bookmarks.get(i).getKey() == element.getId()) {
-				Bookmark removedBookmark = bookmarks.remove(i);
+			for (int i = 0; i < bookmarks.size(); i++) {
+				if (bookmarks.get(i).getKey() == element.getId()) {
+					Bookmark removedBookmark = bookmarks.remove(i);
 
-				removeEdit.addEdit(new RemoveBookmarkEdit(i, removedBookmark));
-				firePropertyChange(BOOKMARK_REMOVED, removedBookmark, null);
-				i--;
+					removeEdit.addEdit(new RemoveBookmarkEdit(i, removedBookmark));
+					firePropertyChange(BOOKMARK_REMOVED, removedBookmark, null);
+					i--;
+				}
 			}
-		}
 
-		if (element.isInSet1()) {
-			index = keys1.indexOf(key);
-			keys1.remove(index);
-			firePropertyChange(ELEMENT_REMOVED_FROM_SET1, key, null);
-		} else {
-			index = keys2.indexOf(key);
-			keys2.remove(index);
-			firePropertyChange(ELEMENT_REMOVED_FROM_SET2, key, null);
-		}
+			if (element.isInSet1()) {
+				index = keys1.indexOf(key);
+				keys1Changed = true;
+				keys1.remove(index);
+				firePropertyChange(ELEMENT_REMOVED_FROM_SET1, key, null);
+			} else {
+				index = keys2.indexOf(key);
+				keys2Changed = true;
+				keys2.remove(index);
+				firePropertyChange(ELEMENT_REMOVED_FROM_SET2, key, null);
+			}
 
-		UndoableEdit edit = new RemoveEdit(element, index);
-		removeEdit.addEdit(edit);
-		removeEdit.end();
-		postEdit(removeEdit);
+			UndoableEdit edit = new RemoveEdit(element, index);
+			removeEdit.addEdit(edit);
+			removeEdit.end();
+			postEdit(removeEdit);
 
-		return true;
+			return true;
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -721,38 +1128,103 @@ public class DataModel implements Serializable {
 	 *            ključ drugog elementa
 	 */
 	public void addConnection(int key1, int key2) {
-		Element element1 = elements.get(key1);
-		Element element2 = elements.get(key2);
+		lockConnections(key1, key2);
+		try {
+			Element element1 = elements.get(key1);
+			Element element2 = elements.get(key2);
+
+			if (element1 == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key " + key1 + " in the model");
+			}
 
-		if (element1 == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key " + key1 + " in the model");
-		}
+			if (element2 == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key " + key2 + " in the model");
+			}
 
-		if (element2 == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key " + key2 + " in the model");
+			if (element1.isInSet1() == element2.isInSet1()) {
+				throw new IllegalArgumentException(
+						"Cannot connect elements from the same set");
+			}
+
+			changed(key1);
+			boolean result1 = elements.get(key1).addConnection(key2);
+			changed(key2);
+			boolean result2 = elements.get(key2).addConnection(key1);
+
+			if (result1 != result2) {
+				throw new IllegalStateException(
+						"Inconsistency in DataModel: connection was not added to both elements");
+			}
+
+			if (result1) {
+				UndoableEdit edit = new AddConnectionEdit(key1, key2);
+
+				firePropertyChange(CONNECTION_ADDED, key1, key2);
+				postEdit(edit);
+			} 
+		} finally {
+			unlockConnections(key1, key2);
 		}
+	}
 
-		if (element1.isInSet1() == element2.isInSet1()) {
+	/**
+	 * Dodaje više veza odjednom: element s ključem <code>keys1[i]</code>
+	 * povezuje se s elementom s ključem <code>keys2[i]</code>. Veze se dodaju
+	 * dok je model zaključan za pisanje, pa druge dretve vide ili sve veze ili
+	 * niti jednu, a sve dodane veze mogu se vratiti jednim pozivom
+	 * <code>undo</code>. Ako neki par nije moguće povezati, ne dodaje se niti
+	 * jedna veza.
+	 * <p>
+	 * Veze koje već postoje u modelu ne dodaju se ponovno.
+	 * 
+	 * @param keys1
+	 *            ključevi prvih elemenata
+	 * @param keys2
+	 *            ključevi drugih elemenata, jednako mnogo kao prvih
+	 */
+	public void addConnections(int[] keys1, int[] keys2) {
+		if (keys1.length != keys2.length) {
 			throw new IllegalArgumentException(
-					"Cannot connect elements from the same set");
+					"Numbers of keys differ: " + keys1.length + " and "
+							+ keys2.length);
 		}
 
-		boolean result1 = elements.get(key1).addConnection(key2);
-		boolean result2 = elements.get(key2).addConnection(key1);
+		lockWrite();
+		try {
+			for (int i = 0; i < keys1.length; i++) {
+				Element element1 = elements.get(keys1[i]);
+				Element element2 = elements.get(keys2[i]);
 
-		if (result1 != result2) {
-			throw new IllegalStateException(
-					"Inconsistency in DataModel: connection was not added to both elements");
-		}
+				if (element1 == null || element2 == null) {
+					throw new IllegalArgumentException(
+							"Unable to find element with key "
+									+ (element1 == null ? keys1[i] : keys2[i])
+									+ " in the model");
+				}
 
-		if (result1) {
-			UndoableEdit edit = new AddConnectionEdit(key1, key2);
+				if (element1.isInSet1() == element2.isInSet1()) {
+					throw new IllegalArgumentException(
+							"Cannot connect elements from the same set");
+				}
+			}
 
-			firePropertyChange(CONNECTION_ADDED, key1, key2);
-			postEdit(edit);
-		} 
+			CompoundEdit addEdit = new CompoundEdit();
+			for (int i = 0; i < keys1.length; i++) {
+				changed(keys1[i]);
+				if (elements.get(keys1[i]).addConnection(keys2[i])) {
+					changed(keys2[i]);
+					elements.get(keys2[i]).addConnection(keys1[i]);
+					addEdit.addEdit(new AddConnectionEdit(keys1[i], keys2[i]));
+					firePropertyChange(CONNECTION_ADDED, keys1[i], keys2[i]);
+				}
+			}
+			addEdit.end();
+			postEdit(addEdit);
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -767,26 +1239,33 @@ public class DataModel implements Serializable {
 	 *            ključ drugog elementa
 	 */
 	public void removeConnection(int key1, int key2) {
-		Element element1 = elements.get(key1);
-		Element element2 = elements.get(key2);
-
-		if (element1 == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key " + key1);
-		}
+		lockConnections(key1, key2);
+		try {
+			Element element1 = elements.get(key1);
+			Element element2 = elements.get(key2);
+
+			if (element1 == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key " + key1);
+			}
 
-		if (element2 == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key " + key2);
-		}
+			if (element2 == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key " + key2);
+			}
 
-		if (elements.get(key1).removeConnection(key2)
-				&& elements.get(key2).removeConnection(key1)) {
+			changed(key1);
+			changed(key2);
+			if (elements.get(key1).removeConnection(key2)
+					&& elements.get(key2).removeConnection(key1)) {
 
-			UndoableEdit edit = new RemoveConnectionEdit(key1, key2);
+				UndoableEdit edit = new RemoveConnectionEdit(key1, key2);
 
-			firePropertyChange(CONNECTION_REMOVED, key1, key2);
-			postEdit(edit);
+				firePropertyChange(CONNECTION_REMOVED, key1, key2);
+				postEdit(edit);
+			}
+		} finally {
+			unlockConnections(key1, key2);
 		}
 	}
 
@@ -820,13 +1299,18 @@ public class DataModel implements Serializable {
 	 *         postoji u modelu
 	 */
 	public String getElement(int key) {
-		Element element = elements.get(key);
+		lockRead();
+		try {
+			Element element = elements.get(key);
 
-		if (element == null) {
-			return null;
-		}
+			if (element == null) {
+				return null;
+			}
 
-		return element.getText();
+			return element.getText();
+		} finally {
+			unlockRead();
+		}
 	}
 
 	/**
@@ -836,7 +1320,15 @@ public class DataModel implements Serializable {
 	 * @return lista ključeva elemenata prvog skupa
 	 */
 	public List<Integer> getKeys1() {
-		return keys1;
+		if (lock == null) {
+			return keys1;
+		}
+		lockRead();
+		try {
+			return Collections.unmodifiableList(new ArrayList<Integer>(keys1));
+		} finally {
+			unlockRead();
+		}
 	}
 
 	/**
@@ -846,7 +1338,15 @@ public class DataModel implements Serializable {
 	 * @return lista ključeva elemenata drugog skupa
 	 */
 	public List<Integer> getKeys2() {
-		return keys2;
+		if (lock == null) {
+			return keys2;
+		}
+		lockRead();
+		try {
+			return Collections.unmodifiableList(new ArrayList<Integer>(keys2));
+		} finally {
+			unlockRead();
+		}
 	}
 
 	/**
@@ -858,13 +1358,29 @@ public class DataModel implements Serializable {
 	 * @return sve veze koje vode iz zadanog elementa
 	 */
 	public Set<Integer> getConnections(int key) {
-		Element element = elements.get(key);
+		if (lock == null) {
+			Element element = elements.get(key);
+
+			if (element == null) {
+				return null;
+			}
 
-		if (element == null) {
-			return null;
+			return element.getConnections();
 		}
 
-		return element.getConnections();
+		lockConnections(key, key);
+		try {
+			Element element = elements.get(key);
+
+			if (element == null) {
+				return null;
+			}
+
+			return Collections.unmodifiableSet(new HashSet<Integer>(element
+					.getConnections()));
+		} finally {
+			unlockConnections(key, key);
+		}
 	}
 
 	/**
@@ -877,7 +1393,12 @@ public class DataModel implements Serializable {
 	 *            vrijednost obilježja
 	 */
 	public void setProperty(String propertyName, String propertyValue) {
-		properties.put(propertyName, propertyValue);
+		lockWrite();
+		try {
+			properties.put(propertyName, propertyValue);
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -889,7 +1410,12 @@ public class DataModel implements Serializable {
 	 *         ako obilježje sa zadanim imenom ne postoji
 	 */
 	public String getProperty(String propertyName) {
-		return properties.get(propertyName);
+		lockRead();
+		try {
+			return properties.get(propertyName);
+		} finally {
+			unlockRead();
+		}
 	}
 
 	/**
@@ -904,14 +1430,19 @@ public class DataModel implements Serializable {
 	 *            točno, <code>false</code> inače
 	 */
 	public void setSplitSafelyForElement(int key, boolean splitSafely) {
-		Element element = elements.get(key);
+		lockWrite();
+		try {
+			Element element = elements.get(key);
 
-		if (element == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key: " + key);
-		}
+			if (element == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key: " + key);
+			}
 
-		element.setSplitSafely(splitSafely);
+			element.setSplitSafely(splitSafely);
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -924,14 +1455,19 @@ public class DataModel implements Serializable {
 	 *         točno, <code>false</code> inače
 	 */
 	public boolean isElementSplitSafely(int key) {
-		Element element = elements.get(key);
+		lockRead();
+		try {
+			Element element = elements.get(key);
 
-		if (element == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key: " + key);
-		}
+			if (element == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key: " + key);
+			}
 
-		return element.isSplitSafely();
+			return element.isSplitSafely();
+		} finally {
+			unlockRead();
+		}
 	}
 
 	/**
@@ -944,14 +1480,20 @@ public class DataModel implements Serializable {
 	 *            broj odlomka
 	 */
 	public void setParagraphForElement(int key, int paragraph) {
-		Element element = elements.get(key);
+		lockWrite();
+		try {
+			Element element = elements.get(key);
 
-		if (element == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key: " + key);
-		}
+			if (element == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key: " + key);
+			}
 
-		element.setParagraph(paragraph);
+			changed(key);
+			element.setParagraph(paragraph);
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -962,14 +1504,19 @@ public class DataModel implements Serializable {
 	 * @return broj odlomka
 	 */
 	public int getParagraphForElement(int key) {
-		Element element = elements.get(key);
+		lockRead();
+		try {
+			Element element = elements.get(key);
 
-		if (element == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key: " + key);
-		}
+			if (element == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key: " + key);
+			}
 
-		return element.getParagraph();
+			return element.getParagraph();
+		} finally {
+			unlockRead();
+		}
 	}
 
 	/**
@@ -984,14 +1531,19 @@ public class DataModel implements Serializable {
 	 *            ako atributi nisu definirani
 	 */
 	public void setAttributesForElement(int key, Map<String, String> attributes) {
-		Element element = elements.get(key);
+		lockWrite();
+		try {
+			Element element = elements.get(key);
 
-		if (element == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key: " + key);
-		}
+			if (element == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key: " + key);
+			}
 
-		element.setAttributes(attributes);
+			element.setAttributes(attributes);
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -1005,14 +1557,19 @@ public class DataModel implements Serializable {
 	 *         atributi nisu definirani
 	 */
 	public Map<String, String> getAttributesForElement(int key) {
-		Element element = elements.get(key);
+		lockRead();
+		try {
+			Element element = elements.get(key);
 
-		if (element == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key: " + key);
-		}
+			if (element == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key: " + key);
+			}
 
-		return element.getAttributes();
+			return element.getAttributes();
+		} finally {
+			unlockRead();
+		}
 	}
 
 	/**
@@ -1025,7 +1582,12 @@ public class DataModel implements Serializable {
 	 *         ako je ime već postojalo u modelu.
 	 */
 	public boolean addXmlAttributeName(String attributeName) {
-		return xmlAttributes.add(attributeName);
+		lockWrite();
+		try {
+			return xmlAttributes.add(attributeName);
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -1034,7 +1596,15 @@ public class DataModel implements Serializable {
 	 * @return skup imena atributa
 	 */
 	public Set<String> getXmlAttributeNames() {
-		return xmlAttributes;
+		if (lock == null) {
+			return xmlAttributes;
+		}
+		lockRead();
+		try {
+			return Collections.unmodifiableSet(new HashSet<String>(xmlAttributes));
+		} finally {
+			unlockRead();
+		}
 	}
 
 	/**
@@ -1044,12 +1614,17 @@ public class DataModel implements Serializable {
 	 *            knjižna oznaka koja se dodaje
 	 */
 	public void addBookmark(Bookmark bookmark) {
-		bookmarks.add(bookmark);
+		lockWrite();
+		try {
+			bookmarks.add(bookmark);
 
-		UndoableEdit edit = new AddBookmarkEdit(bookmark);
+			UndoableEdit edit = new AddBookmarkEdit(bookmark);
 
-		firePropertyChange(BOOKMARK_ADDED, null, bookmark);
-		postEdit(edit);
+			firePropertyChange(BOOKMARK_ADDED, null, bookmark);
+			postEdit(edit);
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -1061,16 +1636,21 @@ public class DataModel implements Serializable {
 	 *         <code>false</code> inače
 	 */
 	public boolean removeBookmark(Bookmark bookmark) {
-		int index = bookmarks.indexOf(bookmark);
-		if (index != -1) {
-			bookmarks.remove(index);
-			UndoableEdit edit = new RemoveBookmarkEdit(index, bookmark);
-
-			firePropertyChange(BOOKMARK_REMOVED, bookmark, null);
-			postEdit(edit);
-			return true;
-		} else {
-			return false;
+		lockWrite();
+		try {
+			int index = bookmarks.indexOf(bookmark);
+			if (index != -1) {
+				bookmarks.remove(index);
+				UndoableEdit edit = new RemoveBookmarkEdit(index, bookmark);
+
+				firePropertyChange(BOOKMARK_REMOVED, bookmark, null);
+				postEdit(edit);
+				return true;
+			} else {
+				return false;
+			}
+		} finally {
+			unlockWrite();
 		}
 	}
 
@@ -1080,7 +1660,15 @@ public class DataModel implements Serializable {
 	 * @return knjižne oznake
 	 */
 	public List<Bookmark> getBookmarks() {
-		return bookmarks;
+		if (lock == null) {
+			return bookmarks;
+		}
+		lockRead();
+		try {
+			return Collections.unmodifiableList(new ArrayList<Bookmark>(bookmarks));
+		} finally {
+			unlockRead();
+		}
 	}
 
 //	/**
@@ -1123,40 +1711,50 @@ public class DataModel implements Serializable {
 	 * @return ključ novostvorenog elementa
 	 */
 	public int splitElement(int key, int length, boolean safeSplit) {
-		Element element = elements.get(key);
+		lockWrite();
+		try {
+			Element element = elements.get(key);
 
-		if (element == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key: " + key);
-		}
+			if (element == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key: " + key);
+			}
 
-		int lastKey = getLastKey();
-		int newKey = getNextKey();
-		if (element.isInSet1()) {
-			elements.put(newKey, new Element(newKey, element.getText()
-					.substring(length).trim(), Element.SET1, element
-					.getParagraph(), safeSplit));
-			keys1.add(keys1.indexOf(key) + 1, newKey);
-		} else {
-			elements.put(newKey, new Element(newKey, element.getText()
-					.substring(length).trim(), Element.SET2, element
-					.getParagraph(), safeSplit));
-			keys2.add(keys2.indexOf(key) + 1, newKey);
-		}
+			int lastKey = getLastKey();
+			int newKey = getNextKey();
+			if (element.isInSet1()) {
+				changed(newKey);
+				elements.put(newKey, new Element(newKey, element.getText()
+						.substring(length).trim(), Element.SET1, element
+						.getParagraph(), safeSplit));
+				keys1Changed = true;
+				keys1.add(keys1.indexOf(key) + 1, newKey);
+			} else {
+				changed(newKey);
+				elements.put(newKey, new Element(newKey, element.getText()
+						.substring(length).trim(), Element.SET2, element
+						.getParagraph(), safeSplit));
+				keys2Changed = true;
+				keys2.add(keys2.indexOf(key) + 1, newKey);
+			}
 
-		element.setText(element.getText().substring(0, length).trim());
+			changed(key);
+			element.setText(element.getText().substring(0, length).trim());
 
-		UndoableEdit edit = new SplitEdit(lastKey, key, newKey);
+			UndoableEdit edit = new SplitEdit(lastKey, key, newKey);
 
-		if (element.isInSet1()) {
-			firePropertyChange(ELEMENT_SPLIT_IN_SET1, key, newKey);
-		} else {
-			firePropertyChange(ELEMENT_SPLIT_IN_SET2, key, newKey);
-		}
+			if (element.isInSet1()) {
+				firePropertyChange(ELEMENT_SPLIT_IN_SET1, key, newKey);
+			} else {
+				firePropertyChange(ELEMENT_SPLIT_IN_SET2, key, newKey);
+			}
 
-		postEdit(edit);
+			postEdit(edit);
 
-		return newKey;
+			return newKey;
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -1172,47 +1770,57 @@ public class DataModel implements Serializable {
 	 *            ključ drugog elementa, taj se element briše iz modela
 	 */
 	public void combineElements(int key1, int key2) {
-		Element element1 = elements.get(key1);
-		Element element2 = elements.get(key2);
-
-		if (element1 == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key: " + key1);
-		}
+		lockWrite();
+		try {
+			Element element1 = elements.get(key1);
+			Element element2 = elements.get(key2);
+
+			if (element1 == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key: " + key1);
+			}
 
-		if (element2 == null) {
-			throw new IllegalArgumentException(
-					"Unable to find element with key: " + key2);
-		}
+			if (element2 == null) {
+				throw new IllegalArgumentException(
+						"Unable to find element with key: " + key2);
+			}
 
-		if (element1.isInSet1() != element2.isInSet1()) {
-			throw new IllegalArgumentException(
-					"Cannot combine elements from different sets");
-		}
+			if (element1.isInSet1() != element2.isInSet1()) {
+				throw new IllegalArgumentException(
+						"Cannot combine elements from different sets");
+			}
 
-		UndoableEdit edit = new CombineEdit(element1, element2);
+			UndoableEdit edit = new CombineEdit(element1, element2);
 
-		element1.setText(element1.getText() + element2.getText());
+			changed(key1);
+			element1.setText(element1.getText() + element2.getText());
 
-		// Uklanja se element2 i sve njegove veze
-		for (Integer destination : element2.getConnections()) {
-			elements.get(destination).removeConnection(key2);
-		}
+			// Uklanja se element2 i sve njegove veze
+			for (Integer destination : element2.getConnections()) {
+				changed(destination);
+				elements.get(destination).removeConnection(key2);
+			}
 
-		if (element2.isInSet1()) {
-			keys1.remove(Integer.valueOf(key2));
-		} else {
-			keys2.remove(Integer.valueOf(key2));
-		}
+			if (element2.isInSet1()) {
+				keys1Changed = true;
+				keys1.remove(Integer.valueOf(key2));
+			} else {
+				keys2Changed = true;
+				keys2.remove(Integer.valueOf(key2));
+			}
 
-		elements.remove(key2);
+			changed(key2);
+			elements.remove(key2);
 
-		if (element1.isInSet1()) {
-			firePropertyChange(ELEMENTS_COMBINED_IN_SET1, key2, key1);
-		} else {
-			firePropertyChange(ELEMENTS_COMBINED_IN_SET2, key2, key1);
+			if (element1.isInSet1()) {
+				firePropertyChange(ELEMENTS_COMBINED_IN_SET1, key2, key1);
+			} else {
+				firePropertyChange(ELEMENTS_COMBINED_IN_SET2, key2, key1);
+			}
+			postEdit(edit);
+		} finally {
+			unlockWrite();
 		}
-		postEdit(edit);
 	}
 
 	/**
@@ -1220,44 +1828,58 @@ public class DataModel implements Serializable {
 	 * biti prazan.
 	 */
 	public void clear() {
-		elements.clear();
-		keys1.clear();
-		keys2.clear();
-		bookmarks.clear();
-		xmlAttributes.clear();
-		properties.clear();
-		nextKey = 0;
-//		statistics = null;
-		compoundEdit = null;
-		compoundActions = false;
-		notifyListeners = true;
-
-		firePropertyChange(GLOBAL_CLEAR, null, null);
+		lockWrite();
+		try {
+			elements.clear();
+			keys1.clear();
+			keys2.clear();
+			lastSnapshot = null;
+			changedKeys = null;
+			bookmarks.clear();
+			xmlAttributes.clear();
+			properties.clear();
+			nextKey = 0;
+	//		statistics = null;
+			compoundEdit = null;
+			compoundActions = false;
+			notifyListeners = true;
+
+			firePropertyChange(GLOBAL_CLEAR, null, null);
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
 	 * Služi za osvježavanje pogleda. Metoda ponovno šalje događaje o dodavanju
-	 * svih elemenata, veza i knjižnih oznaka koje su već u modelu.
+	 * svih elemenata, veza i knjižnih oznaka koje su već u modelu. Model je
+	 * za to vrijeme zaključan za pisanje, jer se veze mijenjaju i dok je
+	 * model zaključan samo za čitanje.
 	 */
 	public void reloadAll() {
-		for (Integer key : keys1) {
-			firePropertyChange(ELEMENT_ADDED_IN_SET1, null, key);
-		}
+		lockWrite();
+		try {
+			for (Integer key : keys1) {
+				firePropertyChange(ELEMENT_ADDED_IN_SET1, null, key);
+			}
 
-		for (Integer key : keys2) {
-			firePropertyChange(ELEMENT_ADDED_IN_SET2, null, key);
-		}
+			for (Integer key : keys2) {
+				firePropertyChange(ELEMENT_ADDED_IN_SET2, null, key);
+			}
 
-		for (Integer leftKey : keys1) {
-			Element element = elements.get(leftKey);
+			for (Integer leftKey : keys1) {
+				Element element = elements.get(leftKey);
 
-			for (Integer rightKey : element.getConnections()) {
-				firePropertyChange(CONNECTION_ADDED, leftKey, rightKey);
+				for (Integer rightKey : element.getConnections()) {
+					firePropertyChange(CONNECTION_ADDED, leftKey, rightKey);
+				}
 			}
-		}
 
-		for (Bookmark bookmark : bookmarks) {
-			firePropertyChange(BOOKMARK_ADDED, null, bookmark);
+			for (Bookmark bookmark : bookmarks) {
+				firePropertyChange(BOOKMARK_ADDED, null, bookmark);
+			}
+		} finally {
+			unlockWrite();
 		}
 	}
 
@@ -1272,35 +1894,112 @@ public class DataModel implements Serializable {
 	 *            model iz kojeg se dodaju elementi
 	 */
 	public void addAll(DataModel model) {
-		for (Integer key : model.getKeys1()) {
-			String text = model.getElement(key);
-			int paragraph = model.getParagraphForElement(key);
-			Map<String, String> attributes = model.getAttributesForElement(key);
-			add1(text, paragraph, attributes);
-		}
+		lockWrite();
+		try {
+			for (Integer key : model.getKeys1()) {
+				String text = model.getElement(key);
+				int paragraph = model.getParagraphForElement(key);
+				Map<String, String> attributes = model.getAttributesForElement(key);
+				add1(text, paragraph, attributes);
+			}
 
-		for (Integer key : model.getKeys2()) {
-			String text = model.getElement(key);
-			int paragraph = model.getParagraphForElement(key);
-			Map<String, String> attributes = model.getAttributesForElement(key);
-			add2(text, paragraph, attributes);
-		}
+			for (Integer key : model.getKeys2()) {
+				String text = model.getElement(key);
+				int paragraph = model.getParagraphForElement(key);
+				Map<String, String> attributes = model.getAttributesForElement(key);
+				add2(text, paragraph, attributes);
+			}
 
-		for (Integer leftKey : model.getKeys1()) {
-			Set<Integer> connections = model.getConnections(leftKey);
+			for (Integer leftKey : model.getKeys1()) {
+				Set<Integer> connections = model.getConnections(leftKey);
+
+				for (Integer rightKey : connections) {
+					addConnection(leftKey, rightKey);
+				}
+			}
 
-			for (Integer rightKey : connections) {
-				addConnection(leftKey, rightKey);
+			for (Bookmark bookmark : model.getBookmarks()) {
+				addBookmark(bookmark);
 			}
+
+			xmlAttributes.addAll(model.xmlAttributes);
+			properties.putAll(model.properties);
+	//		setStatistics(model.getStatistics());
+		} finally {
+			unlockWrite();
 		}
+	}
 
-		for (Bookmark bookmark : model.getBookmarks()) {
-			addBookmark(bookmark);
+	/**
+	 * Stvara nepromjenjivu snimku trenutnog stanja modela: ključeva, tekstova i
+	 * odlomaka elemenata te veza. Snimku smije čitati više dretvi bez
+	 * zaključavanja dok se model dalje mijenja, pa je to jeftinija zamjena za
+	 * kopiranje modela metodom <code>addAll</code> kada je potreban samo
+	 * pogled na podatke (npr. za izvoz, statistiku ili indeksiranje).
+	 * <p>
+	 * Model bilježi ključeve elemenata koje mijenja, pa snimka kopira samo
+	 * podatke elemenata promijenjenih od prethodne snimke (i liste ključeva
+	 * ako su se promijenile), a podatke ostalih elemenata dijeli s prethodnom
+	 * snimkom; tek prva snimka kopira sve elemente. Cijena snimke je zato
+	 * razmjerna broju promjena, a ne veličini modela (vidi
+	 * <code>DataModelSnapshot</code>). U konkurentnom načinu rada model je za
+	 * vrijeme stvaranja snimke zaključan za pisanje, kako bi snimka prikazivala
+	 * stanje modela u jednom trenutku.
+	 * 
+	 * @return snimka modela
+	 * @see DataModelSnapshot
+	 */
+	public DataModelSnapshot snapshot() {
+		lockWrite();
+		try {
+			if (lastSnapshot == null) {
+				lastSnapshot = new DataModelSnapshot(keys1, keys2, elements);
+				changedKeys = Collections
+						.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+			} else {
+				lastSnapshot = new DataModelSnapshot(lastSnapshot,
+						keys1Changed ? keys1 : null, keys2Changed ? keys2 : null,
+						elements, changedKeys);
+				changedKeys.clear();
+			}
+			keys1Changed = false;
+			keys2Changed = false;
+			return lastSnapshot;
+		} finally {
+			unlockWrite();
 		}
+	}
 
-		xmlAttributes.addAll(model.xmlAttributes);
-		properties.putAll(model.properties);
-//		setStatistics(model.getStatistics());
+	/**
+	 * Kod serijalizacije zamjenjuje model njegovim sažetim binarnim zapisom.
+	 * 
+	 * @return zapis modela
+	 */
+	private Object writeReplace() {
+		return new CompactDataModel(this);
+	}
+
+	/**
+	 * Zapisuje model u sažetom binarnom zapisu dok je model zaključan za
+	 * pisanje, jer se skupovi veza mijenjaju i dok je model zaključan samo za
+	 * čitanje.
+	 * 
+	 * @param format
+	 *            zapis modela
+	 * @param out
+	 *            izlaz u koji se model zapisuje
+	 * @throws IOException
+	 *             ako zapisivanje ne uspije
+	 */
+	void writeCompact(CompactDataModel format, ObjectOutput out)
+			throws IOException {
+		lockWrite();
+		try {
+			format.write(out, elements, keys1, keys2, nextKey, bookmarks,
+					xmlAttributes, properties);
+		} finally {
+			unlockWrite();
+		}
 	}
 
 	/**
@@ -1360,43 +2059,59 @@ public class DataModel implements Serializable {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			element = elements.remove(currentKey);
-
-			if (element != null) {
+			lockWrite();
+			try {
+				changed(currentKey);
+				element = elements.remove(currentKey);
+
+				if (element != null) {
+
+					nextKey = lastKey;
+
+					if (element.isInSet1()) {
+						keys1Changed = true;
+						keys1.remove(Integer.valueOf(currentKey));
+						firePropertyChange(ELEMENT_REMOVED_FROM_SET1, currentKey,
+								null);
+					} else {
+						keys2Changed = true;
+						keys2.remove(Integer.valueOf(currentKey));
+						firePropertyChange(ELEMENT_REMOVED_FROM_SET2, currentKey,
+								null);
+					}
 
-				nextKey = lastKey;
-
-				if (element.isInSet1()) {
-					keys1.remove(Integer.valueOf(currentKey));
-					firePropertyChange(ELEMENT_REMOVED_FROM_SET1, currentKey,
-							null);
 				} else {
-					keys2.remove(Integer.valueOf(currentKey));
-					firePropertyChange(ELEMENT_REMOVED_FROM_SET2, currentKey,
-							null);
+					throw new IllegalStateException(
+							"Cannot find element with key: " + currentKey);
 				}
-
-			} else {
-				throw new IllegalStateException(
-						"Cannot find element with key: " + currentKey);
+			} finally {
+				unlockWrite();
 			}
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			if (element == null) {
-				throw new IllegalStateException("Cannot redo");
-			}
-			nextKey = currentKey;
+			lockWrite();
+			try {
+				if (element == null) {
+					throw new IllegalStateException("Cannot redo");
+				}
+				nextKey = currentKey;
 
-			elements.put(currentKey, element);
-			if (element.isInSet1()) {
-				keys1.add(currentKey);
-				firePropertyChange(ELEMENT_ADDED_IN_SET1, null, currentKey);
-			} else {
-				keys2.add(currentKey);
-				firePropertyChange(ELEMENT_ADDED_IN_SET2, null, currentKey);
+				changed(currentKey);
+				elements.put(currentKey, element);
+				if (element.isInSet1()) {
+					keys1Changed = true;
+					keys1.add(currentKey);
+					firePropertyChange(ELEMENT_ADDED_IN_SET1, null, currentKey);
+				} else {
+					keys2Changed = true;
+					keys2.add(currentKey);
+					firePropertyChange(ELEMENT_ADDED_IN_SET2, null, currentKey);
+				}
+			} finally {
+				unlockWrite();
 			}
 		}
 
@@ -1446,45 +2161,61 @@ public class DataModel implements Serializable {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			element = elements.remove(currentKey);
-
-			if (element != null) {
-
-				nextKey = lastKey;
+			lockWrite();
+			try {
+				changed(currentKey);
+				element = elements.remove(currentKey);
+
+				if (element != null) {
+
+					nextKey = lastKey;
+
+					if (element.isInSet1()) {
+						keys1Changed = true;
+						keys1.remove(Integer.valueOf(currentKey));
+						firePropertyChange(ELEMENT_REMOVED_FROM_SET1, currentKey,
+								null);
+					} else {
+						keys2Changed = true;
+						keys2.remove(Integer.valueOf(currentKey));
+						firePropertyChange(ELEMENT_REMOVED_FROM_SET2, currentKey,
+								null);
+					}
 
-				if (element.isInSet1()) {
-					keys1.remove(Integer.valueOf(currentKey));
-					firePropertyChange(ELEMENT_REMOVED_FROM_SET1, currentKey,
-							null);
 				} else {
-					keys2.remove(Integer.valueOf(currentKey));
-					firePropertyChange(ELEMENT_REMOVED_FROM_SET2, currentKey,
-							null);
+					throw new IllegalStateException(
+							"Cannot find element with key: " + currentKey);
 				}
-
-			} else {
-				throw new IllegalStateException(
-						"Cannot find element with key: " + currentKey);
+			} finally {
+				unlockWrite();
 			}
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			if (element == null) {
-				throw new IllegalStateException("Cannot redo");
-			}
-			nextKey = currentKey;
+			lockWrite();
+			try {
+				if (element == null) {
+					throw new IllegalStateException("Cannot redo");
+				}
+				nextKey = currentKey;
 
-			elements.put(currentKey, element);
-			if (element.isInSet1()) {
-				keys1.add(index, currentKey);
-				firePropertyChange(ELEMENT_INSERTED_IN_SET1, null,
-						constructPair(index, currentKey));
-			} else {
-				keys2.add(index, currentKey);
-				firePropertyChange(ELEMENT_INSERTED_IN_SET2, null,
-						constructPair(index, currentKey));
+				changed(currentKey);
+				elements.put(currentKey, element);
+				if (element.isInSet1()) {
+					keys1Changed = true;
+					keys1.add(index, currentKey);
+					firePropertyChange(ELEMENT_INSERTED_IN_SET1, null,
+							constructPair(index, currentKey));
+				} else {
+					keys2Changed = true;
+					keys2.add(index, currentKey);
+					firePropertyChange(ELEMENT_INSERTED_IN_SET2, null,
+							constructPair(index, currentKey));
+				}
+			} finally {
+				unlockWrite();
 			}
 		}
 
@@ -1527,30 +2258,42 @@ public class DataModel implements Serializable {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			Element element = elements.get(key);
-			String newText = element.getText();
-			element.setText(text);
-			text = newText;
+			lockWrite();
+			try {
+				Element element = elements.get(key);
+				String newText = element.getText();
+				changed(key);
+				element.setText(text);
+				text = newText;
 
-			if (element.isInSet1()) {
-				firePropertyChange(ELEMENT_UPDATED_IN_SET1, null, key);
-			} else {
-				firePropertyChange(ELEMENT_UPDATED_IN_SET2, null, key);
+				if (element.isInSet1()) {
+					firePropertyChange(ELEMENT_UPDATED_IN_SET1, null, key);
+				} else {
+					firePropertyChange(ELEMENT_UPDATED_IN_SET2, null, key);
+				}
+			} finally {
+				unlockWrite();
 			}
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			Element element = elements.get(key);
-			String newText = element.getText();
-			element.setText(text);
-			text = newText;
+			lockWrite();
+			try {
+				Element element = elements.get(key);
+				String newText = element.getText();
+				changed(key);
+				element.setText(text);
+				text = newText;
 
-			if (element.isInSet1()) {
-				firePropertyChange(ELEMENT_UPDATED_IN_SET1, null, key);
-			} else {
-				firePropertyChange(ELEMENT_UPDATED_IN_SET2, null, key);
+				if (element.isInSet1()) {
+					firePropertyChange(ELEMENT_UPDATED_IN_SET1, null, key);
+				} else {
+					firePropertyChange(ELEMENT_UPDATED_IN_SET2, null, key);
+				}
+			} finally {
+				unlockWrite();
 			}
 		}
 
@@ -1596,43 +2339,61 @@ public class DataModel implements Serializable {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			elements.put(key, element);
+			lockWrite();
+			try {
+				changed(key);
+				elements.put(key, element);
 
-			if (element.isInSet1()) {
-				keys1.add(index, key);
-				firePropertyChange(ELEMENT_INSERTED_IN_SET1, null,
-						constructPair(index, key));
-			} else {
-				keys2.add(index, key);
-				firePropertyChange(ELEMENT_INSERTED_IN_SET2, null,
-						constructPair(index, key));
-			}
-
-			for (Integer destination : element.getConnections()) {
-				elements.get(destination).addConnection(key);
 				if (element.isInSet1()) {
-					firePropertyChange(CONNECTION_ADDED, key, destination);
+					keys1Changed = true;
+					keys1.add(index, key);
+					firePropertyChange(ELEMENT_INSERTED_IN_SET1, null,
+							constructPair(index, key));
 				} else {
-					firePropertyChange(CONNECTION_ADDED, destination, key);
+					keys2Changed = true;
+					keys2.add(index, key);
+					firePropertyChange(ELEMENT_INSERTED_IN_SET2, null,
+							constructPair(index, key));
+				}
+
+				for (Integer destination : element.getConnections()) {
+					changed(destination);
+					elements.get(destination).addConnection(key);
+					if (element.isInSet1()) {
+						firePropertyChange(CONNECTION_ADDED, key, destination);
+					} else {
+						firePropertyChange(CONNECTION_ADDED, destination, key);
+					}
 				}
+			} finally {
+				unlockWrite();
 			}
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			for (Integer destination : element.getConnections()) {
-				elements.get(destination).removeConnection(key);
-			}
+			lockWrite();
+			try {
+				for (Integer destination : element.getConnections()) {
+					changed(destination);
+					elements.get(destination).removeConnection(key);
+				}
 
-			elements.remove(key);
+				changed(key);
+				elements.remove(key);
 
-			if (element.isInSet1()) {
-				keys1.remove(Integer.valueOf(key));
-				firePropertyChange(ELEMENT_REMOVED_FROM_SET1, key, null);
-			} else {
-				keys2.remove(Integer.valueOf(key));
-				firePropertyChange(ELEMENT_REMOVED_FROM_SET2, key, null);
+				if (element.isInSet1()) {
+					keys1Changed = true;
+					keys1.remove(Integer.valueOf(key));
+					firePropertyChange(ELEMENT_REMOVED_FROM_SET1, key, null);
+				} else {
+					keys2Changed = true;
+					keys2.remove(Integer.valueOf(key));
+					firePropertyChange(ELEMENT_REMOVED_FROM_SET2, key, null);
+				}
+			} finally {
+				unlockWrite();
 			}
 		}
 
@@ -1675,19 +2436,33 @@ public class DataModel implements Serializable {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			elements.get(key1).removeConnection(key2);
-			elements.get(key2).removeConnection(key1);
-
-			firePropertyChange(CONNECTION_REMOVED, key1, key2);
+			lockWrite();
+			try {
+				changed(key1);
+				elements.get(key1).removeConnection(key2);
+				changed(key2);
+				elements.get(key2).removeConnection(key1);
+
+				firePropertyChange(CONNECTION_REMOVED, key1, key2);
+			} finally {
+				unlockWrite();
+			}
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			elements.get(key1).addConnection(key2);
-			elements.get(key2).addConnection(key1);
-
-			firePropertyChange(CONNECTION_ADDED, key1, key2);
+			lockWrite();
+			try {
+				changed(key1);
+				elements.get(key1).addConnection(key2);
+				changed(key2);
+				elements.get(key2).addConnection(key1);
+
+				firePropertyChange(CONNECTION_ADDED, key1, key2);
+			} finally {
+				unlockWrite();
+			}
 		}
 
 		public String getPresentationName() {
@@ -1729,19 +2504,33 @@ public class DataModel implements Serializable {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			elements.get(key1).addConnection(key2);
-			elements.get(key2).addConnection(key1);
-
-			firePropertyChange(CONNECTION_ADDED, key1, key2);
+			lockWrite();
+			try {
+				changed(key1);
+				elements.get(key1).addConnection(key2);
+				changed(key2);
+				elements.get(key2).addConnection(key1);
+
+				firePropertyChange(CONNECTION_ADDED, key1, key2);
+			} finally {
+				unlockWrite();
+			}
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			elements.get(key1).removeConnection(key2);
-			elements.get(key2).removeConnection(key1);
-
-			firePropertyChange(CONNECTION_REMOVED, key1, key2);
+			lockWrite();
+			try {
+				changed(key1);
+				elements.get(key1).removeConnection(key2);
+				changed(key2);
+				elements.get(key2).removeConnection(key1);
+
+				firePropertyChange(CONNECTION_REMOVED, key1, key2);
+			} finally {
+				unlockWrite();
+			}
 		}
 
 		public String getPresentationName() {
@@ -1778,17 +2567,27 @@ public class DataModel implements Serializable {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			bookmarks.remove(bookmark);
+			lockWrite();
+			try {
+				bookmarks.remove(bookmark);
 
-			firePropertyChange(BOOKMARK_REMOVED, bookmark, null);
+				firePropertyChange(BOOKMARK_REMOVED, bookmark, null);
+			} finally {
+				unlockWrite();
+			}
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			bookmarks.add(bookmark);
+			lockWrite();
+			try {
+				bookmarks.add(bookmark);
 
-			firePropertyChange(BOOKMARK_ADDED, null, bookmark);
+				firePropertyChange(BOOKMARK_ADDED, null, bookmark);
+			} finally {
+				unlockWrite();
+			}
 		}
 
 		public String getPresentationName() {
@@ -1829,17 +2628,27 @@ public class DataModel implements Serializable {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			bookmarks.add(index, bookmark);
+			lockWrite();
+			try {
+				bookmarks.add(index, bookmark);
 
-			firePropertyChange(BOOKMARK_ADDED, null, bookmark);
+				firePropertyChange(BOOKMARK_ADDED, null, bookmark);
+			} finally {
+				unlockWrite();
+			}
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			bookmarks.remove(bookmark);
+			lockWrite();
+			try {
+				bookmarks.remove(bookmark);
 
-			firePropertyChange(BOOKMARK_REMOVED, bookmark, null);
+				firePropertyChange(BOOKMARK_REMOVED, bookmark, null);
+			} finally {
+				unlockWrite();
+			}
 		}
 
 		public String getPresentationName() {
@@ -1893,41 +2702,59 @@ public class DataModel implements Serializable {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			element1 = elements.get(key1);
-			element2 = elements.get(key2);
+			lockWrite();
+			try {
+				element1 = elements.get(key1);
+				element2 = elements.get(key2);
 
-			text1 = element1.getText();
+				text1 = element1.getText();
 
-			element1.setText(element1.getText() + element2.getText());
+				changed(key1);
+				element1.setText(element1.getText() + element2.getText());
 
-			nextKey = lastKey;
+				nextKey = lastKey;
 
-			elements.remove(key2);
+				changed(key2);
+				elements.remove(key2);
 
-			if (element2.isInSet1()) {
-				keys1.remove(Integer.valueOf(key2));
-				firePropertyChange(ELEMENTS_COMBINED_IN_SET1, key2, key1);
-			} else {
-				keys2.remove(Integer.valueOf(key2));
-				firePropertyChange(ELEMENTS_COMBINED_IN_SET2, key2, key1);
+				if (element2.isInSet1()) {
+					keys1Changed = true;
+					keys1.remove(Integer.valueOf(key2));
+					firePropertyChange(ELEMENTS_COMBINED_IN_SET1, key2, key1);
+				} else {
+					keys2Changed = true;
+					keys2.remove(Integer.valueOf(key2));
+					firePropertyChange(ELEMENTS_COMBINED_IN_SET2, key2, key1);
+				}
+			} finally {
+				unlockWrite();
 			}
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			lastKey = key2;
+			lockWrite();
+			try {
+				lastKey = key2;
 
-			elements.put(key2, element2);
+				changed(key2);
+				elements.put(key2, element2);
 
-			element1.setText(text1);
+				changed(key1);
+				element1.setText(text1);
 
-			if (element2.isInSet1()) {
-				keys1.add(keys1.indexOf(key1) + 1, key2);
-				firePropertyChange(ELEMENT_SPLIT_IN_SET1, key1, key2);
-			} else {
-				keys2.add(keys2.indexOf(key1) + 1, key2);
-				firePropertyChange(ELEMENT_SPLIT_IN_SET2, key1, key2);
+				if (element2.isInSet1()) {
+					keys1Changed = true;
+					keys1.add(keys1.indexOf(key1) + 1, key2);
+					firePropertyChange(ELEMENT_SPLIT_IN_SET1, key1, key2);
+				} else {
+					keys2Changed = true;
+					keys2.add(keys2.indexOf(key1) + 1, key2);
+					firePropertyChange(ELEMENT_SPLIT_IN_SET2, key1, key2);
+				}
+			} finally {
+				unlockWrite();
 			}
 		}
 
@@ -1980,46 +2807,66 @@ public class DataModel implements Serializable {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			element1.setText(text1);
+			lockWrite();
+			try {
+				changed(key1);
+				element1.setText(text1);
 
-			elements.put(key2, element2);
-
-			if (element2.isInSet1()) {
-				keys1.add(keys1.indexOf(key1) + 1, key2);
-				firePropertyChange(ELEMENT_SPLIT_IN_SET1, key1, key2);
-			} else {
-				keys2.add(keys2.indexOf(key1) + 1, key2);
-				firePropertyChange(ELEMENT_SPLIT_IN_SET2, key1, key2);
-			}
-
-			for (Integer destination : element2.getConnections()) {
-				elements.get(destination).addConnection(key2);
+				changed(key2);
+				elements.put(key2, element2);
 
 				if (element2.isInSet1()) {
-					firePropertyChange(CONNECTION_ADDED, key2, destination);
+					keys1Changed = true;
+					keys1.add(keys1.indexOf(key1) + 1, key2);
+					firePropertyChange(ELEMENT_SPLIT_IN_SET1, key1, key2);
 				} else {
-					firePropertyChange(CONNECTION_ADDED, destination, key2);
+					keys2Changed = true;
+					keys2.add(keys2.indexOf(key1) + 1, key2);
+					firePropertyChange(ELEMENT_SPLIT_IN_SET2, key1, key2);
 				}
+
+				for (Integer destination : element2.getConnections()) {
+					changed(destination);
+					elements.get(destination).addConnection(key2);
+
+					if (element2.isInSet1()) {
+						firePropertyChange(CONNECTION_ADDED, key2, destination);
+					} else {
+						firePropertyChange(CONNECTION_ADDED, destination, key2);
+					}
+				}
+			} finally {
+				unlockWrite();
 			}
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			element1.setText(element1.getText() + element2.getText());
-
-			for (Integer destination : element2.getConnections()) {
-				elements.get(destination).removeConnection(key2);
-			}
+			lockWrite();
+			try {
+				changed(key1);
+				element1.setText(element1.getText() + element2.getText());
+
+				for (Integer destination : element2.getConnections()) {
+					changed(destination);
+					elements.get(destination).removeConnection(key2);
+				}
 
-			elements.remove(key2);
+				changed(key2);
+				elements.remove(key2);
 
-			if (element2.isInSet1()) {
-				keys1.remove(Integer.valueOf(key2));
-				firePropertyChange(ELEMENTS_COMBINED_IN_SET1, key2, key1);
-			} else {
-				keys2.remove(Integer.valueOf(key2));
-				firePropertyChange(ELEMENTS_COMBINED_IN_SET2, key2, key1);
+				if (element2.isInSet1()) {
+					keys1Changed = true;
+					keys1.remove(Integer.valueOf(key2));
+					firePropertyChange(ELEMENTS_COMBINED_IN_SET1, key2, key1);
+				} else {
+					keys2Changed = true;
+					keys2.remove(Integer.valueOf(key2));
+					firePropertyChange(ELEMENTS_COMBINED_IN_SET2, key2, key1);
+				}
+			} finally {
+				unlockWrite();
 			}
 		}
 
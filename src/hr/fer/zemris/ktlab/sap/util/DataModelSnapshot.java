@@ -0,0 +1,284 @@
+package hr.fer.zemris.ktlab.sap.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Nepromjenjiva snimka stanja modela (<code>DataModel</code>) u jednom
+ * trenutku: ključevi oba skupa, tekstovi i odlomci elemenata te veze između
+ * njih. Snimku smije istovremeno čitati više dretvi bez ikakvog
+ * zaključavanja, a promjene modela nakon stvaranja snimke u njoj se ne vide.
+ * <p>
+ * Snimka se stvara metodom <code>DataModel.snapshot()</code>. Podaci
+ * elemenata koji se nisu promijenili od prethodne snimke istog modela ne
+ * kopiraju se ponovno, nego se dijele s prethodnom snimkom, kao i liste
+ * ključeva ako se nisu promijenile.
+ * <p>
+ * Podaci elemenata spremljeni su u slojevima: najstariji sloj sadrži sve
+ * elemente, a svaki sljedeći samo elemente promijenjene, dodane ili
+ * uklonjene nakon prethodnog sloja. Nova snimka dijeli slojeve prethodne i
+ * dodaje jedan sloj s promjenama. Sloj koji nije barem dvostruko veći od
+ * sljedećeg spaja se s njim, pa slojeva ima najviše logaritamski mnogo, a
+ * podaci svakog promijenjenog elementa kopiraju se u prosjeku logaritamski
+ * mnogo puta. Stvaranje snimke zato traje razmjerno broju promjena, a ne
+ * broju elemenata u modelu.
+ *
+ * @see DataModel#snapshot()
+ */
+public final class DataModelSnapshot {
+
+	/**
+	 * Nepromjenjivi podaci jednog elementa. Dijele ih sve snimke u kojima je
+	 * element nepromijenjen.
+	 */
+	private static final class ElementData {
+
+		/** Tekst elementa */
+		private final String text;
+
+		/** Broj odlomka u kojem se element nalazi */
+		private final int paragraph;
+
+		/** Označava da li je element iz prvog skupa */
+		private final boolean inSet1;
+
+		/** Nepromjenjivi skup ključeva elemenata s kojima je element povezan */
+		private final Set<Integer> connections;
+
+		/**
+		 * Konstruktor klase, kopira podatke elementa.
+		 *
+		 * @param element
+		 *            element čiji se podaci kopiraju
+		 */
+		private ElementData(Element element) {
+			this.text = element.getText();
+			this.paragraph = element.getParagraph();
+			this.inSet1 = element.isInSet1();
+			this.connections = Collections.unmodifiableSet(new HashSet<Integer>(
+					element.getConnections()));
+		}
+	}
+
+	/** Ključevi elemenata prvog skupa, redom */
+	private final List<Integer> keys1;
+
+	/** Ključevi elemenata drugog skupa, redom */
+	private final List<Integer> keys2;
+
+	/**
+	 * Slojevi podataka elemenata po ključevima, od najstarijeg (svi elementi)
+	 * do najnovijeg; uklonjeni elementi imaju vrijednost <code>null</code>
+	 */
+	private final List<Map<Integer, ElementData>> layers;
+
+	/**
+	 * Konstruktor klase za prvu snimku modela, kopira podatke svih elemenata.
+	 * Poziva se dok model ne mijenja niti jedna druga dretva.
+	 *
+	 * @param keys1
+	 *            ključevi elemenata prvog skupa iz modela
+	 * @param keys2
+	 *            ključevi elemenata drugog skupa iz modela
+	 * @param elements
+	 *            elementi iz modela
+	 */
+	DataModelSnapshot(List<Integer> keys1, List<Integer> keys2,
+			Map<Integer, Element> elements) {
+		this.keys1 = Collections.unmodifiableList(new ArrayList<Integer>(keys1));
+		this.keys2 = Collections.unmodifiableList(new ArrayList<Integer>(keys2));
+
+		Map<Integer, ElementData> data = new HashMap<Integer, ElementData>(
+				elements.size() * 4 / 3 + 1);
+		for (Map.Entry<Integer, Element> entry : elements.entrySet()) {
+			data.put(entry.getKey(), new ElementData(entry.getValue()));
+		}
+		this.layers = new ArrayList<Map<Integer, ElementData>>(1);
+		this.layers.add(data);
+	}
+
+	/**
+	 * Konstruktor klase za snimku koja nastavlja prethodnu snimku istog
+	 * modela, kopira samo podatke promijenjenih elemenata. Poziva se dok
+	 * model ne mijenja niti jedna druga dretva.
+	 *
+	 * @param previous
+	 *            prethodna snimka istog modela
+	 * @param keys1
+	 *            ključevi elemenata prvog skupa iz modela ili
+	 *            <code>null</code> ako se nisu promijenili
+	 * @param keys2
+	 *            ključevi elemenata drugog skupa iz modela ili
+	 *            <code>null</code> ako se nisu promijenili
+	 * @param elements
+	 *            elementi iz modela
+	 * @param changedKeys
+	 *            ključevi elemenata koji su promijenjeni, dodani ili uklonjeni
+	 *            nakon prethodne snimke
+	 */
+	DataModelSnapshot(DataModelSnapshot previous, List<Integer> keys1,
+			List<Integer> keys2, Map<Integer, Element> elements,
+			Set<Integer> changedKeys) {
+		this.keys1 = (keys1 == null) ? previous.keys1 : Collections
+				.unmodifiableList(new ArrayList<Integer>(keys1));
+		this.keys2 = (keys2 == null) ? previous.keys2 : Collections
+				.unmodifiableList(new ArrayList<Integer>(keys2));
+
+		List<Map<Integer, ElementData>> layers = new ArrayList<Map<Integer, ElementData>>(
+				previous.layers);
+		if (!changedKeys.isEmpty()) {
+			Map<Integer, ElementData> layer = new HashMap<Integer, ElementData>(
+					changedKeys.size() * 4 / 3 + 1);
+			for (Integer key : changedKeys) {
+				Element element = elements.get(key);
+				layer.put(key, (element == null) ? null : new ElementData(element));
+			}
+			layers.add(layer);
+		}
+
+		// Spajaju se slojevi dok je predzadnji barem dvostruko veći od zadnjeg.
+		while (layers.size() > 1) {
+			Map<Integer, ElementData> newer = layers.get(layers.size() - 1);
+			Map<Integer, ElementData> older = layers.get(layers.size() - 2);
+			if (older.size() > 2 * newer.size()) {
+				break;
+			}
+			Map<Integer, ElementData> merged = new HashMap<Integer, ElementData>(
+					(older.size() + newer.size()) * 4 / 3 + 1);
+			merged.putAll(older);
+			merged.putAll(newer);
+			if (layers.size() == 2) {
+				// Najstariji sloj sadrži samo elemente koji postoje.
+				Iterator<ElementData> values = merged.values().iterator();
+				while (values.hasNext()) {
+					if (values.next() == null) {
+						values.remove();
+					}
+				}
+			}
+			layers.remove(layers.size() - 1);
+			layers.set(layers.size() - 1, merged);
+		}
+		this.layers = layers;
+	}
+
+	/**
+	 * Dohvaća podatke elementa iz najnovijeg sloja koji ih sadrži.
+	 *
+	 * @param key
+	 *            ključ elementa
+	 * @return podaci elementa ili <code>null</code> ako element ne postoji u
+	 *         snimci
+	 */
+	private ElementData data(int key) {
+		Integer boxedKey = Integer.valueOf(key);
+		for (int i = layers.size() - 1; i >= 0; i--) {
+			Map<Integer, ElementData> layer = layers.get(i);
+			ElementData data = layer.get(boxedKey);
+			if (data != null || layer.containsKey(boxedKey)) {
+				return data;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Dohvaća listu ključeva elemenata koji se nalaze u prvom skupu. Lista
+	 * čuva poredak elemenata i ne može se mijenjati.
+	 *
+	 * @return lista ključeva elemenata prvog skupa
+	 */
+	public List<Integer> getKeys1() {
+		return keys1;
+	}
+
+	/**
+	 * Dohvaća listu ključeva elemenata koji se nalaze u drugom skupu. Lista
+	 * čuva poredak elemenata i ne može se mijenjati.
+	 *
+	 * @return lista ključeva elemenata drugog skupa
+	 */
+	public List<Integer> getKeys2() {
+		return keys2;
+	}
+
+	/**
+	 * Dohvaća tekst elementa na temelju njegova ključa.
+	 *
+	 * @param key
+	 *            ključ elementa koji se dohvaća
+	 * @return tekst elementa ili <code>null</code> ako element ne postoji u
+	 *         snimci
+	 */
+	public String getElement(int key) {
+		ElementData element = data(key);
+
+		if (element == null) {
+			return null;
+		}
+
+		return element.text;
+	}
+
+	/**
+	 * Dohvaća broj odlomka u kojem se nalazi element sa zadanim ključem.
+	 *
+	 * @param key
+	 *            ključ elementa za koji se dohvaća broj odlomka
+	 * @return broj odlomka
+	 */
+	public int getParagraphForElement(int key) {
+		ElementData element = data(key);
+
+		if (element == null) {
+			throw new IllegalArgumentException(
+					"Unable to find element with key: " + key);
+		}
+
+		return element.paragraph;
+	}
+
+	/**
+	 * Provjerava da li je element sa zadanim ključem iz prvog skupa.
+	 *
+	 * @param key
+	 *            ključ elementa
+	 * @return <code>true</code> ako je element iz prvog skupa,
+	 *         <code>false</code> ako je iz drugog skupa
+	 */
+	public boolean isInSet1(int key) {
+		ElementData element = data(key);
+
+		if (element == null) {
+			throw new IllegalArgumentException(
+					"Unable to find element with key: " + key);
+		}
+
+		return element.inSet1;
+	}
+
+	/**
+	 * Dohvaća nepromjenjivi skup ključeva elemenata s kojima je povezan
+	 * element sa zadanim ključem.
+	 *
+	 * @param key
+	 *            ključ elementa za kojeg se dohvaćaju veze
+	 * @return sve veze koje vode iz zadanog elementa ili <code>null</code> ako
+	 *         element ne postoji u snimci
+	 */
+	public Set<Integer> getConnections(int key) {
+		ElementData element = data(key);
+
+		if (element == null) {
+			return null;
+		}
+
+		return element.connections;
+	}
+}
@@ -0,0 +1,75 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import hr.fer.zemris.ktlab.sap.util.DataModel;
+
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Checks that <code>Aligner.alignSentences(deadline, listener)</code> keeps its
+ * deadline when a single large pair of paragraphs is aligned in the
+ * <code>BANDED</code> mode, corridor estimate included: with a deadline the
+ * banded alignment is expected to fit into, the pair is aligned in the
+ * <code>BANDED</code> mode and the alignment is complete; with a deadline it
+ * is only just expected to fit into, the alignment returns by the deadline
+ * (give or take <code>TOLERANCE</code>) and any pair aligned was aligned in
+ * the <code>BANDED</code> mode.
+ * <p>
+ * Run with <code>java hr.fer.zemris.ktlab.sap.algorithms.gc.AlignerDeadlineTest</code>;
+ * an <code>AssertionError</code> is thrown on the first failure.
+ */
+public class AlignerDeadlineTest {
+
+	/** The number of sentences of the paragraph in each language. */
+	private static final int SIZE = 16000;
+
+	/** The time in milliseconds the alignment may return after its deadline. */
+	private static final long TOLERANCE = 500;
+
+	/** The seed of the generated paragraphs. */
+	private static final long SEED = 20061018L;
+
+	public static void main(String[] args) {
+		AlignmentReport report = align(20000);
+		check(report.isComplete(), "complete", report);
+		check(report.getModes().equals(Collections.singletonList(AlignmentMode.BANDED)), "modes", report);
+		System.out.println("generous deadline: " + report.getModes() + " in " + report.getTime() + " ms: OK");
+
+		report = align(2000);
+		check(report.getTime() <= 2000 + TOLERANCE, "time", report);
+		for (AlignmentMode mode : report.getModes()) {
+			check(mode == AlignmentMode.BANDED, "modes", report);
+		}
+		System.out.println("tight deadline: " + report.getModes() + " in " + report.getTime() + " ms: OK");
+	}
+
+	/** Aligns a new pair of paragraphs of <code>SIZE</code> sentences with the given time left. */
+	private static AlignmentReport align(long time) {
+		Random random = new Random(SEED);
+		DataModel dataModel = new DataModel();
+		dataModel.setNotifyListeners(false);
+		for (int i=0; i<SIZE; ++i) {
+			int length = 5 + random.nextInt(150);
+			dataModel.add1(sentence(random, length), 0);
+			dataModel.add2(sentence(random, (int)(length * (0.8 + 0.4 * random.nextDouble())) + 1), 0);
+		}
+		return new Aligner(dataModel).alignSentences(System.currentTimeMillis() + time, null);
+	}
+
+	/** Returns a sentence of random letters of the given length. */
+	private static String sentence(Random random, int length) {
+		StringBuilder sentence = new StringBuilder(length);
+		for (int i=0; i<length; ++i) {
+			sentence.append((char)('a' + random.nextInt(26)));
+		}
+		return sentence.toString();
+	}
+
+	/** Throws an <code>AssertionError</code> describing the report if the condition is false. */
+	private static void check(boolean condition, String what, AlignmentReport report) {
+		if (!condition) {
+			throw new AssertionError("The alignment with a deadline failed in " + what + ": modes "
+					+ report.getModes() + ", complete " + report.isComplete() + ", " + report.getTime() + " ms");
+		}
+	}
+}
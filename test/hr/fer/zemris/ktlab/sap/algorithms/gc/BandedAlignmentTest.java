@@ -0,0 +1,118 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import hr.fer.zemris.ktlab.sap.util.DataModel;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that the <code>BANDED</code> mode finds the cheapest alignment of pairs of paragraphs
+ * with and without front matter in one language: the connections made by an <code>Aligner</code>
+ * in the <code>BANDED</code> mode must be those made in the <code>FULL</code> mode, and the
+ * corridor estimated by the <code>LengthCorrelator</code> must be smaller than a half of the
+ * array.
+ * <p>
+ * Run with <code>java hr.fer.zemris.ktlab.sap.algorithms.gc.BandedAlignmentTest</code>;
+ * an <code>AssertionError</code> is thrown on the first failure.
+ */
+public class BandedAlignmentTest {
+
+	/** The number of translated sentences of each pair. */
+	private static final int SIZE = 2000;
+
+	/** The number of pairs generated for each amount of front matter. */
+	private static final int PAIRS = 10;
+
+	/** The numbers of sentences of front matter in the source and in the destination language. */
+	private static final int[][] FRONT_MATTER = { { 0, 0 }, { 0, 150 }, { 0, 300 }, { 0, 600 }, { 150, 0 },
+			{ 300, 0 }, { 600, 0 } };
+
+	public static void main(String[] args) {
+		LengthCorrelator lengthCorrelator = new LengthCorrelator(LengthCorrelator.DEFAULT_WINDOW_SIZE);
+		for (int[] frontMatter : FRONT_MATTER) {
+			long cells = 0;
+			for (int seed=1; seed<=PAIRS; ++seed) {
+				int[][] lengths = pair(new Random(seed), frontMatter[0], frontMatter[1]);
+				int size1 = lengths[0].length;
+				int size2 = lengths[1].length;
+				String pair = "front matter " + frontMatter[0] + "/" + frontMatter[1] + ", seed " + seed;
+
+				Corridor corridor = lengthCorrelator.corridor(lengths[0], 0, size1, lengths[1], 0, size2,
+						LengthCorrelator.DEFAULT_RADIUS);
+				cells += corridor.cells();
+				check(corridor.cells() < (size1 + 1L) * (size2 + 1) / 2, "The corridor has "
+						+ corridor.cells() + " cells", pair);
+
+				DataModel full = align(lengths, AlignmentMode.FULL);
+				DataModel banded = align(lengths, AlignmentMode.BANDED);
+				for (Integer key : full.getKeys1()) {
+					check(banded.getConnections(key).equals(full.getConnections(key)), "The sentence " + key
+							+ " is connected to " + banded.getConnections(key) + " instead of "
+							+ full.getConnections(key), pair);
+				}
+			}
+			System.out.println("front matter " + frontMatter[0] + "/" + frontMatter[1] + ": "
+					+ cells / PAIRS + " cells in the corridor on average: OK");
+		}
+	}
+
+	/** Aligns a paragraph of sentences of the given lengths in each language in the mode. */
+	private static DataModel align(int[][] lengths, AlignmentMode mode) {
+		DataModel dataModel = new DataModel();
+		dataModel.setNotifyListeners(false);
+		for (int length : lengths[0]) dataModel.add1(sentence(length), 0);
+		for (int length : lengths[1]) dataModel.add2(sentence(length), 0);
+		Aligner aligner = new Aligner(dataModel);
+		aligner.setMode(mode);
+		aligner.alignSentences();
+		return dataModel;
+	}
+
+	/** Returns a sentence of the given length. */
+	private static String sentence(int length) {
+		char[] sentence = new char[length];
+		Arrays.fill(sentence, 'a');
+		return new String(sentence);
+	}
+
+	/**
+	 * Returns the lengths of the sentences of a pair of paragraphs: <code>SIZE</code> translated
+	 * sentences, some of them split, merged, dropped or joined by an inserted one, preceded by the
+	 * given numbers of untranslated sentences.
+	 */
+	private static int[][] pair(Random random, int frontMatter1, int frontMatter2) {
+		int[] lengths1 = new int[frontMatter1 + SIZE];
+		int[] lengths2 = new int[frontMatter2 + 3 * SIZE];
+		int size1 = 0;
+		int size2 = 0;
+		for (int i=0; i<frontMatter1; ++i) lengths1[size1++] = 5 + random.nextInt(250);
+		for (int i=0; i<frontMatter2; ++i) lengths2[size2++] = 5 + random.nextInt(250);
+		for (int i=0; i<SIZE; ++i) {
+			int length = 5 + random.nextInt(250);
+			lengths1[size1++] = length;
+			int translated = (int)(length * (0.8 + 0.4 * random.nextDouble())) + 1;
+			int kind = random.nextInt(20);
+			if (kind == 0) {
+				continue; // dropped
+			} else if (kind <= 2) {
+				lengths2[size2++] = translated / 2 + 1;
+				lengths2[size2++] = translated - translated / 2;
+			} else if (kind <= 4 && size2 > frontMatter2) {
+				lengths2[size2-1] += translated; // merged with the previous one
+			} else {
+				lengths2[size2++] = translated;
+			}
+			if (random.nextInt(30) == 0) lengths2[size2++] = 10 + random.nextInt(100);
+		}
+		int[] trimmed2 = new int[size2];
+		System.arraycopy(lengths2, 0, trimmed2, 0, size2);
+		return new int[][] { lengths1, trimmed2 };
+	}
+
+	/** Throws an <code>AssertionError</code> with the message and the pair if the condition is false. */
+	private static void check(boolean condition, String message, String pair) {
+		if (!condition) {
+			throw new AssertionError(message + " (" + pair + ")");
+		}
+	}
+}
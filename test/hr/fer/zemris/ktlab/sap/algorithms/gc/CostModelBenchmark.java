@@ -0,0 +1,77 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.Random;
+
+/**
+ * Compares the scalar and the batch (row) form of the distance measure, the
+ * way the dynamic programming fills a row of the array: once calling
+ * <code>distance(length1, length2) + penalty</code> for every cell, once
+ * calling <code>distances</code> for the whole row. Both the exact
+ * <code>GaleChurchCostModel.DEFAULT</code> and its compiled (tabulated) form
+ * are measured, and the results of both forms are checked to be the same.
+ * <p>
+ * Run with <code>java hr.fer.zemris.ktlab.sap.algorithms.gc.CostModelBenchmark [rows] [columns]</code>.
+ * Prints the time per cell of each model and form.
+ */
+public class CostModelBenchmark {
+
+	/** The number of times each measurement is repeated; the fastest one is reported. */
+	private static final int REPETITIONS = 7;
+
+	public static void main(String[] args) {
+		int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		int columns = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+
+		Random random = new Random(1);
+		int[] lengths1 = new int[rows];
+		int[] lengths2 = new int[columns];
+		for (int i=0; i<rows; ++i) lengths1[i] = 1 + random.nextInt(300);
+		for (int j=0; j<columns; ++j) lengths2[j] = 1 + random.nextInt(300);
+
+		CostModel[] models = { GaleChurchCostModel.DEFAULT, GaleChurchCostModel.DEFAULT.compile() };
+		String[] names = { "exact", "tabulated" };
+		for (int m=0; m<models.length; ++m) {
+			CostModel model = models[m];
+			int penalty = model.getContractionPenalty();
+			int[] scalar = new int[columns];
+			int[] batch = new int[columns];
+
+			for (int i=0; i<rows; ++i) {
+				model.distances(lengths1[i], lengths2, batch, 0, columns, penalty);
+				for (int j=0; j<columns; ++j) {
+					if (batch[j] != model.distance(lengths1[i], lengths2[j]) + penalty) {
+						throw new AssertionError("The scalar and the batch form of the " + names[m]
+								+ " model differ for lengths " + lengths1[i] + " and " + lengths2[j]);
+					}
+				}
+			}
+
+			long scalarTime = Long.MAX_VALUE;
+			long batchTime = Long.MAX_VALUE;
+			long checksum = 0;
+			for (int repetition=0; repetition<REPETITIONS; ++repetition) {
+				long start = System.nanoTime();
+				for (int i=0; i<rows; ++i) {
+					int length1 = lengths1[i];
+					for (int j=0; j<columns; ++j) {
+						scalar[j] = model.distance(length1, lengths2[j]) + penalty;
+					}
+					checksum += scalar[i % columns];
+				}
+				scalarTime = Math.min(scalarTime, System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for (int i=0; i<rows; ++i) {
+					model.distances(lengths1[i], lengths2, batch, 0, columns, penalty);
+					checksum += batch[i % columns];
+				}
+				batchTime = Math.min(batchTime, System.nanoTime() - start);
+			}
+
+			// The checksum keeps the loops from being optimized away.
+			double cells = (double)rows * columns;
+			System.out.printf("%-10s scalar %6.2f ns/cell, batch %6.2f ns/cell, speed-up %.2fx (checksum %d)%n",
+					names[m], scalarTime / cells, batchTime / cells, (double)scalarTime / batchTime, checksum);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package hr.fer.zemris.ktlab.sap.algorithms.gc;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the tabulated distance measure is exact: the model returned by
+ * <code>GaleChurchCostModel.compile()</code> gives the same distance as the
+ * model it was compiled from for every pair of lengths up to
+ * <code>MAXIMUM_LENGTH</code>, with several values of <code>c</code> and
+ * <code>sSquared</code>, so its error bound is 0; and that both models
+ * align a reference corpus (paragraphs with deletions, insertions, splits
+ * and merges, generated from a fixed seed) identically.
+ * <p>
+ * Run with <code>java hr.fer.zemris.ktlab.sap.algorithms.gc.CostTableTest</code>;
+ * an <code>AssertionError</code> is thrown on the first difference.
+ */
+public class CostTableTest {
+
+	/** The largest length of a segment checked. */
+	private static final int MAXIMUM_LENGTH = 1500;
+
+	/** The models checked: the default one and two other language pairs. */
+	private static final GaleChurchCostModel[] MODELS = {
+		GaleChurchCostModel.DEFAULT,
+		new GaleChurchCostModel(1.1, 7.3, 450, 230, 440, 2500),
+		new GaleChurchCostModel(0.85, 4.5, 400, 200, 500, 2500)
+	};
+
+	/** The seed of the reference corpus. */
+	private static final long CORPUS_SEED = 20061018L;
+
+	/** The number of paragraph pairs in the reference corpus. */
+	private static final int CORPUS_PARAGRAPHS = 200;
+
+	public static void main(String[] args) {
+		for (GaleChurchCostModel model : MODELS) {
+			checkDistances(model);
+			checkCorpus(model);
+			System.out.println("c=" + model.getC() + ", s^2=" + model.getSSquared() + ": OK");
+		}
+	}
+
+	/** Checks the distances of all pairs of lengths up to <code>MAXIMUM_LENGTH</code>. */
+	private static void checkDistances(GaleChurchCostModel model) {
+		CostModel tabulated = model.compile();
+		int[] lengths2 = new int[MAXIMUM_LENGTH + 1];
+		for (int length2=0; length2<=MAXIMUM_LENGTH; ++length2) lengths2[length2] = length2;
+		int[] distances = new int[MAXIMUM_LENGTH + 1];
+
+		for (int length1=0; length1<=MAXIMUM_LENGTH; ++length1) {
+			tabulated.distances(length1, lengths2, distances, 0, MAXIMUM_LENGTH + 1, 0);
+			for (int length2=0; length2<=MAXIMUM_LENGTH; ++length2) {
+				int exact = model.distance(length1, length2);
+				check(tabulated.distance(length1, length2) == exact, model, "distance", length1, length2);
+				check(distances[length2] == exact, model, "distances", length1, length2);
+			}
+		}
+	}
+
+	/** Aligns the reference corpus with the exact and the tabulated model and compares the paths. */
+	private static void checkCorpus(GaleChurchCostModel model) {
+		LengthAligner exact = new LengthAligner();
+		exact.setCostModel(model);
+		LengthAligner tabulated = new LengthAligner();
+		tabulated.setCostModel(model);
+		tabulated.setTabulatedCosts(true);
+		check(tabulated.isTabulatedCosts(), model, "setTabulatedCosts", 0, 0);
+
+		Random random = new Random(CORPUS_SEED);
+		for (int paragraph=0; paragraph<CORPUS_PARAGRAPHS; ++paragraph) {
+			int[][] lengths = paragraph(random);
+			List<Alignment> expected = exact.align(lengths[0], 0, lengths[0].length, lengths[1], 0, lengths[1].length);
+			List<Alignment> actual = tabulated.align(lengths[0], 0, lengths[0].length, lengths[1], 0, lengths[1].length);
+			check(expected.size() == actual.size(), model, "paragraph", paragraph, actual.size());
+			Iterator<Alignment> actualBeads = actual.iterator();
+			for (Alignment bead : expected) {
+				Alignment other = actualBeads.next();
+				check(bead.type == other.type && bead.x1 == other.x1 && bead.x2 == other.x2
+						&& bead.y1 == other.y1 && bead.y2 == other.y2 && bead.cost == other.cost,
+						model, "paragraph", paragraph, bead.x1);
+			}
+		}
+		tabulated.setTabulatedCosts(false);
+		check(tabulated.getCostModel() == model, model, "setTabulatedCosts", 0, 0);
+	}
+
+	/**
+	 * Returns the lengths of a pair of paragraphs: each source sentence is translated into one or
+	 * two sentences, merged with the next one or left out, and sentences are inserted now and then.
+	 */
+	private static int[][] paragraph(Random random) {
+		int size = 1 + random.nextInt(60);
+		int[] lengths1 = new int[size];
+		int[] lengths2 = new int[3 * size];
+		int size2 = 0;
+		for (int i=0; i<size; ++i) {
+			lengths1[i] = 5 + random.nextInt(250);
+			int translated = (int)(lengths1[i] * (0.8 + 0.4 * random.nextDouble())) + 1;
+			int kind = random.nextInt(20);
+			if (kind == 0) {
+				continue; // deleted
+			} else if (kind <= 2) {
+				lengths2[size2++] = translated / 2 + 1;
+				lengths2[size2++] = translated - translated / 2;
+			} else if (kind <= 4 && size2 > 0) {
+				lengths2[size2-1] += translated;
+			} else {
+				lengths2[size2++] = translated;
+			}
+			if (random.nextInt(30) == 0) {
+				lengths2[size2++] = 10 + random.nextInt(100); // inserted
+			}
+		}
+		int[] trimmed2 = new int[size2];
+		System.arraycopy(lengths2, 0, trimmed2, 0, size2);
+		return new int[][] { lengths1, trimmed2 };
+	}
+
+	/** Throws an <code>AssertionError</code> describing the difference if the condition is false. */
+	private static void check(boolean condition, GaleChurchCostModel model, String what, int first, int second) {
+		if (!condition) {
+			throw new AssertionError("The tabulated model differs (c=" + model.getC() + ", s^2="
+					+ model.getSSquared() + ") in " + what + " " + first + ", " + second);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package hr.fer.zemris.ktlab.sap.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Mjeri spremanje i učitavanje modela kroz <code>ObjectOutputStream</code> i
+ * <code>ObjectInputStream</code> u memoriji: veličinu zapisa te najkraće
+ * vrijeme spremanja i učitavanja od <code>REPETITIONS</code> ponavljanja.
+ * Model ima zadani broj rečenica u svakom jeziku, trećina rečenica ima
+ * atribute, a svaka rečenica prvog jezika povezana je s jednom ili dvije
+ * rečenice drugog jezika. Nakon mjerenja provjerava se da učitani model ima
+ * iste ključeve, tekstove, odlomke, atribute i veze kao spremljeni.
+ * <p>
+ * Pokreće se s
+ * <code>java hr.fer.zemris.ktlab.sap.util.SerializationBenchmark [rečenice]</code>
+ * (50000 rečenica po jeziku ako broj nije zadan). Model se zapisuje u sažetom
+ * zapisu (<code>CompactDataModel</code>); ista klasa pokrenuta nad izvornim
+ * kodom prije uvođenja sažetog zapisa mjeri zadanu serijalizaciju, pa se
+ * brojevi mogu izravno usporediti. Ako se modeli razlikuju, baca se
+ * <code>AssertionError</code>.
+ */
+public class SerializationBenchmark {
+
+	/** Broj ponavljanja mjerenja; ispisuje se najkraće vrijeme */
+	private static final int REPETITIONS = 15;
+
+	/** Sjeme slučajnih tekstova i veza */
+	private static final long SEED = 7;
+
+	/** Riječi od kojih se slažu rečenice */
+	private static final String[] WORDS = { "the", "alignment", "of",
+			"sentences", "is", "computed", "by", "dynamic", "programming",
+			"over", "lengths", "čćžšđ" };
+
+	public static void main(String[] args) throws Exception {
+		int sentences = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+		DataModel model = build(sentences);
+
+		byte[] bytes = null;
+		DataModel loaded = null;
+		long saveTime = Long.MAX_VALUE;
+		long loadTime = Long.MAX_VALUE;
+		for (int repetition = 0; repetition < REPETITIONS; ++repetition) {
+			long start = System.nanoTime();
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			ObjectOutputStream output = new ObjectOutputStream(
+					new BufferedOutputStream(buffer));
+			output.writeObject(model);
+			output.close();
+			bytes = buffer.toByteArray();
+			saveTime = Math.min(saveTime, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			ObjectInputStream input = new ObjectInputStream(
+					new BufferedInputStream(new ByteArrayInputStream(bytes)));
+			loaded = (DataModel) input.readObject();
+			input.close();
+			loadTime = Math.min(loadTime, System.nanoTime() - start);
+		}
+		loaded.initializeTransients();
+
+		String expected = dump(model);
+		String actual = dump(loaded);
+		if (!expected.equals(actual)) {
+			throw new AssertionError("The loaded model differs from the saved one ("
+					+ sentences + " sentences)");
+		}
+		System.out.printf("%d sentences: %d KB, save %.1f ms, load %.1f ms%n",
+				sentences, bytes.length / 1024, saveTime / 1e6, loadTime / 1e6);
+	}
+
+	/** Gradi model sa zadanim brojem rečenica u svakom jeziku. */
+	private static DataModel build(int sentences) {
+		Random random = new Random(SEED);
+		DataModel model = new DataModel();
+		model.setNotifyListeners(false);
+		for (int set = 0; set < 2; set++) {
+			for (int i = 0; i < sentences; i++) {
+				StringBuilder text = new StringBuilder();
+				int words = 5 + random.nextInt(25);
+				for (int w = 0; w < words; w++) {
+					if (w > 0) text.append(' ');
+					text.append(WORDS[random.nextInt(WORDS.length)]);
+				}
+				Map<String, String> attributes = null;
+				if (i % 3 == 0) {
+					attributes = new LinkedHashMap<String, String>();
+					attributes.put("id", "s" + i);
+					attributes.put("lang", (set == 0) ? "hr" : "en");
+				}
+				if (set == 0) {
+					model.add1(text.toString(), i / 20, attributes);
+				} else {
+					model.add2(text.toString(), i / 20, attributes);
+				}
+			}
+		}
+
+		List<Integer> keys1 = new ArrayList<Integer>(model.getKeys1());
+		List<Integer> keys2 = new ArrayList<Integer>(model.getKeys2());
+		for (int i = 0, j = 0; i < keys1.size() && j < keys2.size(); i++, j++) {
+			model.addConnection(keys1.get(i), keys2.get(j));
+			if (random.nextInt(10) == 0 && j + 1 < keys2.size()) {
+				model.addConnection(keys1.get(i), keys2.get(++j));
+			}
+		}
+		return model;
+	}
+
+	/** Vraća ključeve, tekstove, odlomke, atribute i veze svih elemenata modela kao tekst. */
+	private static String dump(DataModel model) {
+		StringBuilder dump = new StringBuilder();
+		List<List<Integer>> sets = new ArrayList<List<Integer>>();
+		sets.add(new ArrayList<Integer>(model.getKeys1()));
+		sets.add(new ArrayList<Integer>(model.getKeys2()));
+		for (List<Integer> keys : sets) {
+			for (Integer key : keys) {
+				dump.append(key).append('|').append(model.getElement(key))
+						.append('|').append(model.getParagraphForElement(key))
+						.append('|').append(model.getAttributesForElement(key))
+						.append('|').append(new TreeSet<Integer>(model.getConnections(key)))
+						.append('\n');
+			}
+		}
+		return dump.toString();
+	}
+}